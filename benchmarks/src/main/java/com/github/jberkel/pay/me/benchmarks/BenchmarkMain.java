@@ -0,0 +1,24 @@
+package com.github.jberkel.pay.me.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports the allocation rate
+ * (<code>gc.alloc.rate.norm</code>, in bytes per operation) next to the timings.
+ * Takes the usual JMH options, for instance
+ * <code>java -jar benchmarks/target/benchmarks.jar Inventory -p purchases=10000</code>.
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.jberkel.pay.me.benchmarks;
+
+import com.github.jberkel.pay.me.model.Inventory;
+import com.github.jberkel.pay.me.model.Purchase;
+import com.github.jberkel.pay.me.model.SkuDetails;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.jberkel.pay.me.model.ItemType.INAPP;
+
+/**
+ * Builds inventories and looks up purchases in them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InventoryBenchmark {
+    @Param({"1", "10", "100", "1000", "10000"})
+    int purchases;
+
+    private List<Purchase> mPurchases;
+    private List<SkuDetails> mDetails;
+    private Inventory mInventory;
+    private String[] mSkus;
+    private int mNext;
+
+    @Setup public void setup() throws Exception {
+        mPurchases = new ArrayList<Purchase>(purchases);
+        mDetails = new ArrayList<SkuDetails>(purchases);
+        mSkus = new String[purchases];
+        for (int i = 0; i < purchases; i++) {
+            mPurchases.add(new Purchase(INAPP, Payloads.purchase(i), ""));
+            mDetails.add(new SkuDetails(Payloads.skuDetails(i)));
+            mSkus[i] = "sku_" + i;
+        }
+        mInventory = build();
+    }
+
+    @Benchmark public Inventory add() {
+        return build();
+    }
+
+    @Benchmark public Purchase getPurchase() {
+        return mInventory.getPurchase(nextSku());
+    }
+
+    @Benchmark public boolean hasPurchase() {
+        return mInventory.hasPurchase(nextSku());
+    }
+
+    @Benchmark public SkuDetails getSkuDetails() {
+        return mInventory.getSkuDetails(nextSku());
+    }
+
+    @Benchmark public List<String> getAllOwnedSkus() {
+        return mInventory.getAllOwnedSkus();
+    }
+
+    @Benchmark public void getPurchasesByType(Blackhole blackhole) {
+        for (Purchase purchase : mInventory.getPurchases(INAPP)) {
+            blackhole.consume(purchase);
+        }
+    }
+
+    private Inventory build() {
+        final Inventory inventory = new Inventory();
+        for (Purchase purchase : mPurchases) {
+            inventory.addPurchase(purchase);
+        }
+        for (SkuDetails details : mDetails) {
+            inventory.addSkuDetails(details);
+        }
+        return inventory;
+    }
+
+    private String nextSku() {
+        final String sku = mSkus[mNext];
+        mNext = (mNext + 1) % mSkus.length;
+        return sku;
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.jberkel.pay.me.benchmarks;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates JSON documents shaped like the ones returned by the billing service.
+ */
+final class Payloads {
+    private Payloads() {
+    }
+
+    static String purchase(int i) {
+        return "{\"orderId\":\"12999763169054705758.13710794063876" + i + "\"," +
+                "\"packageName\":\"com.example.app\"," +
+                "\"productId\":\"sku_" + i + "\"," +
+                "\"purchaseTime\":1345678900000," +
+                "\"purchaseState\":0," +
+                "\"developerPayload\":\"bGoa+V7g/yqDXvKRqq+JTFn4uQZbPiQJo4pf9RzJ\"," +
+                "\"purchaseToken\":\"opaque-token-up-to-1000-characters-" + i + "\"}";
+    }
+
+    static List<String> purchases(int count) {
+        final List<String> purchases = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            purchases.add(purchase(i));
+        }
+        return purchases;
+    }
+
+    static String skuDetails(int i) {
+        return "{\"productId\":\"sku_" + i + "\",\"type\":\"inapp\",\"price\":\"€0.99\"," +
+                "\"price_amount_micros\":990000,\"price_currency_code\":\"EUR\"," +
+                "\"title\":\"Product " + i + " (Example)\"," +
+                "\"description\":\"A longer description of product " + i + ", with \\\"quotes\\\"\"}";
+    }
+
+    static List<String> skuDetails(int from, int count) {
+        final List<String> details = new ArrayList<String>(count);
+        for (int i = from; i < from + count; i++) {
+            details.add(skuDetails(i));
+        }
+        return details;
+    }
+
+    /** A key pair of the size Google Play uses. */
+    static KeyPair keyPair() throws GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    static String base64PublicKey(KeyPair keyPair) {
+        return Base64.encodeBase64String(keyPair.getPublic().getEncoded());
+    }
+
+    static String sign(KeyPair keyPair, String data) throws Exception {
+        final Signature signature = Signature.getInstance("SHA1withRSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(data.getBytes("UTF-8"));
+        return Base64.encodeBase64String(signature.sign());
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.jberkel.pay.me.benchmarks;
+
+import com.github.jberkel.pay.me.model.JsonParsing;
+import com.github.jberkel.pay.me.model.Purchase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.jberkel.pay.me.model.ItemType.INAPP;
+
+/**
+ * Parses a page of purchases, as returned by <code>getPurchases</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PurchaseBenchmark {
+    @Param({"1", "100", "10000"})
+    int purchases;
+
+    @Param({"JSON_OBJECT", "STREAMING"})
+    JsonParsing parsing;
+
+    private List<String> mData;
+
+    @Setup public void setup() {
+        mData = Payloads.purchases(purchases);
+    }
+
+    @Benchmark public void parse(Blackhole blackhole) throws Exception {
+        for (String json : mData) {
+            blackhole.consume(Purchase.parse(INAPP, json, "", parsing));
+        }
+    }
+
+    @Benchmark public void parseAndReadAll(Blackhole blackhole) throws Exception {
+        for (String json : mData) {
+            final Purchase purchase = Purchase.parse(INAPP, json, "", parsing);
+            blackhole.consume(purchase.getSku());
+            blackhole.consume(purchase.getOrderId());
+            blackhole.consume(purchase.getToken());
+            blackhole.consume(purchase.getDeveloperPayload());
+            blackhole.consume(purchase.getPurchaseTime());
+        }
+    }
+}
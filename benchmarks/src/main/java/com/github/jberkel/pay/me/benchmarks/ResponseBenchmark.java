@@ -0,0 +1,35 @@
+package com.github.jberkel.pay.me.benchmarks;
+
+import com.github.jberkel.pay.me.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps response codes, which happens for every service call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+    // the service codes and the helper's own, in the mix they are seen
+    private final int[] mCodes = { 0, 0, 0, 0, 1, 7, 8, -1001, -1008, 42 };
+    private int mNext;
+
+    @Benchmark public Response fromCode() {
+        final int code = mCodes[mNext];
+        mNext = (mNext + 1) % mCodes.length;
+        return Response.fromCode(code);
+    }
+}
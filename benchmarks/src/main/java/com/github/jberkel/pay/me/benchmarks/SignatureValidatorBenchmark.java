@@ -0,0 +1,54 @@
+package com.github.jberkel.pay.me.benchmarks;
+
+import com.github.jberkel.pay.me.validator.DefaultSignatureValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies a single purchase signature with a 2048 bit key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureValidatorBenchmark {
+    private DefaultSignatureValidator mValidator;
+    private String mData;
+    private String mSignature;
+    private String mWrongSignature;
+
+    @Setup public void setup() throws Exception {
+        final KeyPair keyPair = Payloads.keyPair();
+        mValidator = new DefaultSignatureValidator(Payloads.base64PublicKey(keyPair));
+        mData = Payloads.purchase(1);
+        mSignature = Payloads.sign(keyPair, mData);
+        mWrongSignature = Payloads.sign(keyPair, Payloads.purchase(2));
+    }
+
+    @Benchmark public boolean validate() {
+        return mValidator.validate(mData, mSignature);
+    }
+
+    /** The validator is shared by the threads verifying a page in parallel. */
+    @Benchmark @Threads(4) public boolean validateConcurrently() {
+        return mValidator.validate(mData, mSignature);
+    }
+
+    @Benchmark public boolean validateMismatch() {
+        return mValidator.validate(mData, mWrongSignature);
+    }
+}
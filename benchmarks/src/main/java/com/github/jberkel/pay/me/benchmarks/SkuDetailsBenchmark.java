@@ -0,0 +1,56 @@
+package com.github.jberkel.pay.me.benchmarks;
+
+import com.github.jberkel.pay.me.model.JsonParsing;
+import com.github.jberkel.pay.me.model.SkuDetails;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses SKU details lists, as returned by <code>getSkuDetails</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SkuDetailsBenchmark {
+    @Param({"1", "20", "1000"})
+    int skus;
+
+    @Param({"JSON_OBJECT", "STREAMING"})
+    JsonParsing parsing;
+
+    private List<String> mData;
+
+    @Setup public void setup() {
+        mData = Payloads.skuDetails(0, skus);
+    }
+
+    @Benchmark public void parse(Blackhole blackhole) throws Exception {
+        for (String json : mData) {
+            blackhole.consume(SkuDetails.parse(json, parsing));
+        }
+    }
+
+    @Benchmark public void parseAndReadPrice(Blackhole blackhole) throws Exception {
+        for (String json : mData) {
+            final SkuDetails details = SkuDetails.parse(json, parsing);
+            blackhole.consume(details.getSku());
+            blackhole.consume(details.getPrice());
+        }
+    }
+}
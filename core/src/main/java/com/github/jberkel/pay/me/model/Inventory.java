@@ -0,0 +1,186 @@
+/* Copyright (c) 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jberkel.pay.me.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.jberkel.pay.me.model.Purchase.State;
+
+/**
+ * Represents a block of information about in-app items.
+ * An Inventory is returned by such methods as <code>IabHelper.queryInventory</code>.
+ * <p/>
+ * Purchases are also indexed by item type and state, so looking them up by either doesn't scan
+ * the whole inventory. The state index is only built on the first lookup by state, so that adding
+ * lazily decoded purchases doesn't decode their state.
+ */
+public class Inventory {
+    private final Map<String,SkuDetails> mSkuMap = new HashMap<String,SkuDetails>();
+    private final Map<String,Purchase> mPurchaseMap = new HashMap<String,Purchase>();
+    // secondary indexes, maintained by addPurchase and erasePurchase
+    private final Map<ItemType,Map<String,Purchase>> mPurchasesByType =
+            new EnumMap<ItemType,Map<String,Purchase>>(ItemType.class);
+    // null until the first lookup by state
+    private Map<State,Map<String,Purchase>> mPurchasesByState;
+
+    public Inventory() {
+        for (ItemType itemType : ItemType.values()) {
+            mPurchasesByType.put(itemType, new LinkedHashMap<String,Purchase>());
+        }
+    }
+
+    /** Returns the listing details for an in-app product. */
+    public SkuDetails getSkuDetails(String sku) {
+        return mSkuMap.get(sku);
+    }
+
+    public Collection<SkuDetails> getSkuDetails() {
+        return mSkuMap.values();
+    }
+
+    /** Returns purchase information for a given product, or null if there is no purchase. */
+    public Purchase getPurchase(String sku) {
+        return mPurchaseMap.get(sku);
+    }
+
+    /** Returns whether or not there exists a purchase of the given product. */
+    public boolean hasPurchase(String sku) {
+        return mPurchaseMap.containsKey(sku);
+    }
+
+    /** Return whether or not details about the given product are available. */
+    public boolean hasDetails(String sku) {
+        return mSkuMap.containsKey(sku);
+    }
+
+    /**
+     * Erase a purchase (locally) from the inventory, given its product ID. This just
+     * modifies the Inventory object locally and has no effect on the server! This is
+     * useful when you have an existing Inventory object which you know to be up to date,
+     * and you have just consumed an item successfully, which means that erasing its
+     * purchase data from the Inventory you already have is quicker than querying for
+     * a new Inventory.
+     */
+    public void erasePurchase(String sku) {
+        Purchase erased = mPurchaseMap.remove(sku);
+        if (erased != null) unindex(erased);
+    }
+
+    /** Returns a list of all owned product IDs. */
+    public List<String> getAllOwnedSkus() {
+        return new ArrayList<String>(mPurchaseMap.keySet());
+    }
+
+    /** Returns a list of all owned product IDs of a given type */
+    public List<String> getAllOwnedSkus(ItemType itemType) {
+        if (itemType == null) return new ArrayList<String>();
+        return new ArrayList<String>(mPurchasesByType.get(itemType).keySet());
+    }
+
+    /** Returns a read-only view of all purchases of a given type. */
+    public Collection<Purchase> getPurchases(ItemType itemType) {
+        if (itemType == null) throw new IllegalArgumentException("itemType cannot be null");
+        return Collections.unmodifiableCollection(mPurchasesByType.get(itemType).values());
+    }
+
+    /** Returns a read-only view of all purchases in a given state. */
+    public Collection<Purchase> getPurchases(State state) {
+        if (state == null) throw new IllegalArgumentException("state cannot be null");
+        return Collections.unmodifiableCollection(purchasesByState().get(state).values());
+    }
+
+    /** Returns a list of all purchases. */
+    public  List<Purchase> getAllPurchases() {
+        return new ArrayList<Purchase>(mPurchaseMap.values());
+    }
+
+    // the purchases without copying them, for InventoryDiff
+    /* package */ Collection<Purchase> getPurchaseCollection() {
+        return mPurchaseMap.values();
+    }
+
+    public void addSkuDetails(SkuDetails d) {
+        mSkuMap.put(d.getSku(), d);
+    }
+
+    public void addPurchase(Purchase p) {
+        Purchase replaced = mPurchaseMap.put(p.getSku(), p);
+        if (replaced != null) unindex(replaced);
+        index(p);
+    }
+
+    /**
+     * Returns an immutable copy of this inventory, which can be shared between threads. Later
+     * changes to this inventory are not reflected in the snapshot.
+     */
+    public InventorySnapshot snapshot() {
+        InventorySnapshot snapshot = InventorySnapshot.EMPTY;
+        for (SkuDetails d : mSkuMap.values()) {
+            snapshot = snapshot.withSkuDetails(d);
+        }
+        return snapshot.withPurchases(mPurchaseMap.values());
+    }
+
+    @Override
+    public String toString() {
+        return "Inventory{" +
+                "skus=" + mSkuMap.values() +
+                ", purchases=" + mPurchaseMap.values() +
+                '}';
+    }
+
+    private Map<State,Map<String,Purchase>> purchasesByState() {
+        if (mPurchasesByState == null) {
+            mPurchasesByState = new EnumMap<State,Map<String,Purchase>>(State.class);
+            for (State state : State.values()) {
+                mPurchasesByState.put(state, new LinkedHashMap<String,Purchase>());
+            }
+            for (Purchase p : mPurchaseMap.values()) {
+                indexState(p);
+            }
+        }
+        return mPurchasesByState;
+    }
+
+    private void index(Purchase p) {
+        // purchases without a type or state are only found by sku
+        if (p.getItemType() != null) mPurchasesByType.get(p.getItemType()).put(p.getSku(), p);
+        if (mPurchasesByState != null) indexState(p);
+    }
+
+    private void indexState(Purchase p) {
+        final State state = p.getState();
+        if (state != null) mPurchasesByState.get(state).put(p.getSku(), p);
+    }
+
+    private void unindex(Purchase p) {
+        for (Map<String,Purchase> byType : mPurchasesByType.values()) {
+            byType.remove(p.getSku());
+        }
+        if (mPurchasesByState != null) {
+            for (Map<String,Purchase> byState : mPurchasesByState.values()) {
+                byState.remove(p.getSku());
+            }
+        }
+    }
+}
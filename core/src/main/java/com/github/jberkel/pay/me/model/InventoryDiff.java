@@ -0,0 +1,201 @@
+package com.github.jberkel.pay.me.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes between two inventories: purchases which were added, removed or changed their
+ * {@link Purchase.State state}, and products whose price changed.
+ * <p/>
+ * Purchases are matched by sku. If the purchase of a sku has a different token in the new inventory
+ * it is a new purchase (e.g. a consumable bought again), and is reported as the old one removed and
+ * the new one added.
+ * <p/>
+ * Create one with {@link #between(Inventory, Inventory)}, or receive them after each inventory
+ * query with {@link com.github.jberkel.pay.me.listener.InventoryChangedListener}.
+ */
+public final class InventoryDiff {
+    private final List<Purchase> mAddedPurchases;
+    private final List<Purchase> mRemovedPurchases;
+    private final List<Purchase> mChangedPurchases;
+    private final List<SkuDetails> mChangedSkuDetails;
+
+    private InventoryDiff(List<Purchase> added,
+                          List<Purchase> removed,
+                          List<Purchase> changed,
+                          List<SkuDetails> changedDetails) {
+        mAddedPurchases = added;
+        mRemovedPurchases = removed;
+        mChangedPurchases = changed;
+        mChangedSkuDetails = changedDetails;
+    }
+
+    /**
+     * Compares two inventories.
+     *
+     * @param oldInventory the previous inventory, or null if there was none
+     * @param newInventory the current inventory
+     * @return the changes from <code>oldInventory</code> to <code>newInventory</code>
+     */
+    public static InventoryDiff between(Inventory oldInventory, Inventory newInventory) {
+        if (newInventory == null) throw new IllegalArgumentException("newInventory cannot be null");
+        return between(oldInventory == null ? EMPTY : new InventorySource(oldInventory),
+                new InventorySource(newInventory));
+    }
+
+    /**
+     * Compares two inventory snapshots.
+     *
+     * @param oldSnapshot the previous snapshot, or null if there was none
+     * @param newSnapshot the current snapshot
+     * @return the changes from <code>oldSnapshot</code> to <code>newSnapshot</code>
+     */
+    public static InventoryDiff between(InventorySnapshot oldSnapshot, InventorySnapshot newSnapshot) {
+        if (newSnapshot == null) throw new IllegalArgumentException("newSnapshot cannot be null");
+        return between(oldSnapshot == null ? EMPTY : new SnapshotSource(oldSnapshot),
+                new SnapshotSource(newSnapshot));
+    }
+
+    /** Returns the purchases which are only in the new inventory. */
+    public List<Purchase> getAddedPurchases() {
+        return mAddedPurchases;
+    }
+
+    /** Returns the purchases which are only in the old inventory. */
+    public List<Purchase> getRemovedPurchases() {
+        return mRemovedPurchases;
+    }
+
+    /** Returns the purchases whose state changed, as found in the new inventory. */
+    public List<Purchase> getChangedPurchases() {
+        return mChangedPurchases;
+    }
+
+    /**
+     * Returns the details of products whose price changed, as found in the new inventory. Products
+     * which only have details in one of the inventories are not included.
+     */
+    public List<SkuDetails> getChangedSkuDetails() {
+        return mChangedSkuDetails;
+    }
+
+    /** Returns true if nothing changed. */
+    public boolean isEmpty() {
+        return mAddedPurchases.isEmpty()
+                && mRemovedPurchases.isEmpty()
+                && mChangedPurchases.isEmpty()
+                && mChangedSkuDetails.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "InventoryDiff{" +
+                "added=" + mAddedPurchases +
+                ", removed=" + mRemovedPurchases +
+                ", changed=" + mChangedPurchases +
+                ", changedSkuDetails=" + mChangedSkuDetails +
+                '}';
+    }
+
+    private static InventoryDiff between(Source oldSource, Source newSource) {
+        List<Purchase> added = null, removed = null, changed = null;
+        List<SkuDetails> changedDetails = null;
+
+        for (Purchase purchase : newSource.purchases()) {
+            final Purchase old = oldSource.purchase(purchase.getSku());
+            if (old == null) {
+                added = add(added, purchase);
+            } else if (old != purchase) {
+                if (!Strings.equals(old.getToken(), purchase.getToken())) {
+                    removed = add(removed, old);
+                    added = add(added, purchase);
+                } else if (old.getState() != purchase.getState()) {
+                    changed = add(changed, purchase);
+                }
+            }
+        }
+        for (Purchase purchase : oldSource.purchases()) {
+            if (newSource.purchase(purchase.getSku()) == null) {
+                removed = add(removed, purchase);
+            }
+        }
+        for (SkuDetails details : newSource.skuDetails()) {
+            final SkuDetails old = oldSource.skuDetails(details.getSku());
+            if (old != null && old != details && !Strings.equals(old.getPrice(), details.getPrice())) {
+                changedDetails = add(changedDetails, details);
+            }
+        }
+        return new InventoryDiff(nonNull(added), nonNull(removed), nonNull(changed), nonNull(changedDetails));
+    }
+
+    // lists are only allocated for actual changes
+    private static <T> List<T> add(List<T> list, T element) {
+        if (list == null) list = new ArrayList<T>();
+        list.add(element);
+        return list;
+    }
+
+    private static <T> List<T> nonNull(List<T> list) {
+        return list == null ? Collections.<T>emptyList() : Collections.unmodifiableList(list);
+    }
+
+    // the parts of Inventory and InventorySnapshot needed for comparing them
+    private interface Source {
+        Collection<Purchase> purchases();
+        Purchase purchase(String sku);
+        Collection<SkuDetails> skuDetails();
+        SkuDetails skuDetails(String sku);
+    }
+
+    private static final Source EMPTY = new SnapshotSource(InventorySnapshot.EMPTY);
+
+    private static class InventorySource implements Source {
+        private final Inventory mInventory;
+
+        InventorySource(Inventory inventory) {
+            mInventory = inventory;
+        }
+
+        @Override public Collection<Purchase> purchases() {
+            return mInventory.getPurchaseCollection();
+        }
+
+        @Override public Purchase purchase(String sku) {
+            return mInventory.getPurchase(sku);
+        }
+
+        @Override public Collection<SkuDetails> skuDetails() {
+            return mInventory.getSkuDetails();
+        }
+
+        @Override public SkuDetails skuDetails(String sku) {
+            return mInventory.getSkuDetails(sku);
+        }
+    }
+
+    private static class SnapshotSource implements Source {
+        private final InventorySnapshot mSnapshot;
+
+        SnapshotSource(InventorySnapshot snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        @Override public Collection<Purchase> purchases() {
+            return mSnapshot.getAllPurchases();
+        }
+
+        @Override public Purchase purchase(String sku) {
+            return mSnapshot.getPurchase(sku);
+        }
+
+        @Override public Collection<SkuDetails> skuDetails() {
+            return mSnapshot.getSkuDetails();
+        }
+
+        @Override public SkuDetails skuDetails(String sku) {
+            return mSnapshot.getSkuDetails(sku);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.jberkel.pay.me.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An immutable version of {@link Inventory}, which can be shared freely between threads without
+ * copying or locking.
+ * <p/>
+ * Updates return a new snapshot and leave this one unchanged. They are cheap: the new snapshot
+ * shares everything but the changed entry with the old one. Use {@link Inventory#snapshot()} to
+ * create a snapshot of a queried inventory.
+ */
+public final class InventorySnapshot {
+    public static final InventorySnapshot EMPTY = new InventorySnapshot(
+            PersistentHashMap.<String, SkuDetails>empty(),
+            PersistentHashMap.<String, Purchase>empty());
+
+    private final PersistentHashMap<String, SkuDetails> mSkuMap;
+    private final PersistentHashMap<String, Purchase> mPurchaseMap;
+
+    private InventorySnapshot(PersistentHashMap<String, SkuDetails> skuMap,
+                              PersistentHashMap<String, Purchase> purchaseMap) {
+        mSkuMap = skuMap;
+        mPurchaseMap = purchaseMap;
+    }
+
+    /** Returns the listing details for an in-app product. */
+    public SkuDetails getSkuDetails(String sku) {
+        return mSkuMap.get(sku);
+    }
+
+    public List<SkuDetails> getSkuDetails() {
+        return mSkuMap.values();
+    }
+
+    /** Returns purchase information for a given product, or null if there is no purchase. */
+    public Purchase getPurchase(String sku) {
+        return mPurchaseMap.get(sku);
+    }
+
+    /** Returns whether or not there exists a purchase of the given product. */
+    public boolean hasPurchase(String sku) {
+        return mPurchaseMap.containsKey(sku);
+    }
+
+    /** Return whether or not details about the given product are available. */
+    public boolean hasDetails(String sku) {
+        return mSkuMap.containsKey(sku);
+    }
+
+    /** Returns a list of all owned product IDs. */
+    public List<String> getAllOwnedSkus() {
+        return mPurchaseMap.keys();
+    }
+
+    /** Returns a list of all owned product IDs of a given type */
+    public List<String> getAllOwnedSkus(ItemType itemType) {
+        List<String> result = new ArrayList<String>();
+        for (Purchase p : mPurchaseMap.values()) {
+            if (p.getItemType() == itemType) result.add(p.getSku());
+        }
+        return result;
+    }
+
+    /** Returns a list of all purchases. */
+    public List<Purchase> getAllPurchases() {
+        return mPurchaseMap.values();
+    }
+
+    /** Returns a snapshot which also contains the given details, replacing any for the same product. */
+    public InventorySnapshot withSkuDetails(SkuDetails d) {
+        final PersistentHashMap<String, SkuDetails> skuMap = mSkuMap.put(d.getSku(), d);
+        return skuMap == mSkuMap ? this : new InventorySnapshot(skuMap, mPurchaseMap);
+    }
+
+    /** Returns a snapshot which also contains the given purchase, replacing any for the same product. */
+    public InventorySnapshot withPurchase(Purchase p) {
+        final PersistentHashMap<String, Purchase> purchaseMap = mPurchaseMap.put(p.getSku(), p);
+        return purchaseMap == mPurchaseMap ? this : new InventorySnapshot(mSkuMap, purchaseMap);
+    }
+
+    /**
+     * Returns a snapshot without the purchase of the given product, for example after it has been
+     * consumed. Like {@link Inventory#erasePurchase}, this has no effect on the server.
+     */
+    public InventorySnapshot withoutPurchase(String sku) {
+        final PersistentHashMap<String, Purchase> purchaseMap = mPurchaseMap.remove(sku);
+        return purchaseMap == mPurchaseMap ? this : new InventorySnapshot(mSkuMap, purchaseMap);
+    }
+
+    /** Returns a snapshot which also contains all the given purchases. */
+    public InventorySnapshot withPurchases(Collection<Purchase> purchases) {
+        PersistentHashMap<String, Purchase> purchaseMap = mPurchaseMap;
+        for (Purchase p : purchases) {
+            purchaseMap = purchaseMap.put(p.getSku(), p);
+        }
+        return purchaseMap == mPurchaseMap ? this : new InventorySnapshot(mSkuMap, purchaseMap);
+    }
+
+    /** Returns a mutable copy of this snapshot. */
+    public Inventory toInventory() {
+        final Inventory inventory = new Inventory();
+        for (SkuDetails d : mSkuMap.values()) {
+            inventory.addSkuDetails(d);
+        }
+        for (Purchase p : mPurchaseMap.values()) {
+            inventory.addPurchase(p);
+        }
+        return inventory;
+    }
+
+    @Override
+    public String toString() {
+        return "InventorySnapshot{" +
+                "skus=" + mSkuMap.values() +
+                ", purchases=" + mPurchaseMap.values() +
+                '}';
+    }
+}
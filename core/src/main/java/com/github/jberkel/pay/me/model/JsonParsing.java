@@ -0,0 +1,14 @@
+package com.github.jberkel.pay.me.model;
+
+/**
+ * How {@link SkuDetails} and {@link Purchase} are parsed from the JSON returned by the billing service.
+ */
+public enum JsonParsing {
+    /** Builds a full {@link org.json.JSONObject} for each item. */
+    JSON_OBJECT,
+    /**
+     * Reads only the known fields with a streaming pull parser and skips everything else,
+     * without building a {@link org.json.JSONObject}.
+     */
+    STREAMING
+}
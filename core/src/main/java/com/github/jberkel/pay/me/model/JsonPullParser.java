@@ -0,0 +1,159 @@
+package com.github.jberkel.pay.me.model;
+
+import org.json.JSONException;
+
+/**
+ * A minimal pull parser for flat JSON objects, in the style of <code>android.util.JsonReader</code>
+ * (which is not available on all supported API levels).
+ * <p/>
+ * Member names are matched in place against a list of known names, so unknown members are skipped
+ * without allocating anything. Values are decoded only when requested, using {@link JsonScanner}.
+ */
+final class JsonPullParser {
+    private final String mJson;
+    private int mPos;
+    private boolean mFirst = true;
+
+    JsonPullParser(String json) throws JSONException {
+        if (json == null) throw new JSONException("null json");
+        mJson = json;
+    }
+
+    void beginObject() throws JSONException {
+        mPos = skipWhitespace(mPos);
+        expect('{');
+        mPos++;
+    }
+
+    /**
+     * @return true if the current object has another member.
+     */
+    boolean hasNext() throws JSONException {
+        mPos = skipWhitespace(mPos);
+        if (mPos >= mJson.length()) throw syntaxError("unterminated object");
+        final char c = mJson.charAt(mPos);
+        if (c == '}') return false;
+        if (!mFirst) {
+            expect(',');
+            mPos = skipWhitespace(mPos + 1);
+        }
+        mFirst = false;
+        return true;
+    }
+
+    /**
+     * Reads the name of the next member.
+     *
+     * @param names the names to match
+     * @return the index of the name in <code>names</code>, or -1 if it is not one of them
+     */
+    int nextName(String[] names) throws JSONException {
+        expect('"');
+        final int start = mPos;
+        final int end = JsonScanner.skipValue(mJson, start);
+        final int length = end - start - 2;
+        int match = -1;
+        final int escape = mJson.indexOf('\\', start + 1);
+        if (escape != -1 && escape < end) {
+            final String name = JsonScanner.readString(mJson, start);
+            for (int i = 0; i < names.length && match == -1; i++) {
+                if (names[i].equals(name)) match = i;
+            }
+        } else {
+            for (int i = 0; i < names.length && match == -1; i++) {
+                if (names[i].length() == length && mJson.regionMatches(start + 1, names[i], 0, length)) {
+                    match = i;
+                }
+            }
+        }
+        mPos = skipWhitespace(end);
+        expect(':');
+        mPos = skipWhitespace(mPos + 1);
+        return match;
+    }
+
+    /**
+     * Reads the next value as a string, like <code>JSONObject#optString</code>: other values are
+     * returned as their JSON text.
+     */
+    String nextString() throws JSONException {
+        final int start = mPos;
+        mPos = JsonScanner.skipValue(mJson, start);
+        if (JsonScanner.isString(mJson, start)) {
+            return JsonScanner.readString(mJson, start);
+        } else {
+            return mJson.substring(start, mPos);
+        }
+    }
+
+    /**
+     * Reads the next value as a string, returning one of the <code>candidates</code> instead of
+     * a new string if it matches. Use this for values with few distinct values, to share them.
+     */
+    String nextString(String[] candidates) throws JSONException {
+        final int start = mPos;
+        final int end = JsonScanner.skipValue(mJson, start);
+        if (JsonScanner.isString(mJson, start)) {
+            final int length = end - start - 2;
+            for (String candidate : candidates) {
+                if (candidate.length() == length && mJson.regionMatches(start + 1, candidate, 0, length)) {
+                    mPos = end;
+                    return candidate;
+                }
+            }
+        }
+        return nextString();
+    }
+
+    /**
+     * Reads the next value as a long, like <code>JSONObject#optLong</code>: strings are converted
+     * if possible, values which can't be converted return 0.
+     */
+    long nextLong() throws JSONException {
+        final int start = mPos;
+        mPos = JsonScanner.skipValue(mJson, start);
+        if (JsonScanner.isLong(mJson, start)) {
+            return JsonScanner.readLong(mJson, start);
+        }
+        final String value = JsonScanner.isString(mJson, start) ?
+                JsonScanner.readString(mJson, start) : mJson.substring(start, mPos);
+        try {
+            return (long) Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    void skipValue() throws JSONException {
+        mPos = JsonScanner.skipValue(mJson, mPos);
+    }
+
+    void endObject() throws JSONException {
+        mPos = skipWhitespace(mPos);
+        expect('}');
+        mPos++;
+        mFirst = true;
+    }
+
+    private int skipWhitespace(int pos) {
+        while (pos < mJson.length()) {
+            final char c = mJson.charAt(pos);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        return pos;
+    }
+
+    private void expect(char c) throws JSONException {
+        if (mPos >= mJson.length() || mJson.charAt(mPos) != c) {
+            throw syntaxError("expected '" + c + "'");
+        }
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + mPos + " of " + mJson);
+    }
+}
@@ -0,0 +1,260 @@
+package com.github.jberkel.pay.me.model;
+
+import org.json.JSONException;
+
+/**
+ * Finds and decodes values in a JSON document in place, without building a {@link org.json.JSONObject}.
+ * Only string and integer values are decoded, callers fall back to a full parse for anything else.
+ * <p/>
+ * Offsets returned by this class always point into the original string, no copies are made
+ * unless a value is decoded.
+ */
+final class JsonScanner {
+    private JsonScanner() {
+    }
+
+    /**
+     * Checks that <code>json</code> contains a well-formed JSON object.
+     *
+     * @throws JSONException if it doesn't
+     */
+    static void checkObject(String json) throws JSONException {
+        final int start = skipWhitespace(json, 0);
+        if (start >= json.length() || json.charAt(start) != '{') {
+            throw syntaxError(json, start, "expected object");
+        }
+        final int end = skipWhitespace(json, skipValue(json, start));
+        if (end != json.length()) {
+            throw syntaxError(json, end, "unexpected content after object");
+        }
+    }
+
+    /**
+     * Looks up a member of the top-level object. Like {@link org.json.JSONObject}, the last member
+     * wins if <code>key</code> occurs more than once, so the whole object is always scanned.
+     *
+     * @param json the JSON object
+     * @param key  the name of the member
+     * @return the offset of the member's value, or -1 if there is no such member
+     * @throws JSONException if the document is malformed
+     */
+    static int findValue(String json, String key) throws JSONException {
+        int pos = skipWhitespace(json, 0);
+        expect(json, pos, '{');
+        pos = skipWhitespace(json, pos + 1);
+        if (pos < json.length() && json.charAt(pos) == '}') return -1;
+
+        int found = -1;
+        while (true) {
+            expect(json, pos, '"');
+            final int keyEnd = skipString(json, pos);
+            final boolean matches = keyEquals(json, pos, keyEnd, key);
+
+            pos = skipWhitespace(json, keyEnd);
+            expect(json, pos, ':');
+            pos = skipWhitespace(json, pos + 1);
+            if (matches) found = pos;
+
+            pos = skipWhitespace(json, skipValue(json, pos));
+            if (pos < json.length() && json.charAt(pos) == ',') {
+                pos = skipWhitespace(json, pos + 1);
+            } else {
+                expect(json, pos, '}');
+                return found;
+            }
+        }
+    }
+
+    /**
+     * @param json the JSON document
+     * @param pos  the offset of a value
+     * @return true if the value at <code>pos</code> is a string
+     */
+    static boolean isString(String json, int pos) {
+        return pos < json.length() && json.charAt(pos) == '"';
+    }
+
+    /**
+     * @param json the JSON document
+     * @param pos  the offset of a value
+     * @return true if the value at <code>pos</code> is a number without fraction or exponent which
+     * fits into a long
+     */
+    static boolean isLong(String json, int pos) {
+        int i = pos;
+        if (i < json.length() && json.charAt(i) == '-') i++;
+        final int digitsStart = i;
+        while (i < json.length() && isDigit(json.charAt(i))) i++;
+        final int digits = i - digitsStart;
+        if (digits == 0 || digits > 18) return false;
+        return i == json.length() || (json.charAt(i) != '.' && json.charAt(i) != 'e' && json.charAt(i) != 'E');
+    }
+
+    /**
+     * Decodes the string at <code>pos</code>. Only call this if {@link #isString} returned true.
+     */
+    static String readString(String json, int pos) throws JSONException {
+        final int end = skipString(json, pos);
+        final int contentEnd = end - 1;
+        final int firstEscape = json.indexOf('\\', pos + 1);
+        if (firstEscape == -1 || firstEscape >= contentEnd) {
+            return json.substring(pos + 1, contentEnd);
+        }
+        final StringBuilder sb = new StringBuilder(contentEnd - pos);
+        sb.append(json, pos + 1, firstEscape);
+        for (int i = firstEscape; i < contentEnd; i++) {
+            final char c = json.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            final char escaped = json.charAt(++i);
+            switch (escaped) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (i + 4 >= contentEnd) throw syntaxError(json, i, "invalid unicode escape");
+                    try {
+                        sb.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException e) {
+                        throw syntaxError(json, i, "invalid unicode escape");
+                    }
+                    i += 4;
+                    break;
+                default:
+                    sb.append(escaped);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decodes the number at <code>pos</code>. Only call this if {@link #isLong} returned true.
+     */
+    static long readLong(String json, int pos) {
+        int i = pos;
+        final boolean negative = json.charAt(i) == '-';
+        if (negative) i++;
+        long value = 0;
+        while (i < json.length() && isDigit(json.charAt(i))) {
+            value = value * 10 + (json.charAt(i++) - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return the offset just past the value starting at <code>pos</code>
+     * @throws JSONException if the value is malformed
+     */
+    static int skipValue(String json, int pos) throws JSONException {
+        if (pos >= json.length()) throw syntaxError(json, pos, "expected value");
+        final char c = json.charAt(pos);
+        switch (c) {
+            case '"':
+                return skipString(json, pos);
+            case '{':
+                return skipContainer(json, pos, '}', true);
+            case '[':
+                return skipContainer(json, pos, ']', false);
+            case 't':
+                return skipLiteral(json, pos, "true");
+            case 'f':
+                return skipLiteral(json, pos, "false");
+            case 'n':
+                return skipLiteral(json, pos, "null");
+            default:
+                return skipNumber(json, pos);
+        }
+    }
+
+    private static int skipContainer(String json, int pos, char close, boolean object) throws JSONException {
+        pos = skipWhitespace(json, pos + 1);
+        if (pos < json.length() && json.charAt(pos) == close) return pos + 1;
+        while (true) {
+            if (object) {
+                expect(json, pos, '"');
+                pos = skipWhitespace(json, skipString(json, pos));
+                expect(json, pos, ':');
+                pos = skipWhitespace(json, pos + 1);
+            }
+            pos = skipWhitespace(json, skipValue(json, pos));
+            if (pos < json.length() && json.charAt(pos) == ',') {
+                pos = skipWhitespace(json, pos + 1);
+            } else {
+                expect(json, pos, close);
+                return pos + 1;
+            }
+        }
+    }
+
+    // returns the offset just past the closing quote
+    private static int skipString(String json, int pos) throws JSONException {
+        for (int i = pos + 1; i < json.length(); i++) {
+            final char c = json.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i + 1;
+            }
+        }
+        throw syntaxError(json, pos, "unterminated string");
+    }
+
+    private static int skipLiteral(String json, int pos, String literal) throws JSONException {
+        if (!json.startsWith(literal, pos)) throw syntaxError(json, pos, "expected " + literal);
+        return pos + literal.length();
+    }
+
+    private static int skipNumber(String json, int pos) throws JSONException {
+        int i = pos;
+        while (i < json.length()) {
+            final char c = json.charAt(i);
+            if (isDigit(c) || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                i++;
+            } else {
+                break;
+            }
+        }
+        if (i == pos) throw syntaxError(json, pos, "unexpected character");
+        return i;
+    }
+
+    private static boolean keyEquals(String json, int start, int end, String key) throws JSONException {
+        // compare in place, keys with escapes are rare enough to decode them
+        final int length = end - start - 2;
+        final int escape = json.indexOf('\\', start + 1);
+        if (escape != -1 && escape < end) {
+            return key.equals(readString(json, start));
+        }
+        return length == key.length() && json.regionMatches(start + 1, key, 0, length);
+    }
+
+    private static int skipWhitespace(String json, int pos) {
+        while (pos < json.length()) {
+            final char c = json.charAt(pos);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        return pos;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static void expect(String json, int pos, char c) throws JSONException {
+        if (pos >= json.length() || json.charAt(pos) != c) {
+            throw syntaxError(json, pos, "expected '" + c + "'");
+        }
+    }
+
+    private static JSONException syntaxError(String json, int pos, String message) {
+        return new JSONException(message + " at character " + pos + " of " + json);
+    }
+}
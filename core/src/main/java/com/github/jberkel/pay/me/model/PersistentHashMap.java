@@ -0,0 +1,349 @@
+package com.github.jberkel.pay.me.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable hash map with cheap updates: {@link #put} and {@link #remove} return a new map which
+ * shares all unchanged parts with the old one. Implemented as a hash array mapped trie, so lookups
+ * and updates touch at most seven nodes.
+ * <p/>
+ * Keys cannot be null. Instances are immutable and therefore thread-safe.
+ */
+final class PersistentHashMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentHashMap<Object, Object> EMPTY = new PersistentHashMap<Object, Object>(null, 0);
+
+    private final Node<K, V> mRoot;
+    private final int mSize;
+
+    private PersistentHashMap(Node<K, V> root, int size) {
+        mRoot = root;
+        mSize = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    V get(K key) {
+        if (key == null) throw new IllegalArgumentException("key cannot be null");
+        return mRoot == null ? null : mRoot.get(0, hash(key), key);
+    }
+
+    boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return a map with <code>value</code> stored under <code>key</code>
+     */
+    PersistentHashMap<K, V> put(K key, V value) {
+        if (key == null) throw new IllegalArgumentException("key cannot be null");
+        if (value == null) throw new IllegalArgumentException("value cannot be null");
+        final int hash = hash(key);
+        final Entry<K, V> entry = new Entry<K, V>(hash, key, value);
+        if (mRoot == null) {
+            return new PersistentHashMap<K, V>(new BitmapNode<K, V>(0, entry), 1);
+        }
+        final boolean[] added = new boolean[1];
+        final Node<K, V> root = mRoot.put(0, entry, added);
+        return root == mRoot ? this : new PersistentHashMap<K, V>(root, added[0] ? mSize + 1 : mSize);
+    }
+
+    /**
+     * @return a map without <code>key</code>
+     */
+    PersistentHashMap<K, V> remove(K key) {
+        if (key == null) throw new IllegalArgumentException("key cannot be null");
+        if (mRoot == null) return this;
+        final Node<K, V> root = mRoot.remove(0, hash(key), key);
+        if (root == mRoot) {
+            return this;
+        } else if (root == null) {
+            return empty();
+        } else {
+            return new PersistentHashMap<K, V>(root, mSize - 1);
+        }
+    }
+
+    List<K> keys() {
+        final List<Entry<K, V>> entries = entries();
+        final List<K> keys = new ArrayList<K>(entries.size());
+        for (Entry<K, V> entry : entries) {
+            keys.add(entry.key);
+        }
+        return keys;
+    }
+
+    List<V> values() {
+        final List<Entry<K, V>> entries = entries();
+        final List<V> values = new ArrayList<V>(entries.size());
+        for (Entry<K, V> entry : entries) {
+            values.add(entry.value);
+        }
+        return values;
+    }
+
+    private List<Entry<K, V>> entries() {
+        final List<Entry<K, V>> entries = new ArrayList<Entry<K, V>>(mSize);
+        if (mRoot != null) mRoot.collect(entries);
+        return entries;
+    }
+
+    private static int hash(Object key) {
+        // spread the bits, as HashMap does, so that the first levels of the trie are used evenly
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V> merge(int shift, Entry<K, V> a, Entry<K, V> b) {
+        if (a.hash == b.hash) {
+            return new CollisionNode<K, V>(a.hash, new Entry[]{a, b});
+        }
+        final int bitA = bit(a.hash, shift), bitB = bit(b.hash, shift);
+        if (bitA == bitB) {
+            return new BitmapNode<K, V>(bitA, new Object[]{merge(shift + BITS, a, b)});
+        } else {
+            // compare unsigned, the highest bit is negative
+            final boolean aFirst = (bitA & 0xffffffffL) < (bitB & 0xffffffffL);
+            return new BitmapNode<K, V>(bitA | bitB, aFirst ? new Object[]{a, b} : new Object[]{b, a});
+        }
+    }
+
+    private static final class Entry<K, V> {
+        final int hash;
+        final K key;
+        final V value;
+
+        Entry(int hash, K key, V value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private interface Node<K, V> {
+        V get(int shift, int hash, K key);
+
+        /** @return the updated node, or this node if nothing changed */
+        Node<K, V> put(int shift, Entry<K, V> entry, boolean[] added);
+
+        /** @return the updated node, null if it is now empty, or this node if nothing changed */
+        Node<K, V> remove(int shift, int hash, K key);
+
+        /** @return the only entry of this node, or null if it has more than one entry or any children */
+        Entry<K, V> singleEntry();
+
+        void collect(List<Entry<K, V>> entries);
+    }
+
+    // slots hold either an Entry or a child Node, ordered by their bit in the bitmap
+    private static final class BitmapNode<K, V> implements Node<K, V> {
+        private final int mBitmap;
+        private final Object[] mSlots;
+
+        BitmapNode(int shift, Entry<K, V> entry) {
+            this(bit(entry.hash, shift), new Object[]{entry});
+        }
+
+        BitmapNode(int bitmap, Object[] slots) {
+            mBitmap = bitmap;
+            mSlots = slots;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(int shift, int hash, K key) {
+            final int bit = bit(hash, shift);
+            if ((mBitmap & bit) == 0) return null;
+            final Object slot = mSlots[index(bit)];
+            if (slot instanceof Entry) {
+                final Entry<K, V> entry = (Entry<K, V>) slot;
+                return entry.hash == hash && entry.key.equals(key) ? entry.value : null;
+            } else {
+                return ((Node<K, V>) slot).get(shift + BITS, hash, key);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> put(int shift, Entry<K, V> entry, boolean[] added) {
+            final int bit = bit(entry.hash, shift);
+            final int index = index(bit);
+            if ((mBitmap & bit) == 0) {
+                final Object[] slots = new Object[mSlots.length + 1];
+                System.arraycopy(mSlots, 0, slots, 0, index);
+                slots[index] = entry;
+                System.arraycopy(mSlots, index, slots, index + 1, mSlots.length - index);
+                added[0] = true;
+                return new BitmapNode<K, V>(mBitmap | bit, slots);
+            }
+            final Object slot = mSlots[index];
+            final Object replacement;
+            if (slot instanceof Entry) {
+                final Entry<K, V> existing = (Entry<K, V>) slot;
+                if (existing.hash == entry.hash && existing.key.equals(entry.key)) {
+                    if (existing.value == entry.value) return this;
+                    replacement = entry;
+                } else {
+                    replacement = merge(shift + BITS, existing, entry);
+                    added[0] = true;
+                }
+            } else {
+                final Node<K, V> child = (Node<K, V>) slot;
+                replacement = child.put(shift + BITS, entry, added);
+                if (replacement == child) return this;
+            }
+            return new BitmapNode<K, V>(mBitmap, replace(index, replacement));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> remove(int shift, int hash, K key) {
+            final int bit = bit(hash, shift);
+            if ((mBitmap & bit) == 0) return this;
+            final int index = index(bit);
+            final Object slot = mSlots[index];
+            if (slot instanceof Entry) {
+                final Entry<K, V> entry = (Entry<K, V>) slot;
+                if (entry.hash != hash || !entry.key.equals(key)) return this;
+                return without(bit, index);
+            }
+            final Node<K, V> child = (Node<K, V>) slot;
+            final Node<K, V> newChild = child.remove(shift + BITS, hash, key);
+            if (newChild == child) {
+                return this;
+            } else if (newChild == null) {
+                return without(bit, index);
+            } else {
+                // pull single entries up, so that the trie doesn't keep chains of one-entry nodes
+                final Entry<K, V> single = newChild.singleEntry();
+                return new BitmapNode<K, V>(mBitmap, replace(index, single != null ? single : newChild));
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<K, V> singleEntry() {
+            return mSlots.length == 1 && mSlots[0] instanceof Entry ? (Entry<K, V>) mSlots[0] : null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void collect(List<Entry<K, V>> entries) {
+            for (Object slot : mSlots) {
+                if (slot instanceof Entry) {
+                    entries.add((Entry<K, V>) slot);
+                } else {
+                    ((Node<K, V>) slot).collect(entries);
+                }
+            }
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(mBitmap & (bit - 1));
+        }
+
+        private Object[] replace(int index, Object slot) {
+            final Object[] slots = mSlots.clone();
+            slots[index] = slot;
+            return slots;
+        }
+
+        private Node<K, V> without(int bit, int index) {
+            if (mSlots.length == 1) return null;
+            final Object[] slots = new Object[mSlots.length - 1];
+            System.arraycopy(mSlots, 0, slots, 0, index);
+            System.arraycopy(mSlots, index + 1, slots, index, slots.length - index);
+            return new BitmapNode<K, V>(mBitmap & ~bit, slots);
+        }
+    }
+
+    // entries whose keys have the same hash
+    private static final class CollisionNode<K, V> implements Node<K, V> {
+        private final int mHash;
+        private final Entry<K, V>[] mEntries;
+
+        CollisionNode(int hash, Entry<K, V>[] entries) {
+            mHash = hash;
+            mEntries = entries;
+        }
+
+        @Override
+        public V get(int shift, int hash, K key) {
+            final int index = hash == mHash ? indexOf(key) : -1;
+            return index == -1 ? null : mEntries[index].value;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> put(int shift, Entry<K, V> entry, boolean[] added) {
+            if (entry.hash != mHash) {
+                // nest this node in a bitmap node, which can tell the two hashes apart
+                return new BitmapNode<K, V>(bit(mHash, shift), new Object[]{this}).put(shift, entry, added);
+            }
+            final int index = indexOf(entry.key);
+            final Entry<K, V>[] entries;
+            if (index == -1) {
+                entries = new Entry[mEntries.length + 1];
+                System.arraycopy(mEntries, 0, entries, 0, mEntries.length);
+                entries[mEntries.length] = entry;
+                added[0] = true;
+            } else {
+                if (mEntries[index].value == entry.value) return this;
+                entries = mEntries.clone();
+                entries[index] = entry;
+            }
+            return new CollisionNode<K, V>(mHash, entries);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> remove(int shift, int hash, K key) {
+            final int index = hash == mHash ? indexOf(key) : -1;
+            if (index == -1) return this;
+            if (mEntries.length == 1) return null;
+            final Entry<K, V>[] entries = new Entry[mEntries.length - 1];
+            System.arraycopy(mEntries, 0, entries, 0, index);
+            System.arraycopy(mEntries, index + 1, entries, index, entries.length - index);
+            return new CollisionNode<K, V>(mHash, entries);
+        }
+
+        @Override
+        public Entry<K, V> singleEntry() {
+            return mEntries.length == 1 ? mEntries[0] : null;
+        }
+
+        @Override
+        public void collect(List<Entry<K, V>> entries) {
+            for (Entry<K, V> entry : mEntries) {
+                entries.add(entry);
+            }
+        }
+
+        private int indexOf(K key) {
+            for (int i = 0; i < mEntries.length; i++) {
+                if (mEntries[i].key.equals(key)) return i;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/* Copyright (c) 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jberkel.pay.me.model;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Represents an in-app billing purchase.
+ * <p/>
+ * See also <code>IInAppBillingService#getPurchases(int, String, String, String)</code>
+ */
+public class Purchase {
+    private static final long NOT_DECODED = Long.MIN_VALUE;
+
+    // in lazy mode, these fields are decoded on first access
+    private volatile String mOrderId;
+    private volatile String mPackageName;
+    private final String mSku;
+    private volatile long mPurchaseTime = NOT_DECODED;
+    private volatile long mPurchaseState = NOT_DECODED;
+    private volatile State mState;
+    private volatile String mDeveloperPayload;
+    private volatile String mToken;
+
+    private final ItemType mItemType;
+    private final String mSignature;
+    private final String mOriginalJson;
+
+    // the fully parsed JSON, in lazy mode only used for values the scanner can't decode
+    private volatile JSONObject mJson;
+
+    /**
+     * @param itemType the item type for this purchase, cannot be null.
+     * @param jsonPurchaseInfo the JSON representation of this purchase
+     * @param signature the signature
+     * @throws JSONException if the purchase cannot be parsed or is invalid.
+     */
+    public Purchase(ItemType itemType, String jsonPurchaseInfo, String signature) throws JSONException {
+        if (itemType == null) throw new IllegalArgumentException("itemType cannot be null");
+        mItemType = itemType;
+        final JSONObject json = new JSONObject(jsonPurchaseInfo);
+
+        mOrderId = json.optString(ORDER_ID);
+        mPackageName = json.optString(PACKAGE_NAME);
+        mSku = json.optString(PRODUCT_ID);
+        mPurchaseTime = json.optLong(PURCHASE_TIME);
+        mPurchaseState = json.optInt(PURCHASE_STATE);
+        mDeveloperPayload = json.optString(DEVELOPER_PAYLOAD);
+        mToken = json.optString(TOKEN, json.optString(PURCHASE_TOKEN));
+
+        mOriginalJson = jsonPurchaseInfo;
+        mSignature = signature;
+
+        if (Strings.isEmpty(mSku)) {
+            throw new JSONException("SKU is empty");
+        }
+    }
+
+    // lazy mode, only the sku is decoded up front
+    private Purchase(ItemType itemType, String jsonPurchaseInfo, String signature, String sku) {
+        mItemType = itemType;
+        mOriginalJson = jsonPurchaseInfo;
+        mSignature = signature;
+        mSku = sku;
+    }
+
+    private Purchase(ItemType itemType, String jsonPurchaseInfo, String signature,
+                     String orderId, String packageName, String sku, long purchaseTime, int purchaseState,
+                     String developerPayload, String token) {
+        mItemType = itemType;
+        mOriginalJson = jsonPurchaseInfo;
+        mSignature = signature;
+        mOrderId = orderId;
+        mPackageName = packageName;
+        mSku = sku;
+        mPurchaseTime = purchaseTime;
+        mPurchaseState = purchaseState;
+        mDeveloperPayload = developerPayload;
+        mToken = token;
+    }
+
+    /**
+     * Parses a purchase.
+     *
+     * @param itemType the item type for this purchase, cannot be null.
+     * @param jsonPurchaseInfo the JSON representation of this purchase
+     * @param signature the signature
+     * @param parsing the parser to use
+     * @return the purchase
+     * @throws JSONException if the purchase cannot be parsed or is invalid.
+     */
+    public static Purchase parse(ItemType itemType,
+                                 String jsonPurchaseInfo,
+                                 String signature,
+                                 JsonParsing parsing) throws JSONException {
+        if (parsing == JsonParsing.STREAMING) {
+            return parseStreaming(itemType, jsonPurchaseInfo, signature);
+        } else {
+            return new Purchase(itemType, jsonPurchaseInfo, signature);
+        }
+    }
+
+    private static Purchase parseStreaming(ItemType itemType, String json, String signature) throws JSONException {
+        if (itemType == null) throw new IllegalArgumentException("itemType cannot be null");
+        String orderId = "", packageName = "", sku = "", developerPayload = "";
+        String token = null, purchaseToken = "";
+        long purchaseTime = 0, purchaseState = 0;
+
+        final JsonPullParser parser = new JsonPullParser(json);
+        parser.beginObject();
+        while (parser.hasNext()) {
+            switch (parser.nextName(FIELDS)) {
+                case 0: orderId = parser.nextString(); break;
+                case 1: packageName = parser.nextString(); break;
+                case 2: sku = parser.nextString(); break;
+                case 3: purchaseTime = parser.nextLong(); break;
+                case 4: purchaseState = parser.nextLong(); break;
+                case 5: developerPayload = parser.nextString(); break;
+                case 6: token = parser.nextString(); break;
+                case 7: purchaseToken = parser.nextString(); break;
+                default: parser.skipValue();
+            }
+        }
+        parser.endObject();
+        if (Strings.isEmpty(sku)) {
+            throw new JSONException("SKU is empty");
+        }
+        return new Purchase(itemType, json, signature, orderId, packageName, sku, purchaseTime,
+                (int) purchaseState, developerPayload, token != null ? token : purchaseToken);
+    }
+
+    /**
+     * Creates a purchase which decodes its fields lazily. Construction only checks that
+     * <code>jsonPurchaseInfo</code> is a well-formed JSON object and extracts the sku, all other
+     * fields are scanned for in the original string the first time they are accessed. This
+     * avoids building a {@link JSONObject} for purchases of which only a few fields are used.
+     * <p/>
+     * The resulting purchase behaves exactly like one created with the public constructor.
+     *
+     * @param itemType the item type for this purchase, cannot be null.
+     * @param jsonPurchaseInfo the JSON representation of this purchase
+     * @param signature the signature
+     * @return the purchase
+     * @throws JSONException if the purchase cannot be parsed or is invalid.
+     */
+    public static Purchase lazy(ItemType itemType, String jsonPurchaseInfo, String signature) throws JSONException {
+        if (itemType == null) throw new IllegalArgumentException("itemType cannot be null");
+        if (jsonPurchaseInfo == null) throw new JSONException("null purchase data");
+        JsonScanner.checkObject(jsonPurchaseInfo);
+
+        final int pos = JsonScanner.findValue(jsonPurchaseInfo, PRODUCT_ID);
+        final String sku;
+        if (pos == -1) {
+            sku = null;
+        } else if (JsonScanner.isString(jsonPurchaseInfo, pos)) {
+            sku = JsonScanner.readString(jsonPurchaseInfo, pos);
+        } else {
+            sku = new JSONObject(jsonPurchaseInfo).optString(PRODUCT_ID);
+        }
+        if (Strings.isEmpty(sku)) {
+            throw new JSONException("SKU is empty");
+        }
+        return new Purchase(itemType, jsonPurchaseInfo, signature, sku);
+    }
+
+    public ItemType getItemType() {
+        return mItemType;
+    }
+
+    /**
+     * @return A unique order identifier for the transaction. This corresponds to the Google Wallet Order ID.
+     */
+    public String getOrderId() {
+        String orderId = mOrderId;
+        if (orderId == null) {
+            mOrderId = orderId = optString(ORDER_ID, "");
+        }
+        return orderId;
+    }
+
+    /**
+     *
+     * @return The application package from which the purchase originated.
+     */
+    public String getPackageName() {
+        String packageName = mPackageName;
+        if (packageName == null) {
+            mPackageName = packageName = optString(PACKAGE_NAME, "");
+        }
+        return packageName;
+    }
+
+    /**
+     * @return The item's product identifier. Every item has a product ID, which you must specify in
+     * the application's product list on the Google Play Developer Console.
+     */
+    public String getSku() {
+        return mSku;
+    }
+
+    /**
+     * @return The time the product was purchased, in milliseconds since the epoch (Jan 1, 1970).
+     */
+    public long getPurchaseTime() {
+        long purchaseTime = mPurchaseTime;
+        if (purchaseTime == NOT_DECODED) {
+            mPurchaseTime = purchaseTime = optLong(PURCHASE_TIME);
+        }
+        return purchaseTime;
+    }
+
+    /**
+     * @return The purchase state of the order. Possible values are 0 (purchased), 1 (canceled), or 2 (refunded).
+     */
+    public int getRawState() {
+        long purchaseState = mPurchaseState;
+        if (purchaseState == NOT_DECODED) {
+            // same truncation as JSONObject#optInt
+            mPurchaseState = purchaseState = (int) optLong(PURCHASE_STATE);
+        }
+        return (int) purchaseState;
+    }
+
+    /**
+     * @return The parsed purchase state of the order.
+     */
+    public State getState() {
+        State state = mState;
+        if (state == null) {
+            mState = state = State.fromCode(getRawState());
+        }
+        return state;
+    }
+
+    /**
+     * @return A developer-specified string that contains supplemental information about an order. You
+     * can specify a value for this field when you make a getBuyIntent request.
+     */
+    public String getDeveloperPayload() {
+        String developerPayload = mDeveloperPayload;
+        if (developerPayload == null) {
+            mDeveloperPayload = developerPayload = optString(DEVELOPER_PAYLOAD, "");
+        }
+        return developerPayload;
+    }
+
+    /**
+     * @return A token that uniquely identifies a purchase for a given item and user pair.
+     */
+    public String getToken() {
+        String token = mToken;
+        if (token == null) {
+            mToken = token = optString(TOKEN, optString(PURCHASE_TOKEN, ""));
+        }
+        return token;
+    }
+
+    /**
+     * @return the original JSON response, as received from the billing service. This is the same
+     * instance that was passed in, it is never copied.
+     */
+    public String getOriginalJson() {
+        return mOriginalJson;
+    }
+
+    /**
+     * @return the signature, as received from the billing service.
+     */
+    public String getSignature() { return mSignature; }
+
+    @Override
+    public String toString() {
+        return "Purchase(type:" + mItemType + "):" + mOriginalJson;
+    }
+
+    // like JSONObject#optString, but scans the original JSON if possible
+    private String optString(String key, String fallback) {
+        try {
+            final int pos = JsonScanner.findValue(mOriginalJson, key);
+            if (pos == -1) {
+                return fallback;
+            } else if (JsonScanner.isString(mOriginalJson, pos)) {
+                return JsonScanner.readString(mOriginalJson, pos);
+            }
+        } catch (JSONException ignored) {
+            // checked on construction, let the full parse deal with it
+        }
+        return json().optString(key, fallback);
+    }
+
+    // like JSONObject#optLong, but scans the original JSON if possible
+    private long optLong(String key) {
+        try {
+            final int pos = JsonScanner.findValue(mOriginalJson, key);
+            if (pos == -1) {
+                return 0;
+            } else if (JsonScanner.isLong(mOriginalJson, pos)) {
+                return JsonScanner.readLong(mOriginalJson, pos);
+            }
+        } catch (JSONException ignored) {
+            // checked on construction, let the full parse deal with it
+        }
+        return json().optLong(key);
+    }
+
+    private JSONObject json() {
+        JSONObject json = mJson;
+        if (json == null) {
+            try {
+                mJson = json = new JSONObject(mOriginalJson);
+            } catch (JSONException e) {
+                // the scanner accepted it, so this should not happen
+                throw new IllegalStateException("cannot parse purchase " + mOriginalJson, e);
+            }
+        }
+        return json;
+    }
+
+    /**
+     * The purchase state of the order.
+     */
+    public enum State {
+        PURCHASED(0),
+        CANCELED(1),
+        REFUNDED(2),
+        UNKNOWN(-1);
+
+        // indexed by code, values() clones the array on every call
+        private static final State[] BY_CODE = { PURCHASED, CANCELED, REFUNDED };
+
+        final int code;
+
+        State(int code) {
+            this.code = code;
+        }
+        public static State fromCode(int code) {
+            return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : UNKNOWN;
+        }
+    }
+
+    // fields used in service JSON response
+    private static final String PACKAGE_NAME = "packageName";
+    private static final String PRODUCT_ID = "productId";
+    private static final String PURCHASE_TIME = "purchaseTime";
+    private static final String PURCHASE_STATE = "purchaseState";
+    private static final String DEVELOPER_PAYLOAD = "developerPayload";
+    private static final String PURCHASE_TOKEN = "purchaseToken";
+    private static final String TOKEN = "token";
+    private static final String ORDER_ID = "orderId";
+
+    // for the streaming parser, in the order used by parseStreaming
+    private static final String[] FIELDS = {
+            ORDER_ID, PACKAGE_NAME, PRODUCT_ID, PURCHASE_TIME, PURCHASE_STATE, DEVELOPER_PAYLOAD, TOKEN, PURCHASE_TOKEN
+    };
+}
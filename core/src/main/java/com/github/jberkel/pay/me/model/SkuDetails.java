@@ -15,15 +15,13 @@
 
 package com.github.jberkel.pay.me.model;
 
-import android.text.TextUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
  * Represents an in-app product's listing details.
  * <p/>
- * See also
- * {@link com.android.vending.billing.IInAppBillingService#getSkuDetails(int, String, String, android.os.Bundle)}
+ * See also <code>IInAppBillingService#getSkuDetails(int, String, String, Bundle)</code>
  */
 public class SkuDetails {
     private final String mSku;
@@ -39,7 +37,7 @@ public class SkuDetails {
         mJson = jsonSkuDetails;
         JSONObject json = new JSONObject(mJson);
         mSku = json.optString(PRODUCT_ID);
-        if (TextUtils.isEmpty(mSku)) {
+        if (Strings.isEmpty(mSku)) {
             throw new JSONException("SKU cannot be empty");
         }
         mType = json.optString(TYPE);
@@ -49,6 +47,53 @@ public class SkuDetails {
         mItemType = ItemType.fromString(mType);
     }
 
+    private SkuDetails(String json, String sku, String type, String price, String title, String description) {
+        mJson = json;
+        mSku = sku;
+        mType = type;
+        mPrice = price;
+        mTitle = title;
+        mDescription = description;
+        mItemType = ItemType.fromString(mType);
+    }
+
+    /**
+     * Parses product details.
+     *
+     * @param jsonSkuDetails the JSON representation of the details
+     * @param parsing        the parser to use
+     * @return the details
+     * @throws JSONException if the details cannot be parsed or are invalid.
+     */
+    public static SkuDetails parse(String jsonSkuDetails, JsonParsing parsing) throws JSONException {
+        if (parsing == JsonParsing.STREAMING) {
+            return parseStreaming(jsonSkuDetails);
+        } else {
+            return new SkuDetails(jsonSkuDetails);
+        }
+    }
+
+    private static SkuDetails parseStreaming(String json) throws JSONException {
+        String sku = "", type = "", price = "", title = "", description = "";
+        final JsonPullParser parser = new JsonPullParser(json);
+        parser.beginObject();
+        while (parser.hasNext()) {
+            switch (parser.nextName(FIELDS)) {
+                case 0: sku = parser.nextString(); break;
+                case 1: type = parser.nextString(TYPES); break;
+                case 2: price = parser.nextString(); break;
+                case 3: title = parser.nextString(); break;
+                case 4: description = parser.nextString(); break;
+                default: parser.skipValue();
+            }
+        }
+        parser.endObject();
+        if (Strings.isEmpty(sku)) {
+            throw new JSONException("SKU cannot be empty");
+        }
+        return new SkuDetails(json, sku, type, price, title, description);
+    }
+
     // package constructor for TestSkus
     SkuDetails(ItemType itemType,
                String sku,
@@ -56,7 +101,7 @@ public class SkuDetails {
                String title,
                String description) {
         if (itemType == null) throw new IllegalArgumentException("itemType cannot be null");
-        if (TextUtils.isEmpty(sku)) {
+        if (Strings.isEmpty(sku)) {
             throw new IllegalArgumentException("SKU cannot be empty");
         }
         mItemType = itemType;
@@ -109,6 +154,14 @@ public class SkuDetails {
         return mItemType;
     }
 
+    /**
+     * @return the original JSON response, as received from the billing service, or null for
+     * details which were not received from the service.
+     */
+    public String getOriginalJson() {
+        return mJson;
+    }
+
     @Override
     public String toString() {
         return "SkuDetails{" +
@@ -132,4 +185,8 @@ public class SkuDetails {
     private static final String PRICE = "price";
     private static final String TITLE = "title";
     private static final String DESCRIPTION = "description";
+
+    // for the streaming parser, in the order used by parseStreaming
+    private static final String[] FIELDS = { PRODUCT_ID, TYPE, PRICE, TITLE, DESCRIPTION };
+    private static final String[] TYPES = { "inapp", "subs" };
 }
@@ -0,0 +1,17 @@
+package com.github.jberkel.pay.me.model;
+
+/**
+ * The parts of <code>android.text.TextUtils</code> the model needs, so that it runs on any JVM.
+ */
+final class Strings {
+    private Strings() {
+    }
+
+    static boolean isEmpty(String s) {
+        return s == null || s.length() == 0;
+    }
+
+    static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
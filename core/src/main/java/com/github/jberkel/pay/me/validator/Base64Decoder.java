@@ -0,0 +1,89 @@
+package com.github.jberkel.pay.me.validator;
+
+/**
+ * Decodes Base64 into a caller-supplied buffer, accepting the same input as
+ * <code>android.util.Base64.decode(input, Base64.DEFAULT)</code>: the standard alphabet and optional
+ * padding. Like Android's decoder, it ignores all other characters, such as line breaks.
+ */
+final class Base64Decoder {
+    private static final int SKIP = -1;
+    private static final int[] DECODE = new int[128];
+
+    static {
+        for (int i = 0; i < DECODE.length; i++) {
+            DECODE[i] = SKIP;
+        }
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private Base64Decoder() {
+    }
+
+    /**
+     * @return the maximum number of bytes <code>input</code> can decode to
+     */
+    static int maxDecodedLength(String input) {
+        return (input.length() + 3) / 4 * 3;
+    }
+
+    /**
+     * @return the decoded bytes
+     * @throws IllegalArgumentException if the input is not valid Base64
+     */
+    static byte[] decode(String input) {
+        final byte[] buffer = new byte[maxDecodedLength(input)];
+        final int length = decode(input, buffer);
+        if (length == -1) throw new IllegalArgumentException("bad base-64");
+        if (length == buffer.length) return buffer;
+        final byte[] decoded = new byte[length];
+        System.arraycopy(buffer, 0, decoded, 0, length);
+        return decoded;
+    }
+
+    /**
+     * Decodes <code>input</code> into <code>output</code>, which has to hold at least
+     * {@link #maxDecodedLength(String)} bytes.
+     *
+     * @return the number of bytes decoded, or -1 if the input is not valid Base64
+     */
+    static int decode(String input, byte[] output) {
+        int bits = 0, count = 0, length = 0;
+        int i = 0;
+        for (; i < input.length(); i++) {
+            final char c = input.charAt(i);
+            if (c == '=') break;
+            final int value = c < DECODE.length ? DECODE[c] : SKIP;
+            if (value == SKIP) continue;
+
+            bits = (bits << 6) | value;
+            if (++count == 4) {
+                output[length++] = (byte) (bits >> 16);
+                output[length++] = (byte) (bits >> 8);
+                output[length++] = (byte) bits;
+                bits = count = 0;
+            }
+        }
+        // only padding and ignored characters may follow
+        for (; i < input.length(); i++) {
+            final char c = input.charAt(i);
+            if (c < DECODE.length && DECODE[c] != SKIP) return -1;
+        }
+        switch (count) {
+            case 0:
+                break;
+            case 2:
+                output[length++] = (byte) (bits >> 4);
+                break;
+            case 3:
+                output[length++] = (byte) (bits >> 10);
+                output[length++] = (byte) (bits >> 2);
+                break;
+            default:
+                return -1;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,269 @@
+package com.github.jberkel.pay.me.validator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link SignatureValidator} which remembers successfully validated signatures, so that unchanged
+ * purchases are not verified again on every inventory refresh.
+ * <p/>
+ * Entries are keyed by a SHA-256 digest of the signed data and the signature, and the cache is
+ * bounded in size with least-recently-used eviction. Only successful validations are cached,
+ * anything else is passed on to the delegate every time.
+ * <p/>
+ * If constructed with a file the cache is loaded from it, call {@link #save()} to write it back.
+ * The file is tied to the public key the signatures were validated with, and ignored if the key
+ * changes. Anyone who can write to this file can make purchases appear valid, so keep it in the
+ * application's private storage. This class is thread-safe.
+ */
+public class CachingSignatureValidator implements SignatureValidator {
+    private static final String TAG = "IAB/CachingSignatureValidator";
+    private static final Logger LOG = Logger.getLogger(TAG);
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int DIGEST_LENGTH = 32;
+    private static final int FILE_MAGIC = 0x50415953; // "PAYS"
+    private static final int FILE_VERSION = 2;
+
+    private final SignatureValidator mDelegate;
+    private final int mMaxSize;
+    private final File mFile;
+    private final byte[] mKeyDigest;
+    // used as a set of the validated signatures in access order (least recently used first)
+    private final Map<Digest, Boolean> mValidated;
+
+    private int mHitCount, mMissCount;
+
+    private final ThreadLocal<MessageDigest> mMessageDigest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance(DIGEST_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    /**
+     * @param delegate the validator which does the actual verification
+     * @param maxSize  the maximum number of validated signatures to remember
+     */
+    public CachingSignatureValidator(SignatureValidator delegate, int maxSize) {
+        this(delegate, maxSize, null, null);
+    }
+
+    /**
+     * @param delegate  the validator which does the actual verification
+     * @param maxSize   the maximum number of validated signatures to remember
+     * @param file      the file to persist the cache to, or null to only keep it in memory
+     * @param publicKey the (Base64 encoded) public key the delegate validates with, required with a file
+     */
+    public CachingSignatureValidator(SignatureValidator delegate, int maxSize, File file, String publicKey) {
+        if (delegate == null) throw new IllegalArgumentException("delegate cannot be null");
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+        if (file != null && publicKey == null) throw new IllegalArgumentException("publicKey cannot be null");
+        mDelegate = delegate;
+        mMaxSize = maxSize;
+        mFile = file;
+        mKeyDigest = publicKey == null ? null : digest(publicKey);
+        mValidated = new LinkedHashMap<Digest, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Digest, Boolean> eldest) {
+                return size() > mMaxSize;
+            }
+        };
+        if (mFile != null) {
+            load();
+        }
+    }
+
+    @Override
+    public boolean validate(String signedData, String signature) {
+        if (signedData == null || signature == null) {
+            return mDelegate.validate(signedData, signature);
+        }
+        final Digest digest = digest(signedData, signature);
+        synchronized (this) {
+            if (mValidated.containsKey(digest)) {
+                // containsKey doesn't count as an access, put marks it as recently used
+                mValidated.put(digest, Boolean.TRUE);
+                mHitCount++;
+                return true;
+            }
+            mMissCount++;
+        }
+        final boolean valid = mDelegate.validate(signedData, signature);
+        if (valid) {
+            synchronized (this) {
+                mValidated.put(digest, Boolean.TRUE);
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Writes the cache to its file, replacing the previous contents.
+     *
+     * @throws IllegalStateException if this cache has no file
+     * @throws IOException           if the file cannot be written
+     */
+    public void save() throws IOException {
+        if (mFile == null) throw new IllegalStateException("no file");
+        final List<Digest> digests;
+        synchronized (this) {
+            digests = new ArrayList<Digest>(mValidated.keySet());
+        }
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        final FileOutputStream fileOut = new FileOutputStream(tmp);
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.write(mKeyDigest);
+            out.writeInt(digests.size());
+            // eldest first, so that loading restores the access order
+            for (Digest digest : digests) {
+                out.write(digest.bytes);
+            }
+            out.flush();
+            // make sure the data is on disk before it replaces the old file
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("could not rename " + tmp + " to " + mFile);
+        }
+    }
+
+    public synchronized void clear() {
+        mValidated.clear();
+    }
+
+    public synchronized int size() {
+        return mValidated.size();
+    }
+
+    /** Returns the number of validations answered from the cache. */
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    /** Returns the number of validations passed on to the delegate. */
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CachingSignatureValidator{" +
+                "size=" + mValidated.size() +
+                ", maxSize=" + mMaxSize +
+                ", hits=" + mHitCount +
+                ", misses=" + mMissCount +
+                '}';
+    }
+
+    private void load() {
+        final DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        try {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                LOG.warning("ignoring cache file with unknown format: " + mFile);
+                return;
+            }
+            final byte[] keyDigest = new byte[DIGEST_LENGTH];
+            in.readFully(keyDigest);
+            if (!Arrays.equals(keyDigest, mKeyDigest)) {
+                LOG.warning("ignoring cache file written for another public key: " + mFile);
+                return;
+            }
+            final int count = in.readInt();
+            final List<Digest> digests = new ArrayList<Digest>();
+            for (int i = 0; i < count; i++) {
+                final byte[] bytes = new byte[DIGEST_LENGTH];
+                in.readFully(bytes);
+                digests.add(new Digest(bytes));
+            }
+            synchronized (this) {
+                for (Digest digest : digests) {
+                    mValidated.put(digest, Boolean.TRUE);
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "error reading cache file " + mFile, e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private Digest digest(String signedData, String signature) {
+        final MessageDigest messageDigest = mMessageDigest.get();
+        try {
+            final byte[] data = signedData.getBytes("UTF-8");
+            // prefix the length so that moving characters from data to signature changes the digest
+            messageDigest.update(new byte[]{
+                    (byte) (data.length >>> 24), (byte) (data.length >>> 16),
+                    (byte) (data.length >>> 8), (byte) data.length
+            });
+            messageDigest.update(data);
+            messageDigest.update(signature.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        return new Digest(messageDigest.digest());
+    }
+
+    private byte[] digest(String publicKey) {
+        try {
+            return mMessageDigest.get().digest(publicKey.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class Digest {
+        private final byte[] bytes;
+        private final int hashCode;
+
+        Digest(byte[] bytes) {
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Digest && Arrays.equals(bytes, ((Digest) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
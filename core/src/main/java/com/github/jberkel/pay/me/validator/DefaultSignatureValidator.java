@@ -15,10 +15,6 @@
 
 package com.github.jberkel.pay.me.validator;
 
-import android.text.TextUtils;
-import android.util.Base64;
-import android.util.Log;
-
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
@@ -27,6 +23,7 @@ import java.security.Signature;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.logging.Logger;
 
 /**
  * A signature validator using a Base64 encoded public key.
@@ -40,23 +37,32 @@ import java.security.spec.X509EncodedKeySpec;
  */
 public class DefaultSignatureValidator implements SignatureValidator {
     private static final String TAG = "IAB/DefaultSignatureValidator";
+    private static final Logger LOG = Logger.getLogger(TAG);
 
     private static final String KEY_FACTORY_ALGORITHM = "RSA";
     private static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
 
     private final PublicKey mPublicKey;
 
+    /** Signatures are expensive to look up and initialize, so each thread keeps its own. */
+    private final ThreadLocal<Verifier> mVerifier = new ThreadLocal<Verifier>() {
+        @Override
+        protected Verifier initialValue() {
+            return new Verifier(mPublicKey);
+        }
+    };
+
     public DefaultSignatureValidator(String base64EncodedKey) {
         mPublicKey = generatePublicKey(base64EncodedKey);
     }
 
     @Override
     public boolean validate(String signedData, String signature) {
-        if (TextUtils.isEmpty(signedData) || TextUtils.isEmpty(signature)) {
-            Log.e(TAG, "Purchase verification failed: missing data.");
+        if (isEmpty(signedData) || isEmpty(signature)) {
+            LOG.severe("Purchase verification failed: missing data.");
             return false;
         } else if (!verify(signedData, signature)) {
-            Log.w(TAG, "signature does not match data.");
+            LOG.warning("signature does not match data.");
             return false;
         }  else {
             return true;
@@ -64,45 +70,85 @@ public class DefaultSignatureValidator implements SignatureValidator {
     }
 
     private boolean verify(String signedData, String signature) {
-        final byte[] decodedSig;
-        try {
-            decodedSig = Base64.decode(signature, Base64.DEFAULT);
-        } catch (IllegalArgumentException e) {
-            Log.e(TAG, "Error decoding signature.");
+        final Verifier verifier = mVerifier.get();
+        final byte[] decodedSig = verifier.buffer(Base64Decoder.maxDecodedLength(signature));
+        final int length = Base64Decoder.decode(signature, decodedSig);
+        if (length == -1) {
+            LOG.severe("Error decoding signature.");
             return false;
         }
 
         try {
-            Signature sig = Signature.getInstance(SIGNATURE_ALGORITHM);
-            sig.initVerify(mPublicKey);
+            Signature sig = verifier.signature();
             sig.update(signedData.getBytes());
 
-            if (!sig.verify(decodedSig)) {
-                Log.e(TAG, "Signature verification failed.");
+            if (!sig.verify(decodedSig, 0, length)) {
+                LOG.severe("Signature verification failed.");
                 return false;
             } else {
                 return true;
             }
         } catch (NoSuchAlgorithmException e) {
-            Log.e(TAG, "NoSuchAlgorithmException.");
+            LOG.severe("NoSuchAlgorithmException.");
         } catch (InvalidKeyException e) {
-            Log.e(TAG, "Invalid key specification.");
+            LOG.severe("Invalid key specification.");
         } catch (SignatureException e) {
-            Log.e(TAG, "Signature exception.");
+            LOG.severe("Signature exception.");
         }
+        // don't reuse a signature in an unknown state
+        verifier.reset();
         return false;
     }
 
     private static PublicKey generatePublicKey(String encodedPublicKey) {
         try {
-            byte[] decodedKey = Base64.decode(encodedPublicKey, Base64.DEFAULT);
+            byte[] decodedKey = Base64Decoder.decode(encodedPublicKey);
             KeyFactory keyFactory = KeyFactory.getInstance(KEY_FACTORY_ALGORITHM);
             return keyFactory.generatePublic(new X509EncodedKeySpec(decodedKey));
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         } catch (InvalidKeySpecException e) {
-            Log.e(TAG, "Invalid key specification.");
+            LOG.severe("Invalid key specification.");
             throw new IllegalArgumentException(e);
         }
     }
+
+    private static boolean isEmpty(String s) {
+        return s == null || s.length() == 0;
+    }
+
+    /**
+     * A signature initialized for verification, and a buffer for decoded signatures.
+     * Only used by a single thread.
+     */
+    private static class Verifier {
+        private final PublicKey mPublicKey;
+        private Signature mSignature;
+        private byte[] mBuffer = new byte[0];
+
+        Verifier(PublicKey publicKey) {
+            mPublicKey = publicKey;
+        }
+
+        // verify() resets the signature, so it can be used again right away
+        Signature signature() throws NoSuchAlgorithmException, InvalidKeyException {
+            if (mSignature == null) {
+                Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+                signature.initVerify(mPublicKey);
+                mSignature = signature;
+            }
+            return mSignature;
+        }
+
+        byte[] buffer(int size) {
+            if (mBuffer.length < size) {
+                mBuffer = new byte[size];
+            }
+            return mBuffer;
+        }
+
+        void reset() {
+            mSignature = null;
+        }
+    }
 }
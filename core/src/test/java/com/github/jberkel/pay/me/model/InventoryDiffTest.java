@@ -0,0 +1,123 @@
+package com.github.jberkel.pay.me.model;
+
+import org.junit.Test;
+
+import static com.github.jberkel.pay.me.model.Purchase.State.PURCHASED;
+import static com.github.jberkel.pay.me.model.Purchase.State.REFUNDED;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class InventoryDiffTest {
+
+    @Test public void shouldReportNoChangesForEqualInventories() throws Exception {
+        Inventory inventory = new Inventory();
+        inventory.addPurchase(purchase("sku1", PURCHASED));
+        inventory.addSkuDetails(details("sku1", "1.99"));
+
+        InventoryDiff diff = InventoryDiff.between(inventory, inventory);
+        assertThat(diff.isEmpty()).isTrue();
+    }
+
+    @Test public void shouldReportAddedAndRemovedPurchases() throws Exception {
+        Purchase kept = purchase("kept", PURCHASED);
+        Purchase removed = purchase("removed", PURCHASED);
+        Purchase added = purchase("added", PURCHASED);
+        Inventory oldInventory = new Inventory();
+        oldInventory.addPurchase(kept);
+        oldInventory.addPurchase(removed);
+        Inventory newInventory = new Inventory();
+        newInventory.addPurchase(kept);
+        newInventory.addPurchase(added);
+
+        InventoryDiff diff = InventoryDiff.between(oldInventory, newInventory);
+
+        assertThat(diff.getAddedPurchases()).containsExactly(added);
+        assertThat(diff.getRemovedPurchases()).containsExactly(removed);
+        assertThat(diff.getChangedPurchases()).isEmpty();
+        assertThat(diff.isEmpty()).isFalse();
+    }
+
+    @Test public void shouldReportStateChanges() throws Exception {
+        Inventory oldInventory = new Inventory();
+        oldInventory.addPurchase(purchase("sku1", PURCHASED));
+        oldInventory.addPurchase(purchase("sku2", PURCHASED));
+        Inventory newInventory = new Inventory();
+        Purchase refunded = purchase("sku1", REFUNDED);
+        newInventory.addPurchase(refunded);
+        newInventory.addPurchase(purchase("sku2", PURCHASED));
+
+        InventoryDiff diff = InventoryDiff.between(oldInventory, newInventory);
+
+        assertThat(diff.getChangedPurchases()).containsExactly(refunded);
+        assertThat(diff.getAddedPurchases()).isEmpty();
+        assertThat(diff.getRemovedPurchases()).isEmpty();
+    }
+
+    @Test public void shouldReportRepurchaseAsRemovedAndAdded() throws Exception {
+        Purchase old = purchase("sku1", PURCHASED, "token1");
+        Purchase repurchased = purchase("sku1", PURCHASED, "token2");
+        Inventory oldInventory = new Inventory();
+        oldInventory.addPurchase(old);
+        Inventory newInventory = new Inventory();
+        newInventory.addPurchase(repurchased);
+
+        InventoryDiff diff = InventoryDiff.between(oldInventory, newInventory);
+
+        assertThat(diff.getRemovedPurchases()).containsExactly(old);
+        assertThat(diff.getAddedPurchases()).containsExactly(repurchased);
+        assertThat(diff.getChangedPurchases()).isEmpty();
+    }
+
+    @Test public void shouldReportPriceChanges() throws Exception {
+        Inventory oldInventory = new Inventory();
+        oldInventory.addSkuDetails(details("sku1", "1.99"));
+        oldInventory.addSkuDetails(details("sku2", "2.99"));
+        oldInventory.addSkuDetails(details("onlyOld", "2.99"));
+        Inventory newInventory = new Inventory();
+        SkuDetails changed = details("sku1", "0.99");
+        newInventory.addSkuDetails(changed);
+        newInventory.addSkuDetails(details("sku2", "2.99"));
+        newInventory.addSkuDetails(details("onlyNew", "2.99"));
+
+        InventoryDiff diff = InventoryDiff.between(oldInventory, newInventory);
+
+        assertThat(diff.getChangedSkuDetails()).containsExactly(changed);
+    }
+
+    @Test public void shouldTreatMissingOldInventoryAsEmpty() throws Exception {
+        Inventory inventory = new Inventory();
+        Purchase purchase = purchase("sku1", PURCHASED);
+        inventory.addPurchase(purchase);
+
+        assertThat(InventoryDiff.between((Inventory) null, inventory).getAddedPurchases()).containsExactly(purchase);
+        assertThat(InventoryDiff.between(null, inventory.snapshot()).getAddedPurchases()).containsExactly(purchase);
+    }
+
+    @Test public void shouldDiffSnapshots() throws Exception {
+        Purchase purchase = purchase("sku1", PURCHASED);
+        InventorySnapshot before = InventorySnapshot.EMPTY.withPurchase(purchase);
+        InventorySnapshot after = before.withoutPurchase("sku1");
+
+        assertThat(InventoryDiff.between(before, after).getRemovedPurchases()).containsExactly(purchase);
+    }
+
+    private static Purchase purchase(String sku, Purchase.State state) {
+        return purchase(sku, state, "token");
+    }
+
+    private static Purchase purchase(String sku, Purchase.State state, String token) {
+        Purchase p = mock(Purchase.class);
+        when(p.getSku()).thenReturn(sku);
+        when(p.getState()).thenReturn(state);
+        when(p.getToken()).thenReturn(token);
+        return p;
+    }
+
+    private static SkuDetails details(String sku, String price) {
+        SkuDetails details = mock(SkuDetails.class);
+        when(details.getSku()).thenReturn(sku);
+        when(details.getPrice()).thenReturn(price);
+        return details;
+    }
+}
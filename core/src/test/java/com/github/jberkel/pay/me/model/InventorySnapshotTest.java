@@ -0,0 +1,72 @@
+package com.github.jberkel.pay.me.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class InventorySnapshotTest {
+
+    @Test public void shouldBeEmpty() throws Exception {
+        assertThat(InventorySnapshot.EMPTY.getAllPurchases()).isEmpty();
+        assertThat(InventorySnapshot.EMPTY.getSkuDetails()).isEmpty();
+        assertThat(InventorySnapshot.EMPTY.getAllOwnedSkus()).isEmpty();
+    }
+
+    @Test public void shouldAddPurchaseWithoutChangingOriginal() throws Exception {
+        Purchase p = purchase("sku1", ItemType.INAPP);
+        InventorySnapshot snapshot = InventorySnapshot.EMPTY.withPurchase(p);
+
+        assertThat(snapshot.getPurchase("sku1")).isSameAs(p);
+        assertThat(snapshot.hasPurchase("sku1")).isTrue();
+        assertThat(InventorySnapshot.EMPTY.hasPurchase("sku1")).isFalse();
+    }
+
+    @Test public void shouldRemovePurchase() throws Exception {
+        InventorySnapshot snapshot = InventorySnapshot.EMPTY.withPurchases(Arrays.asList(
+                purchase("sku1", ItemType.INAPP), purchase("sku2", ItemType.SUBS)));
+        InventorySnapshot erased = snapshot.withoutPurchase("sku1");
+
+        assertThat(erased.getAllOwnedSkus()).containsOnly("sku2");
+        assertThat(snapshot.getAllOwnedSkus()).containsOnly("sku1", "sku2");
+        assertThat(erased.withoutPurchase("sku1")).isSameAs(erased);
+    }
+
+    @Test public void shouldGetOwnedSkusForItemType() throws Exception {
+        InventorySnapshot snapshot = InventorySnapshot.EMPTY
+                .withPurchase(purchase("sku_inapp", ItemType.INAPP))
+                .withPurchase(purchase("sku_sub", ItemType.SUBS));
+
+        assertThat(snapshot.getAllOwnedSkus(ItemType.SUBS)).containsExactly("sku_sub");
+    }
+
+    @Test public void shouldAddSkuDetails() throws Exception {
+        SkuDetails details = mock(SkuDetails.class);
+        when(details.getSku()).thenReturn("sku1");
+        InventorySnapshot snapshot = InventorySnapshot.EMPTY.withSkuDetails(details);
+
+        assertThat(snapshot.hasDetails("sku1")).isTrue();
+        assertThat(snapshot.getSkuDetails("sku1")).isSameAs(details);
+        assertThat(snapshot.getSkuDetails()).containsExactly(details);
+    }
+
+    @Test public void shouldSnapshotInventory() throws Exception {
+        Inventory inventory = new Inventory();
+        inventory.addPurchase(purchase("sku1", ItemType.INAPP));
+        InventorySnapshot snapshot = inventory.snapshot();
+
+        inventory.erasePurchase("sku1");
+        assertThat(snapshot.hasPurchase("sku1")).isTrue();
+        assertThat(snapshot.toInventory().getAllOwnedSkus()).containsOnly("sku1");
+    }
+
+    private static Purchase purchase(String sku, ItemType itemType) {
+        Purchase p = mock(Purchase.class);
+        when(p.getSku()).thenReturn(sku);
+        when(p.getItemType()).thenReturn(itemType);
+        return p;
+    }
+}
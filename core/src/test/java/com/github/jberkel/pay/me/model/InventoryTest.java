@@ -2,14 +2,15 @@ package com.github.jberkel.pay.me.model;
 
 
 import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.robolectric.RobolectricTestRunner;
+
+import java.util.Collection;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-@RunWith(RobolectricTestRunner.class)
 public class InventoryTest {
 
     @Test
@@ -113,4 +114,65 @@ public class InventoryTest {
         inventory.erasePurchase("sku1");
         assertThat(inventory.getAllOwnedSkus()).containsOnly("sku2");
     }
+
+    @Test public void testGetPurchasesByTypeAndState() throws Exception {
+        Inventory inventory = new Inventory();
+        Purchase inapp = purchase("sku_inapp", ItemType.INAPP, Purchase.State.PURCHASED);
+        Purchase sub = purchase("sku_sub", ItemType.SUBS, Purchase.State.PURCHASED);
+        Purchase refunded = purchase("sku_refunded", ItemType.INAPP, Purchase.State.REFUNDED);
+
+        inventory.addPurchase(inapp);
+        inventory.addPurchase(sub);
+        inventory.addPurchase(refunded);
+
+        assertThat(inventory.getPurchases(ItemType.INAPP)).containsExactly(inapp, refunded);
+        assertThat(inventory.getPurchases(ItemType.SUBS)).containsExactly(sub);
+        assertThat(inventory.getPurchases(Purchase.State.PURCHASED)).containsExactly(inapp, sub);
+        assertThat(inventory.getPurchases(Purchase.State.REFUNDED)).containsExactly(refunded);
+        assertThat(inventory.getPurchases(Purchase.State.CANCELED)).isEmpty();
+        assertThat(inventory.getAllOwnedSkus(ItemType.INAPP)).containsExactly("sku_inapp", "sku_refunded");
+    }
+
+    @Test public void testIndexesFollowReplacedPurchase() throws Exception {
+        Inventory inventory = new Inventory();
+        Collection<Purchase> refunded = inventory.getPurchases(Purchase.State.REFUNDED);
+        inventory.addPurchase(purchase("sku1", ItemType.INAPP, Purchase.State.PURCHASED));
+        Purchase replacement = purchase("sku1", ItemType.INAPP, Purchase.State.REFUNDED);
+        inventory.addPurchase(replacement);
+
+        assertThat(inventory.getPurchases(Purchase.State.PURCHASED)).isEmpty();
+        assertThat(refunded).containsExactly(replacement);
+    }
+
+    @Test public void testIndexesFollowErasedPurchase() throws Exception {
+        Inventory inventory = new Inventory();
+        inventory.addPurchase(purchase("sku1", ItemType.SUBS, Purchase.State.PURCHASED));
+        inventory.erasePurchase("sku1");
+
+        assertThat(inventory.getPurchases(ItemType.SUBS)).isEmpty();
+        assertThat(inventory.getPurchases(Purchase.State.PURCHASED)).isEmpty();
+        assertThat(inventory.getAllOwnedSkus(ItemType.SUBS)).isEmpty();
+    }
+
+    @Test public void testAddPurchaseDoesNotDecodeState() throws Exception {
+        Inventory inventory = new Inventory();
+        Purchase p = purchase("sku1", ItemType.INAPP, Purchase.State.PURCHASED);
+        inventory.addPurchase(p);
+        verify(p, never()).getState();
+
+        assertThat(inventory.getPurchases(Purchase.State.PURCHASED)).containsExactly(p);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testGetPurchasesIsReadOnly() throws Exception {
+        new Inventory().getPurchases(ItemType.INAPP).clear();
+    }
+
+    private static Purchase purchase(String sku, ItemType itemType, Purchase.State state) {
+        Purchase p = mock(Purchase.class);
+        when(p.getSku()).thenReturn(sku);
+        when(p.getItemType()).thenReturn(itemType);
+        when(p.getState()).thenReturn(state);
+        return p;
+    }
 }
@@ -0,0 +1,72 @@
+package com.github.jberkel.pay.me.model;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class JsonPullParserTest {
+    private static final String[] NAMES = { "a", "b" };
+
+    @Test public void shouldReadKnownMembersAndSkipOthers() throws Exception {
+        JsonPullParser parser = new JsonPullParser("{\"x\": [1, {\"a\": 2}], \"b\": 42 , \"a\" : \"foo\"}");
+        parser.beginObject();
+
+        assertThat(parser.hasNext()).isTrue();
+        assertThat(parser.nextName(NAMES)).isEqualTo(-1);
+        parser.skipValue();
+
+        assertThat(parser.hasNext()).isTrue();
+        assertThat(parser.nextName(NAMES)).isEqualTo(1);
+        assertThat(parser.nextLong()).isEqualTo(42L);
+
+        assertThat(parser.hasNext()).isTrue();
+        assertThat(parser.nextName(NAMES)).isEqualTo(0);
+        assertThat(parser.nextString()).isEqualTo("foo");
+
+        assertThat(parser.hasNext()).isFalse();
+        parser.endObject();
+    }
+
+    @Test public void shouldReadEmptyObject() throws Exception {
+        JsonPullParser parser = new JsonPullParser(" { } ");
+        parser.beginObject();
+        assertThat(parser.hasNext()).isFalse();
+        parser.endObject();
+    }
+
+    @Test public void shouldCoerceValues() throws Exception {
+        JsonPullParser parser = new JsonPullParser("{\"a\": 1.5, \"b\": \"12\"}");
+        parser.beginObject();
+        parser.hasNext();
+        parser.nextName(NAMES);
+        assertThat(parser.nextString()).isEqualTo("1.5");
+        parser.hasNext();
+        parser.nextName(NAMES);
+        assertThat(parser.nextLong()).isEqualTo(12L);
+    }
+
+    @Test public void shouldShareCandidateStrings() throws Exception {
+        String candidate = "inapp";
+        JsonPullParser parser = new JsonPullParser("{\"a\": \"inapp\"}");
+        parser.beginObject();
+        parser.hasNext();
+        parser.nextName(NAMES);
+        assertThat(parser.nextString(new String[] { candidate })).isSameAs(candidate);
+    }
+
+    @Test(expected = JSONException.class)
+    public void shouldRejectMissingSeparator() throws Exception {
+        JsonPullParser parser = new JsonPullParser("{\"a\": 1 \"b\": 2}");
+        parser.beginObject();
+        parser.hasNext();
+        parser.nextName(NAMES);
+        parser.skipValue();
+        parser.hasNext();
+    }
+
+    @Test(expected = JSONException.class)
+    public void shouldRejectNonObject() throws Exception {
+        new JsonPullParser("[]").beginObject();
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.jberkel.pay.me.model;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class JsonScannerTest {
+    private static final String JSON = "{ \"a\": \"foo\", \"nested\": {\"a\": [1, 2, {\"b\": null}]},\n" +
+            "\"escaped\": \"x\\\"y\\\\z\\u00e9\\n\", \"num\": -1234567890123, \"frac\": 1.5, \"t\": true }";
+
+    @Test public void shouldFindTopLevelValues() throws Exception {
+        assertThat(JsonScanner.readString(JSON, JsonScanner.findValue(JSON, "a"))).isEqualTo("foo");
+        assertThat(JsonScanner.readLong(JSON, JsonScanner.findValue(JSON, "num"))).isEqualTo(-1234567890123L);
+        assertThat(JsonScanner.findValue(JSON, "b")).isEqualTo(-1);
+        assertThat(JsonScanner.findValue("{}", "a")).isEqualTo(-1);
+    }
+
+    @Test public void shouldFindLastValueOfDuplicateKey() throws Exception {
+        String json = "{\"a\": \"first\", \"b\": 1, \"a\": \"last\"}";
+        assertThat(JsonScanner.readString(json, JsonScanner.findValue(json, "a"))).isEqualTo("last");
+        assertThat(JsonScanner.readLong(json, JsonScanner.findValue(json, "b"))).isEqualTo(1L);
+    }
+
+    @Test public void shouldDecodeEscapes() throws Exception {
+        assertThat(JsonScanner.readString(JSON, JsonScanner.findValue(JSON, "escaped"))).isEqualTo("x\"y\\zé\n");
+    }
+
+    @Test public void shouldDetectValueTypes() throws Exception {
+        assertThat(JsonScanner.isString(JSON, JsonScanner.findValue(JSON, "a"))).isTrue();
+        assertThat(JsonScanner.isString(JSON, JsonScanner.findValue(JSON, "num"))).isFalse();
+        assertThat(JsonScanner.isLong(JSON, JsonScanner.findValue(JSON, "num"))).isTrue();
+        assertThat(JsonScanner.isLong(JSON, JsonScanner.findValue(JSON, "frac"))).isFalse();
+        assertThat(JsonScanner.isLong(JSON, JsonScanner.findValue(JSON, "t"))).isFalse();
+        assertThat(JsonScanner.isLong("{\"n\":12345678901234567890}", 5)).isFalse();
+    }
+
+    @Test public void shouldAcceptWellFormedObject() throws Exception {
+        JsonScanner.checkObject(JSON);
+        JsonScanner.checkObject(" {} ");
+    }
+
+    @Test(expected = JSONException.class)
+    public void shouldRejectUnterminatedObject() throws Exception {
+        JsonScanner.checkObject("{\"a\": \"foo\"");
+    }
+
+    @Test(expected = JSONException.class)
+    public void shouldRejectUnterminatedString() throws Exception {
+        JsonScanner.checkObject("{\"a\": \"foo}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void shouldRejectArray() throws Exception {
+        JsonScanner.checkObject("[]");
+    }
+
+    @Test(expected = JSONException.class)
+    public void shouldRejectTrailingContent() throws Exception {
+        JsonScanner.checkObject("{} {}");
+    }
+}
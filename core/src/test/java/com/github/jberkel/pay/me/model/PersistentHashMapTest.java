@@ -0,0 +1,101 @@
+package com.github.jberkel.pay.me.model;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class PersistentHashMapTest {
+
+    @Test public void shouldPutAndGet() throws Exception {
+        PersistentHashMap<String, Integer> empty = PersistentHashMap.empty();
+        PersistentHashMap<String, Integer> map = empty.put("a", 1).put("b", 2);
+
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(map.get("a")).isEqualTo(1);
+        assertThat(map.get("b")).isEqualTo(2);
+        assertThat(map.get("c")).isNull();
+        assertThat(map.keys()).containsOnly("a", "b");
+        assertThat(map.values()).containsOnly(1, 2);
+        assertThat(empty.isEmpty()).isTrue();
+    }
+
+    @Test public void shouldLeaveOriginalUnchanged() throws Exception {
+        PersistentHashMap<String, Integer> original = PersistentHashMap.<String, Integer>empty().put("a", 1);
+        PersistentHashMap<String, Integer> updated = original.put("a", 2).put("b", 3);
+        PersistentHashMap<String, Integer> removed = original.remove("a");
+
+        assertThat(original.get("a")).isEqualTo(1);
+        assertThat(original.size()).isEqualTo(1);
+        assertThat(updated.get("a")).isEqualTo(2);
+        assertThat(removed.isEmpty()).isTrue();
+    }
+
+    @Test public void shouldReturnSameMapIfNothingChanged() throws Exception {
+        Integer value = 1;
+        PersistentHashMap<String, Integer> map = PersistentHashMap.<String, Integer>empty().put("a", value);
+        assertThat(map.put("a", value)).isSameAs(map);
+        assertThat(map.remove("b")).isSameAs(map);
+    }
+
+    @Test public void shouldHandleHashCollisions() throws Exception {
+        PersistentHashMap<Key, String> map = PersistentHashMap.empty();
+        for (int i = 0; i < 10; i++) {
+            map = map.put(new Key(i), "v" + i);
+        }
+        assertThat(map.size()).isEqualTo(10);
+        map = map.remove(new Key(3)).put(new Key(4), "new");
+
+        assertThat(map.size()).isEqualTo(9);
+        assertThat(map.get(new Key(3))).isNull();
+        assertThat(map.get(new Key(4))).isEqualTo("new");
+        assertThat(map.get(new Key(9))).isEqualTo("v9");
+    }
+
+    @Test public void shouldBehaveLikeHashMap() throws Exception {
+        Random random = new Random(42);
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 20000; i++) {
+            String key = "sku" + random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.remove(key);
+            } else {
+                int value = random.nextInt();
+                expected.put(key, value);
+                map = map.put(key, value);
+            }
+            assertThat(map.size()).isEqualTo(expected.size());
+        }
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertThat(map.get(entry.getKey())).isEqualTo(entry.getValue());
+        }
+        assertThat(map.keys()).containsOnly(expected.keySet().toArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAcceptNullKeys() throws Exception {
+        PersistentHashMap.<String, Integer>empty().put(null, 1);
+    }
+
+    // all keys with the same value modulo 3 collide
+    private static class Key {
+        private final int value;
+
+        Key(int value) {
+            this.value = value;
+        }
+
+        @Override public int hashCode() {
+            return value % 3;
+        }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).value == value;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.github.jberkel.pay.me.model;
+
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import static com.github.jberkel.pay.me.model.TestResources.resourceAsString;
+import static com.github.jberkel.pay.me.model.ItemType.INAPP;
+import static com.github.jberkel.pay.me.model.Purchase.State;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class PurchaseTest {
+
+    @Test public void shouldParsePurchase() throws Exception {
+        String purchase = resourceAsString("purchase.json");
+        Purchase p = new Purchase(INAPP, purchase, "signature");
+
+        assertThat(p.getOrderId()).isEqualTo("someOrderId");
+        assertThat(p.getSku()).isEqualTo("someSKU");
+        assertThat(p.getPackageName()).isEqualTo("com.example.test");
+        assertThat(p.getPurchaseTime()).isEqualTo(12345L);
+        assertThat(p.getRawState()).isEqualTo(1);
+        assertThat(p.getDeveloperPayload()).isEqualTo("custom");
+        assertThat(p.getSignature()).isEqualTo("signature");
+        assertThat(p.getOriginalJson()).isEqualTo(purchase);
+        assertThat(p.getItemType()).isEqualTo(INAPP);
+        assertThat(p.getState()).isEqualTo(State.CANCELED);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAcceptNullItemType() throws Exception {
+        new Purchase(null, "{}", "");
+    }
+
+    @Test
+    public void shouldHaveToString() throws Exception {
+        String purchase = resourceAsString("purchase.json");
+        Purchase p = new Purchase(INAPP, purchase, "signature");
+        assertThat(p.toString()).startsWith("Purchase(type:inapp)");
+    }
+
+    @Test(expected = JSONException.class) public void shouldRequireAnSKU() throws Exception {
+        String purchase = resourceAsString("purchase_without_sku.json");
+        new Purchase(INAPP, purchase, "");
+    }
+
+    @Test public void shouldParsePurchaseLazily() throws Exception {
+        String purchase = resourceAsString("purchase.json");
+        Purchase p = Purchase.lazy(INAPP, purchase, "signature");
+
+        assertThat(p.getOrderId()).isEqualTo("someOrderId");
+        assertThat(p.getSku()).isEqualTo("someSKU");
+        assertThat(p.getPackageName()).isEqualTo("com.example.test");
+        assertThat(p.getPurchaseTime()).isEqualTo(12345L);
+        assertThat(p.getRawState()).isEqualTo(1);
+        assertThat(p.getDeveloperPayload()).isEqualTo("custom");
+        assertThat(p.getToken()).isEmpty();
+        assertThat(p.getSignature()).isEqualTo("signature");
+        assertThat(p.getOriginalJson()).isSameAs(purchase);
+        assertThat(p.getItemType()).isEqualTo(INAPP);
+        assertThat(p.getState()).isEqualTo(State.CANCELED);
+    }
+
+    @Test public void shouldParseLazilyLikeEagerParser() throws Exception {
+        String json = "{\"productId\":\"sku\", \"purchaseToken\":\"to\\\"ken\", " +
+                "\"purchaseTime\":\"42\", \"purchaseState\":2.0, \"orderId\":123, \"developerPayload\":null}";
+        Purchase eager = new Purchase(INAPP, json, "");
+        Purchase lazy = Purchase.lazy(INAPP, json, "");
+
+        assertThat(lazy.getToken()).isEqualTo(eager.getToken()).isEqualTo("to\"ken");
+        assertThat(lazy.getPurchaseTime()).isEqualTo(eager.getPurchaseTime()).isEqualTo(42L);
+        assertThat(lazy.getRawState()).isEqualTo(eager.getRawState()).isEqualTo(2);
+        assertThat(lazy.getOrderId()).isEqualTo(eager.getOrderId());
+        assertThat(lazy.getDeveloperPayload()).isEqualTo(eager.getDeveloperPayload());
+    }
+
+    @Test public void shouldPreferTokenOverPurchaseToken() throws Exception {
+        Purchase p = Purchase.lazy(INAPP, "{\"productId\":\"sku\", \"purchaseToken\":\"a\", \"token\":\"b\"}", "");
+        assertThat(p.getToken()).isEqualTo("b");
+    }
+
+    @Test(expected = JSONException.class) public void shouldRequireAnSKUWhenParsingLazily() throws Exception {
+        String purchase = resourceAsString("purchase_without_sku.json");
+        Purchase.lazy(INAPP, purchase, "");
+    }
+
+    @Test(expected = JSONException.class) public void shouldRejectMalformedJsonWhenParsingLazily() throws Exception {
+        Purchase.lazy(INAPP, "{\"productId\":\"sku\", \"orderId\": ", "");
+    }
+
+    @Test public void shouldParsePurchaseStreaming() throws Exception {
+        String purchase = resourceAsString("purchase.json");
+        Purchase p = Purchase.parse(INAPP, purchase, "signature", JsonParsing.STREAMING);
+
+        assertThat(p.getOrderId()).isEqualTo("someOrderId");
+        assertThat(p.getSku()).isEqualTo("someSKU");
+        assertThat(p.getPackageName()).isEqualTo("com.example.test");
+        assertThat(p.getPurchaseTime()).isEqualTo(12345L);
+        assertThat(p.getRawState()).isEqualTo(1);
+        assertThat(p.getDeveloperPayload()).isEqualTo("custom");
+        assertThat(p.getSignature()).isEqualTo("signature");
+        assertThat(p.getOriginalJson()).isSameAs(purchase);
+        assertThat(p.getState()).isEqualTo(State.CANCELED);
+    }
+
+    @Test public void shouldParseStreamingLikeJSONObject() throws Exception {
+        String json = "{\"token\":\"b\", \"productId\":\"sku\", \"purchaseToken\":\"a\", " +
+                "\"purchaseTime\":\"42\", \"purchaseState\":2.0, \"orderId\":123, \"extra\":[{}]}";
+        Purchase streaming = Purchase.parse(INAPP, json, "", JsonParsing.STREAMING);
+        Purchase jsonObject = Purchase.parse(INAPP, json, "", JsonParsing.JSON_OBJECT);
+
+        assertThat(streaming.getToken()).isEqualTo(jsonObject.getToken()).isEqualTo("b");
+        assertThat(streaming.getPurchaseTime()).isEqualTo(jsonObject.getPurchaseTime()).isEqualTo(42L);
+        assertThat(streaming.getRawState()).isEqualTo(jsonObject.getRawState()).isEqualTo(2);
+        assertThat(streaming.getOrderId()).isEqualTo(jsonObject.getOrderId()).isEqualTo("123");
+    }
+
+    @Test public void shouldUseLastDuplicateKeyLikeJSONObject() throws Exception {
+        String json = "{\"productId\":\"first\", \"orderId\":\"a\", \"productId\":\"last\", " +
+                "\"purchaseTime\":1, \"orderId\":\"b\", \"purchaseTime\":2}";
+        Purchase jsonObject = Purchase.parse(INAPP, json, "", JsonParsing.JSON_OBJECT);
+        Purchase streaming = Purchase.parse(INAPP, json, "", JsonParsing.STREAMING);
+        Purchase lazy = Purchase.lazy(INAPP, json, "");
+
+        assertThat(jsonObject.getSku()).isEqualTo("last");
+        assertThat(streaming.getSku()).isEqualTo("last");
+        assertThat(lazy.getSku()).isEqualTo("last");
+        assertThat(jsonObject.getOrderId()).isEqualTo("b");
+        assertThat(streaming.getOrderId()).isEqualTo("b");
+        assertThat(lazy.getOrderId()).isEqualTo("b");
+        assertThat(jsonObject.getPurchaseTime()).isEqualTo(2L);
+        assertThat(streaming.getPurchaseTime()).isEqualTo(2L);
+        assertThat(lazy.getPurchaseTime()).isEqualTo(2L);
+    }
+
+    @Test(expected = JSONException.class) public void shouldRequireAnSKUWhenParsingStreaming() throws Exception {
+        String purchase = resourceAsString("purchase_without_sku.json");
+        Purchase.parse(INAPP, purchase, "", JsonParsing.STREAMING);
+    }
+
+    @Test
+    public void shouldMapPurchaseStateToType() throws Exception {
+        assertThat(State.fromCode(0)).isEqualTo(State.PURCHASED);
+        assertThat(State.fromCode(1)).isEqualTo(State.CANCELED);
+        assertThat(State.fromCode(2)).isEqualTo(State.REFUNDED);
+        assertThat(State.fromCode(999)).isEqualTo(State.UNKNOWN);
+        assertThat(State.fromCode(-1)).isEqualTo(State.UNKNOWN);
+        assertThat(State.fromCode(-2)).isEqualTo(State.UNKNOWN);
+    }
+}
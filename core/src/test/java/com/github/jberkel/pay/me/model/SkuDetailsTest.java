@@ -2,14 +2,11 @@ package com.github.jberkel.pay.me.model;
 
 import org.json.JSONException;
 import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.robolectric.RobolectricTestRunner;
 
-import static com.github.jberkel.pay.me.TestHelper.resourceAsString;
+import static com.github.jberkel.pay.me.model.TestResources.resourceAsString;
 import static com.github.jberkel.pay.me.model.ItemType.*;
 import static org.fest.assertions.api.Assertions.assertThat;
 
-@RunWith(RobolectricTestRunner.class)
 public class SkuDetailsTest {
 
     @Test
@@ -24,6 +21,47 @@ public class SkuDetailsTest {
         assertThat(details.getType()).isEqualTo(INAPP);
     }
 
+    @Test
+    public void shouldParseSkuDetailsStreaming() throws Exception {
+        String sku = resourceAsString("sku.json");
+        SkuDetails details = SkuDetails.parse(sku, JsonParsing.STREAMING);
+        assertThat(details.getSku()).isEqualTo("123");
+        assertThat(details.getDescription()).isEqualTo("A great ACME flamethrower");
+        assertThat(details.getTitle()).isEqualTo("ACME");
+        assertThat(details.getPrice()).isEqualTo("1.99");
+        assertThat(details.getRawType()).isEqualTo("inapp");
+        assertThat(details.getType()).isEqualTo(INAPP);
+    }
+
+    @Test
+    public void shouldShareTypeWhenParsingStreaming() throws Exception {
+        SkuDetails first = SkuDetails.parse("{\"productId\":\"a\",\"type\":\"subs\"}", JsonParsing.STREAMING);
+        SkuDetails second = SkuDetails.parse("{\"type\":\"subs\",\"productId\":\"b\"}", JsonParsing.STREAMING);
+        assertThat(first.getRawType()).isSameAs(second.getRawType());
+        assertThat(first.getType()).isEqualTo(SUBS);
+    }
+
+    @Test
+    public void shouldIgnoreUnknownFieldsWhenParsingStreaming() throws Exception {
+        String json = "{\"productId\":\"a\", \"price_currency_code\":\"EUR\", " +
+                "\"extra\": {\"nested\": [1, \"two\", null]}, \"title\":\"T\\u00fctle\", \"price_amount_micros\":990000}";
+        SkuDetails streaming = SkuDetails.parse(json, JsonParsing.STREAMING);
+        SkuDetails jsonObject = SkuDetails.parse(json, JsonParsing.JSON_OBJECT);
+        assertThat(streaming.getSku()).isEqualTo(jsonObject.getSku());
+        assertThat(streaming.getTitle()).isEqualTo(jsonObject.getTitle()).isEqualTo("Tütle");
+        assertThat(streaming.getPrice()).isEqualTo(jsonObject.getPrice()).isEmpty();
+    }
+
+    @Test(expected = JSONException.class)
+    public void shouldThrowErrorOnInvalidJsonWhenParsingStreaming() throws Exception {
+        SkuDetails.parse("{\"productId\":\"a\"", JsonParsing.STREAMING);
+    }
+
+    @Test(expected = JSONException.class)
+    public void shouldRequireSkuWhenParsingStreaming() throws Exception {
+        SkuDetails.parse("{}", JsonParsing.STREAMING);
+    }
+
     @Test
     public void shouldConstructWithoutJson() throws Exception {
         SkuDetails details = new SkuDetails(INAPP, "123", "1.99", "ACME", "A great ACME flamethrower");
@@ -1,13 +1,10 @@
 package com.github.jberkel.pay.me.model;
 
 import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.robolectric.RobolectricTestRunner;
 
 import static com.github.jberkel.pay.me.model.TestSkus.*;
 import static org.fest.assertions.api.Assertions.assertThat;
 
-@RunWith(RobolectricTestRunner.class)
 public class TestSkusTest {
 
     @Test
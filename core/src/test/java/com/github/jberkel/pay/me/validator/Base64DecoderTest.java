@@ -0,0 +1,56 @@
+package com.github.jberkel.pay.me.validator;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class Base64DecoderTest {
+
+    @Test public void shouldDecodeChunkedAndUnpaddedInput() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            byte[] data = new byte[random.nextInt(300)];
+            random.nextBytes(data);
+            String encoded = i % 2 == 0 ?
+                    new String(Base64.encodeBase64Chunked(data), "US-ASCII") :
+                    Base64.encodeBase64String(data).replace("=", "");
+
+            assertThat(decode(encoded)).isEqualTo(data);
+            assertThat(Base64Decoder.decode(encoded)).isEqualTo(data);
+        }
+    }
+
+    @Test public void shouldReuseBuffer() throws Exception {
+        byte[] buffer = new byte[12];
+        assertThat(Base64Decoder.decode("Zm9vYmFy", buffer)).isEqualTo(6);
+        assertThat(Base64Decoder.decode("Zm8=", buffer)).isEqualTo(2);
+        assertThat(new String(buffer, 0, 2, "UTF-8")).isEqualTo("fo");
+    }
+
+    @Test public void shouldRejectInvalidInput() throws Exception {
+        byte[] buffer = new byte[12];
+        assertThat(Base64Decoder.decode("signature", buffer)).isEqualTo(-1);
+        assertThat(Base64Decoder.decode("Zm8=Zm8=", buffer)).isEqualTo(-1);
+    }
+
+    @Test public void shouldIgnoreCharactersOutsideTheAlphabet() throws Exception {
+        assertThat(new String(Base64Decoder.decode("Zm9v!"), "UTF-8")).isEqualTo("foo");
+        assertThat(new String(Base64Decoder.decode("Zm9vé"), "UTF-8")).isEqualTo("foo");
+        assertThat(new String(Base64Decoder.decode("Zm\\9v-YmFy"), "UTF-8")).isEqualTo("foobar");
+        assertThat(new String(Base64Decoder.decode("Zm8=!"), "UTF-8")).isEqualTo("fo");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowOnInvalidString() throws Exception {
+        Base64Decoder.decode("signature");
+    }
+
+    private static byte[] decode(String input) {
+        byte[] buffer = new byte[Base64Decoder.maxDecodedLength(input)];
+        return Arrays.copyOf(buffer, Base64Decoder.decode(input, buffer));
+    }
+}
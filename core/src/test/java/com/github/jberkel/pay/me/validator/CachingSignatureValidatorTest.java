@@ -0,0 +1,124 @@
+package com.github.jberkel.pay.me.validator;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingSignatureValidatorTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private SignatureValidator delegate;
+    private CachingSignatureValidator validator;
+
+    @Before public void before() throws Exception {
+        delegate = mock(SignatureValidator.class);
+        when(delegate.validate(anyString(), anyString())).thenReturn(true);
+        validator = new CachingSignatureValidator(delegate, 2);
+    }
+
+    @Test public void shouldOnlyValidateOnce() throws Exception {
+        assertThat(validator.validate("data", "signature")).isTrue();
+        assertThat(validator.validate("data", "signature")).isTrue();
+
+        verify(delegate, times(1)).validate("data", "signature");
+        assertThat(validator.hitCount()).isEqualTo(1);
+        assertThat(validator.missCount()).isEqualTo(1);
+    }
+
+    @Test public void shouldNotCacheInvalidSignatures() throws Exception {
+        when(delegate.validate("data", "invalid")).thenReturn(false);
+
+        assertThat(validator.validate("data", "invalid")).isFalse();
+        assertThat(validator.validate("data", "invalid")).isFalse();
+
+        verify(delegate, times(2)).validate("data", "invalid");
+        assertThat(validator.size()).isEqualTo(0);
+    }
+
+    @Test public void shouldDistinguishDataFromSignature() throws Exception {
+        validator.validate("ab", "c");
+        validator.validate("a", "bc");
+
+        verify(delegate).validate("ab", "c");
+        verify(delegate).validate("a", "bc");
+    }
+
+    @Test public void shouldEvictLeastRecentlyUsed() throws Exception {
+        validator.validate("a", "sig");
+        validator.validate("b", "sig");
+        validator.validate("a", "sig");
+        validator.validate("c", "sig");
+
+        assertThat(validator.size()).isEqualTo(2);
+        validator.validate("a", "sig");
+        validator.validate("b", "sig");
+        verify(delegate, times(1)).validate("a", "sig");
+        verify(delegate, times(2)).validate("b", "sig");
+    }
+
+    @Test public void shouldPassNullsToDelegate() throws Exception {
+        when(delegate.validate(null, null)).thenReturn(false);
+        assertThat(validator.validate(null, null)).isFalse();
+        verify(delegate).validate(null, null);
+    }
+
+    @Test public void shouldPersistToFile() throws Exception {
+        File file = new File(folder.getRoot(), "signatures");
+        CachingSignatureValidator persistent = new CachingSignatureValidator(delegate, 10, file, "key");
+        persistent.validate("data", "signature");
+        persistent.save();
+
+        SignatureValidator otherDelegate = mock(SignatureValidator.class);
+        CachingSignatureValidator loaded = new CachingSignatureValidator(otherDelegate, 10, file, "key");
+
+        assertThat(loaded.size()).isEqualTo(1);
+        assertThat(loaded.validate("data", "signature")).isTrue();
+        verify(otherDelegate, times(0)).validate(anyString(), anyString());
+    }
+
+    @Test public void shouldIgnoreFileOfOtherPublicKey() throws Exception {
+        File file = new File(folder.getRoot(), "signatures");
+        CachingSignatureValidator persistent = new CachingSignatureValidator(delegate, 10, file, "key");
+        persistent.validate("data", "signature");
+        persistent.save();
+
+        CachingSignatureValidator loaded = new CachingSignatureValidator(delegate, 10, file, "otherKey");
+        assertThat(loaded.size()).isEqualTo(0);
+    }
+
+    @Test public void shouldIgnoreMissingOrCorruptFile() throws Exception {
+        File file = new File(folder.getRoot(), "signatures");
+        assertThat(new CachingSignatureValidator(delegate, 10, file, "key").size()).isEqualTo(0);
+
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("garbage".getBytes());
+        out.close();
+        assertThat(new CachingSignatureValidator(delegate, 10, file, "key").size()).isEqualTo(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotSaveWithoutFile() throws Exception {
+        validator.save();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRequirePublicKeyWithFile() throws Exception {
+        new CachingSignatureValidator(delegate, 10, new File(folder.getRoot(), "signatures"), null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRequireDelegate() throws Exception {
+        new CachingSignatureValidator(null, 10);
+    }
+}
@@ -1,10 +1,8 @@
 package com.github.jberkel.pay.me.validator;
 
-import android.util.Base64;
+import org.apache.commons.codec.binary.Base64;
 import org.junit.Before;
 import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.robolectric.RobolectricTestRunner;
 
 import java.security.KeyFactory;
 import java.security.KeyPair;
@@ -13,10 +11,15 @@ import java.security.PublicKey;
 import java.security.Signature;
 import java.security.spec.EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 
-@RunWith(RobolectricTestRunner.class)
 public class DefaultSignatureValidatorTest {
     SignatureValidator validator;
 
@@ -58,7 +61,7 @@ public class DefaultSignatureValidatorTest {
         KeyPair pair = keyGen.generateKeyPair();
         EncodedKeySpec encoded = new X509EncodedKeySpec(pair.getPublic().getEncoded());
         PublicKey encodedPublic = keyFactory.generatePublic(encoded);
-        String encodePublicBase64 = Base64.encodeToString(encodedPublic.getEncoded(), Base64.DEFAULT);
+        String encodePublicBase64 = Base64.encodeBase64String(encodedPublic.getEncoded());
 
         // and sign some data with it
         Signature sig = Signature.getInstance("SHA1WithRSA");
@@ -66,13 +69,57 @@ public class DefaultSignatureValidatorTest {
         String data = "some sample data";
         sig.update(data.getBytes());
 
-        String signature = Base64.encodeToString(sig.sign(), Base64.DEFAULT);
+        String signature = Base64.encodeBase64String(sig.sign());
 
         SignatureValidator validator = new DefaultSignatureValidator(encodePublicBase64);
         assertThat(validator.validate(data, signature)).isTrue();
         assertThat(validator.validate(data+"extraData", signature)).isFalse();
     }
 
+    @Test public void shouldReuseSignatureAcrossValidations() throws Exception {
+        KeyPair pair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        SignatureValidator validator = new DefaultSignatureValidator(
+                Base64.encodeBase64String(pair.getPublic().getEncoded()));
+
+        for (int i = 0; i < 3; i++) {
+            String data = "data " + i;
+            assertThat(validator.validate(data, sign(pair, data))).isTrue();
+            assertThat(validator.validate(data, sign(pair, "other"))).isFalse();
+            assertThat(validator.validate(data, "c2lnbmF0dXJl")).isFalse();
+        }
+    }
+
+    @Test public void shouldValidateFromMultipleThreads() throws Exception {
+        final KeyPair pair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        final SignatureValidator validator = new DefaultSignatureValidator(
+                Base64.encodeBase64String(pair.getPublic().getEncoded()));
+        final String signature = sign(pair, "data");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Callable<Boolean>> validations = new ArrayList<Callable<Boolean>>();
+        for (int i = 0; i < 20; i++) {
+            validations.add(new Callable<Boolean>() {
+                @Override public Boolean call() throws Exception {
+                    return validator.validate("data", signature);
+                }
+            });
+        }
+        try {
+            for (Future<Boolean> result : executor.invokeAll(validations)) {
+                assertThat(result.get()).isTrue();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String sign(KeyPair pair, String data) throws Exception {
+        Signature sig = Signature.getInstance("SHA1WithRSA");
+        sig.initSign(pair.getPrivate());
+        sig.update(data.getBytes());
+        return Base64.encodeBase64String(sig.sign());
+    }
+
     private static final String ENCODED_KEY = "MIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8AMIIBCgKCAQEAzoFJ+dq/PQo2u71ndt2k\n" +
             "t0XK3oGFvUPagg0QogBrp2IyBKTodFtmcb0riKtDGjZ9JKB45GIBC3RR2fuC9lOR\n" +
             "15rRjA2Tfxoig0K/VYy7K5+fkLt2yGVDd3oqBFEDSGcwYYP1LfmgI8B2WJjACu3V\n" +
@@ -0,0 +1,26 @@
+package com.github.jberkel.pay.me;
+
+import com.github.jberkel.pay.me.model.ItemType;
+
+/**
+ * Receives the outcome of every call {@link IabHelper} makes to the in-app billing service, to
+ * export them to your own telemetry. See {@link IabHelper#setBillingMetrics}, and
+ * {@link InMemoryBillingMetrics} for an implementation which aggregates the calls.
+ * <p/>
+ * Calls are reported on the thread which made them, which can be any of the helper's threads,
+ * so implementations have to be thread-safe. They should return quickly and must not throw.
+ */
+public interface BillingMetrics {
+    /**
+     * Called after each service call.
+     *
+     * @param call          the service method which was called.
+     * @param itemType      the item type of the call, {@link ItemType#INAPP} for consumes.
+     * @param response      the response code returned by the service (see {@link Response#fromCode}),
+     *                      {@link Response#IABHELPER_REMOTE_EXCEPTION} if the call failed with a
+     *                      RemoteException or {@link Response#IABHELPER_BAD_RESPONSE} if no bundle
+     *                      was returned.
+     * @param durationNanos the time the call took, in nanoseconds.
+     */
+    void onServiceCall(ServiceCall call, ItemType itemType, int response, long durationNanos);
+}
@@ -0,0 +1,125 @@
+package com.github.jberkel.pay.me;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A background task in the style of {@link android.os.AsyncTask}, which runs on caller-supplied
+ * executors instead of the process-wide <code>AsyncTask</code> pool.
+ * <p/>
+ * {@link #onPreExecute()} runs on the thread calling {@link #execute}, {@link #doInBackground} on the
+ * background executor and {@link #onPostExecute} on the callback executor. Unlike <code>AsyncTask</code>,
+ * {@link #onPostExecute} is also called for cancelled tasks, use {@link #isCancelled()} to check. If
+ * the task was cancelled before {@link #doInBackground} started, the result is null.
+ * <p/>
+ * If {@link #doInBackground} throws, {@link #onFailed} is called on the callback executor instead,
+ * and the exception is rethrown there.
+ *
+ * @param <Params> the type of the parameters
+ * @param <Result> the type of the result
+ */
+abstract class BillingTask<Params, Result> {
+    private volatile FutureTask<Result> mFuture;
+    private volatile Executor mCallbackExecutor;
+
+    protected void onPreExecute() {
+    }
+
+    protected abstract Result doInBackground(Params... params);
+
+    protected void onPostExecute(Result result) {
+    }
+
+    /**
+     * Called instead of {@link #onPostExecute} if {@link #doInBackground} threw, before the
+     * exception is rethrown on the callback executor.
+     */
+    protected void onFailed(RuntimeException e) {
+    }
+
+    /**
+     * Executes the task. This method can only be called once.
+     *
+     * @param backgroundExecutor the executor to run {@link #doInBackground} on
+     * @param callbackExecutor   the executor to run {@link #onPostExecute} on
+     * @param params             the parameters passed to {@link #doInBackground}
+     * @return this task
+     */
+    final BillingTask<Params, Result> execute(final Executor backgroundExecutor,
+                                              final Executor callbackExecutor,
+                                              final Params... params) {
+        if (mFuture != null) throw new IllegalStateException("task has already been executed");
+        mCallbackExecutor = callbackExecutor;
+        onPreExecute();
+        final AtomicBoolean started = new AtomicBoolean();
+        mFuture = new FutureTask<Result>(new Callable<Result>() {
+            @Override
+            public Result call() throws Exception {
+                started.set(true);
+                final Result result;
+                try {
+                    result = doInBackground(params);
+                } catch (final RuntimeException e) {
+                    // don't swallow unexpected errors, rethrow them on the callback thread (like AsyncTask)
+                    callbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            onFailed(e);
+                            throw e;
+                        }
+                    });
+                    throw e;
+                }
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPostExecute(result);
+                    }
+                });
+                return result;
+            }
+        }) {
+            @Override
+            protected void done() {
+                // call() won't run if cancelled before it started, nothing else calls onPostExecute then
+                if (isCancelled() && started.compareAndSet(false, true)) {
+                    callbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            onPostExecute(null);
+                        }
+                    });
+                }
+            }
+        };
+        backgroundExecutor.execute(mFuture);
+        return this;
+    }
+
+    /**
+     * Runs <code>runnable</code> on the callback executor, like <code>AsyncTask#publishProgress</code>.
+     * Can be called from {@link #doInBackground}.
+     */
+    protected final void runOnCallbackExecutor(Runnable runnable) {
+        mCallbackExecutor.execute(runnable);
+    }
+
+    /**
+     * Waits for {@link #doInBackground} to complete and returns its result.
+     */
+    final Result get() throws InterruptedException, ExecutionException {
+        if (mFuture == null) throw new IllegalStateException("task has not been executed");
+        return mFuture.get();
+    }
+
+    final boolean cancel(boolean mayInterruptIfRunning) {
+        return mFuture != null && mFuture.cancel(mayInterruptIfRunning);
+    }
+
+    final boolean isCancelled() {
+        return mFuture != null && mFuture.isCancelled();
+    }
+}
@@ -0,0 +1,222 @@
+package com.github.jberkel.pay.me;
+
+import android.util.Log;
+import com.github.jberkel.pay.me.model.ItemType;
+import com.github.jberkel.pay.me.model.Purchase;
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only journal of purchases which are being consumed, so that a consume interrupted by
+ * process death can be completed on the next start.
+ * <p/>
+ * A purchase is recorded (and synced to disk) before the consume request is sent to the billing
+ * service, and marked as done once the service has answered. Once no consumes are outstanding the
+ * file is deleted, so it never grows beyond the purchases in flight. A record torn by a crash while
+ * writing is ignored.
+ * <p/>
+ * Install it with {@link IabHelper#setConsumeJournal}, which replays pending consumes after setup.
+ * This class is thread-safe.
+ */
+public class ConsumeJournal {
+    private static final String TAG = "IAB/ConsumeJournal";
+    private static final int RECORD_PENDING = 1;
+    private static final int RECORD_DONE = 2;
+    private static final String CHARSET = "UTF-8";
+    // purchase data is small, anything larger is a corrupt record
+    private static final int MAX_STRING_LENGTH = 1024 * 1024;
+
+    private final File mFile;
+    // pending purchases by token, loaded from the file on first use
+    private Map<String, Purchase> mPending;
+
+    /**
+     * @param file the journal file, preferably in the application's private storage.
+     */
+    public ConsumeJournal(File file) {
+        if (file == null) throw new IllegalArgumentException("file cannot be null");
+        mFile = file;
+    }
+
+    /**
+     * Records that a purchase is about to be consumed. Returns once the record is on disk.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized void begin(Purchase purchase) throws IOException {
+        if (purchase == null) throw new IllegalArgumentException("purchase cannot be null");
+        final Map<String, Purchase> pending = pending();
+        append(pendingRecord(purchase), true);
+        pending.put(purchase.getToken(), purchase);
+    }
+
+    /**
+     * Records that a purchase no longer needs to be consumed.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized void complete(Purchase purchase) throws IOException {
+        if (purchase == null) throw new IllegalArgumentException("purchase cannot be null");
+        final Map<String, Purchase> pending = pending();
+        if (pending.remove(purchase.getToken()) == null) return;
+        if (pending.isEmpty()) {
+            // nothing outstanding, start over
+            if (mFile.exists() && !mFile.delete()) throw new IOException("could not delete " + mFile);
+        } else {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream record = new DataOutputStream(bytes);
+            record.writeByte(RECORD_DONE);
+            writeString(record, purchase.getToken());
+            // no need to sync, a lost record only means consuming the purchase once more
+            append(bytes.toByteArray(), false);
+        }
+    }
+
+    /**
+     * @return the purchases which have been recorded but not completed, in the order they were recorded.
+     */
+    public synchronized List<Purchase> getPendingPurchases() {
+        return new ArrayList<Purchase>(pending().values());
+    }
+
+    /** Deletes the journal. */
+    public synchronized void clear() {
+        mFile.delete();
+        mPending = new LinkedHashMap<String, Purchase>();
+    }
+
+    @Override
+    public String toString() {
+        return "ConsumeJournal{" + mFile + '}';
+    }
+
+    private void append(byte[] record, boolean sync) throws IOException {
+        final FileOutputStream out = new FileOutputStream(mFile, true);
+        try {
+            // a single write, so that a crash leaves at most one torn record at the end
+            out.write(record);
+            if (sync) out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private Map<String, Purchase> pending() {
+        if (mPending == null) {
+            mPending = new LinkedHashMap<String, Purchase>();
+            if (!read(mPending)) {
+                // drop the damaged part, records appended after it could not be read
+                try {
+                    rewrite(mPending.values());
+                } catch (IOException e) {
+                    Log.w(TAG, "error rewriting " + mFile, e);
+                }
+            }
+        }
+        return mPending;
+    }
+
+    /**
+     * Reads the pending purchases from the file.
+     *
+     * @return false if the file is damaged, true otherwise
+     */
+    private boolean read(Map<String, Purchase> pending) {
+        final DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        } catch (FileNotFoundException e) {
+            return true;
+        }
+        final ItemType[] itemTypes = ItemType.values();
+        try {
+            while (true) {
+                final int type = in.read();
+                if (type == -1) return true;
+                if (type == RECORD_PENDING) {
+                    final int itemType = in.readUnsignedByte();
+                    final String json = readString(in);
+                    final String signature = readString(in);
+                    if (itemType >= itemTypes.length) throw new IOException("invalid item type " + itemType);
+                    try {
+                        final Purchase purchase = new Purchase(itemTypes[itemType], json, signature);
+                        pending.put(purchase.getToken(), purchase);
+                    } catch (JSONException e) {
+                        Log.w(TAG, "ignoring unparseable purchase in " + mFile, e);
+                    }
+                } else if (type == RECORD_DONE) {
+                    pending.remove(readString(in));
+                } else {
+                    throw new IOException("invalid record type " + type);
+                }
+            }
+        } catch (EOFException e) {
+            Log.w(TAG, "ignoring incomplete record at the end of " + mFile);
+            return false;
+        } catch (IOException e) {
+            Log.w(TAG, "error reading " + mFile, e);
+            return false;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void rewrite(Collection<Purchase> purchases) throws IOException {
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            for (Purchase purchase : purchases) {
+                out.write(pendingRecord(purchase));
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("could not rename " + tmp + " to " + mFile);
+        }
+    }
+
+    private static byte[] pendingRecord(Purchase purchase) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(RECORD_PENDING);
+        record.writeByte(purchase.getItemType().ordinal());
+        writeString(record, purchase.getOriginalJson());
+        writeString(record, purchase.getSignature());
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        final byte[] bytes = s.getBytes(CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_LENGTH) throw new IOException("invalid length " + length);
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, CHARSET);
+    }
+}
@@ -1,32 +1,41 @@
 package com.github.jberkel.pay.me;
 
-import android.os.AsyncTask;
+import android.os.RemoteException;
 import com.github.jberkel.pay.me.listener.OnConsumeFinishedListener;
 import com.github.jberkel.pay.me.listener.OnConsumeMultiFinishedListener;
+import com.github.jberkel.pay.me.listener.OnConsumeProgressListener;
 import com.github.jberkel.pay.me.model.Purchase;
+import org.json.JSONException;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.github.jberkel.pay.me.Response.IABHELPER_DISPOSED;
 import static com.github.jberkel.pay.me.Response.OK;
 
-class ConsumeTask extends AsyncTask<Purchase, Void, List<IabResult>> {
+class ConsumeTask extends BillingTask<Purchase, List<IabResult>> {
     private final IabHelper mIabHelper;
+    private final OperationQueue.Operation mOperation;
     private final OnConsumeFinishedListener mSingleListener;
     private final OnConsumeMultiFinishedListener mMultiListener;
+    private final OnConsumeProgressListener mProgressListener;
+    private final AtomicInteger mFinished = new AtomicInteger();
     private List<Purchase> mPurchases;
 
     public ConsumeTask(IabHelper iabHelper,
+                       OperationQueue.Operation operation,
                        OnConsumeFinishedListener singleListener,
-                       OnConsumeMultiFinishedListener multiListener) {
+                       OnConsumeMultiFinishedListener multiListener,
+                       OnConsumeProgressListener progressListener) {
         mIabHelper = iabHelper;
+        mOperation = operation;
         mSingleListener = singleListener;
         mMultiListener = multiListener;
-    }
-
-    @Override
-    protected void onPreExecute() {
-        mIabHelper.flagStartAsync("consume");
+        mProgressListener = progressListener;
     }
 
     @Override
@@ -36,21 +45,25 @@ class ConsumeTask extends AsyncTask<Purchase, Void, List<IabResult>> {
         mPurchases = new ArrayList<Purchase>(purchases.length);
         Collections.addAll(mPurchases, purchases);
 
+        if (purchases.length > 1 && mIabHelper.isParallelConsumeEnabled()) {
+            return consumeInParallel(mPurchases);
+        }
+
         final List<IabResult> results = new ArrayList<IabResult>(purchases.length);
         for (Purchase purchase : purchases) {
-            try {
-                mIabHelper.consume(purchase);
-                results.add(new IabResult(OK, "Successful consume of sku " + purchase.getSku()));
-            } catch (IabException ex) {
-                results.add(ex.getResult());
-            }
+            results.add(consume(purchase));
         }
         return results;
     }
 
+    @Override
+    protected void onFailed(RuntimeException e) {
+        mIabHelper.finishOperation(mOperation);
+    }
+
     @Override
     protected void onPostExecute(List<IabResult> results) {
-        mIabHelper.flagEndAsync();
+        mIabHelper.finishOperation(mOperation);
         if (mIabHelper.isDisposed() || isCancelled()) return;
 
         if (mSingleListener != null) {
@@ -61,4 +74,74 @@ class ConsumeTask extends AsyncTask<Purchase, Void, List<IabResult>> {
             mMultiListener.onConsumeMultiFinished(mPurchases, results);
         }
     }
+
+    /**
+     * Notifies the listeners that the purchases were not consumed because the helper was disposed
+     * before the task could be started.
+     */
+    void abort(List<Purchase> purchases) {
+        final IabResult disposed = new IabResult(IABHELPER_DISPOSED);
+        if (mSingleListener != null) {
+            mSingleListener.onConsumeFinished(purchases.get(0), disposed);
+        }
+        if (mMultiListener != null) {
+            mMultiListener.onConsumeMultiFinished(purchases, Collections.nCopies(purchases.size(), disposed));
+        }
+    }
+
+    private List<IabResult> consumeInParallel(List<Purchase> purchases) {
+        final List<Callable<IabResult>> consumes = new ArrayList<Callable<IabResult>>(purchases.size());
+        for (final Purchase purchase : purchases) {
+            consumes.add(new Callable<IabResult>() {
+                @Override
+                public IabResult call() {
+                    return consume(purchase);
+                }
+            });
+        }
+        final List<IabResult> results = new ArrayList<IabResult>(purchases.size());
+        try {
+            // futures are returned in the order of the purchases
+            for (Future<IabResult> result : mIabHelper.invokeAll(consumes)) {
+                results.add(IabHelper.getResult(result));
+            }
+        } catch (IabException e) {
+            // interrupted while waiting
+            while (results.size() < purchases.size()) {
+                results.add(e.getResult());
+            }
+        } catch (RemoteException e) {
+            throw new IllegalStateException("unexpected exception", e);
+        } catch (JSONException e) {
+            throw new IllegalStateException("unexpected exception", e);
+        }
+        return results;
+    }
+
+    private IabResult consume(Purchase purchase) {
+        IabResult result;
+        try {
+            mIabHelper.consume(purchase);
+            result = new IabResult(OK, "Successful consume of sku " + purchase.getSku());
+        } catch (IabException ex) {
+            result = ex.getResult();
+        }
+        publishProgress(purchase, result);
+        return result;
+    }
+
+    private void publishProgress(final Purchase purchase, final IabResult result) {
+        if (mProgressListener == null) return;
+        final int total = mPurchases.size();
+
+        runOnCallbackExecutor(new Runnable() {
+            @Override
+            public void run() {
+                // counted on the callback executor, so that listeners see the counts in order
+                final int finished = mFinished.incrementAndGet();
+                if (mIabHelper.isDisposed() || isCancelled()) return;
+                mProgressListener.onConsumeProgress(purchase, result, finished, total);
+            }
+        });
+    }
 }
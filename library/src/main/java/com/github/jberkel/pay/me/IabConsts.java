@@ -16,4 +16,7 @@ class IabConsts {
 
     // some fields on the getSkuDetails response bundle
     static final String GET_SKU_DETAILS_ITEM_LIST = "ITEM_ID_LIST";
+
+    // maximum number of skus the service accepts in a single getSkuDetails request
+    static final int MAX_SKU_DETAILS_PER_REQUEST = 20;
 }
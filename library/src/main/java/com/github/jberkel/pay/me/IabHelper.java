@@ -22,33 +22,59 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentSender.SendIntentException;
 import android.content.ServiceConnection;
+import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.RemoteException;
 import android.text.TextUtils;
 import android.util.Log;
 import com.android.vending.billing.IInAppBillingService;
+import com.github.jberkel.pay.me.listener.InventoryChangedListener;
 import com.github.jberkel.pay.me.listener.OnConsumeFinishedListener;
 import com.github.jberkel.pay.me.listener.OnConsumeMultiFinishedListener;
+import com.github.jberkel.pay.me.listener.OnConsumeProgressListener;
 import com.github.jberkel.pay.me.listener.OnIabPurchaseFinishedListener;
 import com.github.jberkel.pay.me.listener.OnIabSetupFinishedListener;
+import com.github.jberkel.pay.me.listener.OnPurchasesPageListener;
 import com.github.jberkel.pay.me.listener.QueryInventoryFinishedListener;
+import com.github.jberkel.pay.me.listener.QueryPurchasesListener;
 import com.github.jberkel.pay.me.model.Inventory;
+import com.github.jberkel.pay.me.model.InventoryDiff;
+import com.github.jberkel.pay.me.model.InventorySnapshot;
 import com.github.jberkel.pay.me.model.ItemType;
+import com.github.jberkel.pay.me.model.JsonParsing;
 import com.github.jberkel.pay.me.model.Purchase;
 import com.github.jberkel.pay.me.model.SkuDetails;
 import com.github.jberkel.pay.me.validator.DefaultSignatureValidator;
 import com.github.jberkel.pay.me.validator.SignatureValidator;
 import org.json.JSONException;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static android.app.Activity.RESULT_CANCELED;
 import static android.app.Activity.RESULT_OK;
 import static com.github.jberkel.pay.me.IabConsts.*;
+import static com.github.jberkel.pay.me.OperationQueue.Kind.CONSUME;
+import static com.github.jberkel.pay.me.OperationQueue.Kind.PURCHASE;
+import static com.github.jberkel.pay.me.OperationQueue.Kind.QUERY;
 import static com.github.jberkel.pay.me.Response.*;
+import static com.github.jberkel.pay.me.StageTimer.Stage.BINDER;
+import static com.github.jberkel.pay.me.StageTimer.Stage.MERGE;
+import static com.github.jberkel.pay.me.StageTimer.Stage.PARSE;
+import static com.github.jberkel.pay.me.StageTimer.Stage.VERIFY;
 import static com.github.jberkel.pay.me.model.ItemType.INAPP;
 import static com.github.jberkel.pay.me.model.ItemType.SUBS;
 
@@ -77,15 +103,29 @@ import static com.github.jberkel.pay.me.model.ItemType.SUBS;
  * A note about threading: When using this object from a background thread, you may
  * call the blocking versions of methods; when using from a UI thread, call
  * only the asynchronous versions and handle the results via callbacks.
- * Also, notice that you can only call one asynchronous operation at a time;
- * attempting to start a second asynchronous operation while the first one
- * has not yet completed will result in an exception being thrown.
+ * The asynchronous versions run on a small thread pool owned by this object and call
+ * back on the main thread, see {@link #setExecutors} to change this.
+ * Asynchronous operations which can run together, such as inventory queries and consumes
+ * of different purchases, run in parallel. Conflicting operations (two purchase flows, or
+ * two consumes of the same purchase) are queued and run one after the other.
  *
  * @author Bruno Oliveira (Google)
  * @author Jan Berkel
  */
 public class IabHelper {
     /* package */ static final Intent BIND_BILLING_SERVICE = new Intent("com.android.vending.billing.InAppBillingService.BIND").setPackage("com.android.vending");
+    /* package */ static final int DEFAULT_MAX_PARALLEL_REQUESTS = 4;
+    /* package */ static final int DEFAULT_BACKGROUND_THREADS = 2;
+    // returned by the service if the network is down, not in Response
+    private static final int SERVICE_UNAVAILABLE = 2;
+
+    // used instead of a thread pool if requests should not run in parallel
+    private static final Executor CALLING_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            throw new RejectedExecutionException();
+        }
+    };
 
     private Context mContext;
     private IInAppBillingService mService;
@@ -94,14 +134,67 @@ public class IabHelper {
     private PurchaseFlowState mPurchaseFlowState = PurchaseFlowState.NONE;
     private SignatureValidator mSignatureValidator;
 
-    private boolean mSetupDone, mDisposed;
+    private boolean mSetupDone;
+    private volatile boolean mDisposed;
     private boolean mSubscriptionsSupported, mInAppSupported;
 
     private boolean mDebugLog;
     private String mDebugTag = "IabHelper";
-    private boolean mAsyncInProgress;
-    // if mAsyncInProgress == true, what asynchronous operation is in progress? (for logging/debugging)
-    private String mAsyncOperation = "";
+    private final OperationQueue mOperations = new OperationQueue();
+    // the operation of the purchase flow in progress, finished by handleActivityResult
+    private OperationQueue.Operation mPurchaseOperation;
+
+    // the most recently started async inventory query, which later queries can attach to
+    private QueryInventoryTask mInventoryQuery;
+    private QueryInventoryTask.Args mInventoryQueryArgs;
+
+    private boolean mParallelQueries, mParallelConsumes;
+    private boolean mLazyPurchases;
+    private boolean mAsyncPurchaseVerification;
+    private boolean mPersistPurchaseFlow;
+    private boolean mParallelVerification;
+    private volatile JsonParsing mJsonParsing = JsonParsing.JSON_OBJECT;
+    private volatile SkuDetailsCache mSkuDetailsCache;
+    private InventoryChangedListener mInventoryChangedListener;
+    // the result of the previous inventory query, to report changes to the listener
+    private InventorySnapshot mLastInventory;
+    private volatile InventoryCache mInventoryCache;
+    // counts the inventory saves, a save is skipped if a later one has been scheduled
+    private final AtomicLong mInventorySaves = new AtomicLong();
+    // the inventory loaded from the cache, compared to the first queried inventory
+    private InventorySnapshot mCachedInventory;
+    private volatile ConsumeJournal mConsumeJournal;
+    private volatile StageTimer mStageTimer;
+    private volatile BillingMetrics mBillingMetrics;
+    // receives the calls of the metered service, for the stage timer and the app's metrics
+    private final BillingMetrics mServiceCalls = new BillingMetrics() {
+        @Override
+        public void onServiceCall(ServiceCall call, ItemType itemType, int response, long durationNanos) {
+            final StageTimer timer = mStageTimer;
+            if (timer != null) timer.onStage(BINDER, durationNanos);
+            final BillingMetrics metrics = mBillingMetrics;
+            if (metrics != null) metrics.onServiceCall(call, itemType, response, durationNanos);
+        }
+    };
+    // receives the results of restored purchase flows if handleActivityResult was called without a listener
+    private final OnIabPurchaseFinishedListener mUnhandledPurchaseLogger = new OnIabPurchaseFinishedListener() {
+        @Override
+        public void onIabPurchaseFinished(IabResult result, Purchase purchase) {
+            logWarn("No listener for the result of a restored purchase flow: " + result + ", purchase: " + purchase);
+        }
+    };
+    // notified when consumes left pending by a previous run have been retried
+    private volatile OnConsumeMultiFinishedListener mConsumeRecoveryListener;
+    private int mMaxParallelRequests = DEFAULT_MAX_PARALLEL_REQUESTS;
+    // executor used for concurrent service requests, created on demand
+    private ExecutorService mQueryExecutor;
+    // executor used to verify purchase signatures on all cores, created on demand
+    private ExecutorService mVerificationExecutor;
+
+    // executors for asynchronous operations, null means use the default
+    private Executor mBackgroundExecutor, mCallbackExecutor;
+    // the default background executor, created on demand
+    private ExecutorService mDefaultBackgroundExecutor;
 
     /**
      * Creates an instance. After creation, it will not yet be ready to use. You must perform
@@ -175,10 +268,22 @@ public class IabHelper {
             if (mContext != null) mContext.unbindService(mServiceConn);
         }
         mDisposed = true;
+        mOperations.clear();
+        shutdownQueryExecutor();
+        shutdownVerificationExecutor();
+        shutdownDefaultBackgroundExecutor();
+        synchronized (this) {
+            mInventoryQuery = null;
+            mInventoryQueryArgs = null;
+            mLastInventory = null;
+            mCachedInventory = null;
+        }
         mContext = null;
         mServiceConn = null;
         mService = null;
         mPurchaseFlowState = PurchaseFlowState.NONE;
+        mPurchaseOperation = null;
+        mConsumeRecoveryListener = null;
     }
 
     /**
@@ -188,6 +293,10 @@ public class IabHelper {
      * {@link android.app.Activity#onActivityResult} method, at which point you must call
      * this object's {@link #handleActivityResult} method to continue the purchase flow. This method
      * MUST be called from the UI thread of the Activity.
+     * <p/>
+     * If another purchase flow is in progress, this one is launched once the result of the other one
+     * has been passed to {@link #handleActivityResult}. If <code>activity</code> is finishing by
+     * then, the listener is notified with {@link Response#IABHELPER_SEND_INTENT_FAILED} instead.
      *
      * @param activity         The calling activity.
      * @param sku              The sku of the item to purchase.
@@ -216,10 +325,48 @@ public class IabHelper {
         }
 
         checkSetupDone("launchPurchaseFlow");
-        flagStartAsync("launchPurchaseFlow");
+        final OperationQueue.Operation operation = new OperationQueue.Operation("launchPurchaseFlow", PURCHASE);
+        startOperation(operation, new Runnable() {
+            @Override
+            public void run() {
+                launchPurchaseFlow(operation, activity, sku, itemType, requestCode, listener, developerPayload);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                if (listener != null) {
+                    listener.onIabPurchaseFinished(new IabResult(IABHELPER_DISPOSED), null);
+                }
+            }
+        });
+    }
+
+    private void launchPurchaseFlow(OperationQueue.Operation operation,
+                                    Activity activity,
+                                    String sku,
+                                    ItemType itemType,
+                                    int requestCode,
+                                    OnIabPurchaseFinishedListener listener,
+                                    String developerPayload) {
+        if (isDisposed()) {
+            if (listener != null) {
+                listener.onIabPurchaseFinished(new IabResult(Response.IABHELPER_DISPOSED), null);
+            }
+            return;
+        }
+
+        // a queued flow may start after the activity which launched it has gone away
+        if (activity.isFinishing()) {
+            logDebug("Not launching purchase flow for " + sku + ", activity is finishing");
+            finishOperation(operation);
+            if (listener != null) {
+                listener.onIabPurchaseFinished(new IabResult(IABHELPER_SEND_INTENT_FAILED, "Activity is finishing"), null);
+            }
+            return;
+        }
 
         if (itemType == SUBS && !mSubscriptionsSupported || itemType == INAPP && !mInAppSupported) {
-            flagEndAsync();
+            finishOperation(operation);
             if (listener != null) {
                 listener.onIabPurchaseFinished(
                         new IabResult(itemType == INAPP ? BILLING_UNAVAILABLE : IABHELPER_SUBSCRIPTIONS_NOT_AVAILABLE),
@@ -235,7 +382,7 @@ public class IabHelper {
             int response = getResponseCodeFromBundle(buyIntentBundle);
             if (response != OK.code) {
                 logError("Unable to buy item, Error response: " + getDescription(response));
-                flagEndAsync();
+                finishOperation(operation);
                 if (listener != null) {
                     listener.onIabPurchaseFinished(
                             new IabResult(response, "Unable to buy item"), null);
@@ -249,18 +396,23 @@ public class IabHelper {
             }
 
             logDebug("Launching buy intent for " + sku + ". Request code: " + requestCode);
-            mPurchaseFlowState = new PurchaseFlowState(requestCode, itemType, listener);
+            mPurchaseFlowState = new PurchaseFlowState(requestCode, itemType, sku, developerPayload, listener);
+            mPurchaseOperation = operation;
+            if (mPersistPurchaseFlow) {
+                mPurchaseFlowState.save(getPurchaseFlowPreferences());
+            }
             activity.startIntentSenderForResult(pendingIntent.getIntentSender(),
                     requestCode, new Intent(),
                     0, 0, 0);
         } catch (SendIntentException e) {
             logError("SendIntentException while launching purchase flow for sku " + sku, e);
-            flagEndAsync();
+            clearPersistedPurchaseFlow();
+            finishOperation(operation);
             if (listener != null)
                 listener.onIabPurchaseFinished(new IabResult(IABHELPER_SEND_INTENT_FAILED), null);
         } catch (RemoteException e) {
             logError("RemoteException while launching purchase flow for sku " + sku, e);
-            flagEndAsync();
+            finishOperation(operation);
             if (listener != null)
                 listener.onIabPurchaseFinished(new IabResult(IABHELPER_REMOTE_EXCEPTION), null);
         }
@@ -271,6 +423,9 @@ public class IabHelper {
      * are calling {@link #launchPurchaseFlow}, then you must call this method from your
      * Activity's {@link Activity#onActivityResult} method. This method
      * MUST be called from the UI thread of the Activity.
+     * <p/>
+     * With {@link #enableAsyncPurchaseVerification asynchronous verification}, the purchase listener
+     * is notified after this method has returned.
      *
      * @param requestCode The requestCode as you received it.
      * @param intentResultCode  The resultCode as you received it.
@@ -280,13 +435,78 @@ public class IabHelper {
      *         handle it normally.
      */
     public boolean handleActivityResult(int requestCode, int intentResultCode, Intent intent) {
+        return handleActivityResult(requestCode, intentResultCode, intent, null);
+    }
+
+    /**
+     * Handles an activity result like {@link #handleActivityResult(int, int, Intent)}. With
+     * {@link #enablePurchaseFlowPersistence persistence} enabled, this also handles the result of
+     * a purchase flow launched before the process was recreated. The listener passed to
+     * {@link #launchPurchaseFlow} is gone then, so the result is delivered to <code>listener</code>
+     * instead. Such a result is handled even if setup hasn't finished yet.
+     *
+     * @param listener notified of the result of a restored purchase flow, can be null (the result is
+     *                 then only logged). Not used for purchase flows launched by this helper. A
+     *                 successful purchase is only reported if its sku and developer payload match
+     *                 the restored flow, otherwise the result is
+     *                 {@link Response#IABHELPER_VERIFICATION_FAILED}.
+     */
+    public boolean handleActivityResult(int requestCode,
+                                        int intentResultCode,
+                                        Intent intent,
+                                        OnIabPurchaseFinishedListener listener) {
+        boolean restored = false;
+        if (mPurchaseFlowState == PurchaseFlowState.NONE && mPersistPurchaseFlow && !isDisposed()) {
+            final PurchaseFlowState state = PurchaseFlowState.restore(getPurchaseFlowPreferences(),
+                    listener != null ? listener : mUnhandledPurchaseLogger);
+            if (state != PurchaseFlowState.NONE && state.requestCode == requestCode) {
+                logDebug("Restored purchase flow: " + state);
+                mPurchaseFlowState = state;
+                restored = true;
+            }
+        }
         if (mPurchaseFlowState == PurchaseFlowState.NONE) return false; // no prior launchPurchaseFlow
         else if (requestCode != mPurchaseFlowState.requestCode) return false;
-        checkSetupDone("handleActivityResult");
+        // verifying a purchase doesn't need the service
+        if (!restored) checkSetupDone("handleActivityResult");
+        clearPersistedPurchaseFlow();
+        final OperationQueue.Operation operation = mPurchaseOperation;
+        boolean verifying = false;
+        try {
+            if (mAsyncPurchaseVerification && isSuccessfulPurchase(intentResultCode, intent)) {
+                logDebug("handleActivityResult: verifying purchase in the background");
+                final PurchaseVerificationTask task = new PurchaseVerificationTask(this, operation, mPurchaseFlowState,
+                        intent.getStringExtra(RESPONSE_INAPP_PURCHASE_DATA),
+                        intent.getStringExtra(RESPONSE_INAPP_SIGNATURE));
+                task.execute(getBackgroundExecutor(), getCallbackExecutor());
+                // the task finishes the operation
+                verifying = true;
+                return true;
+            }
+            return handlePurchaseFlowResult(intentResultCode, intent);
+        } finally {
+            // end of async purchase operation that started on launchPurchaseFlow
+            if (!verifying) finishOperation(operation);
+        }
+    }
 
-        // end of async purchase operation that started on launchPurchaseFlow
-        flagEndAsync();
+    private SharedPreferences getPurchaseFlowPreferences() {
+        return mContext.getSharedPreferences(PurchaseFlowState.PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    private void clearPersistedPurchaseFlow() {
+        if (mPersistPurchaseFlow && !isDisposed()) {
+            PurchaseFlowState.clear(getPurchaseFlowPreferences());
+        }
+    }
+
+    private boolean isSuccessfulPurchase(int intentResultCode, Intent intent) {
+        return intent != null
+                && intentResultCode == RESULT_OK
+                && getResponseCodeFromBundle(intent.getExtras()) == OK.code;
+    }
 
+    private boolean handlePurchaseFlowResult(int intentResultCode, Intent intent) {
         if (intent == null) {
             logError("Null data in IAB activity result.");
             mPurchaseFlowState.onIabPurchaseFinished(new IabResult(IABHELPER_BAD_RESPONSE, "Null data in IAB result"), null);
@@ -300,6 +520,7 @@ public class IabHelper {
                     handlePurchaseResult(
                             intent.getStringExtra(RESPONSE_INAPP_PURCHASE_DATA),
                             intent.getStringExtra(RESPONSE_INAPP_SIGNATURE),
+                            mPurchaseFlowState.itemType,
                             mPurchaseFlowState);
                 } else {
                     logDebug("Result code was OK but in-app billing response was not OK: " + getDescription(responseCode));
@@ -341,12 +562,19 @@ public class IabHelper {
         checkNotDisposed();
         checkSetupDone("queryInventory");
         try {
-            final Inventory inventory = new Inventory();
+            final Inventory inventory;
+            if (mParallelQueries && subscriptionsSupported()) {
+                inventory = queryInventoryParallel(querySkuDetails, moreItemSkus, moreSubsSkus);
+            } else {
+                inventory = new Inventory();
 
-            queryPurchasesAndDetails(INAPP, inventory, querySkuDetails, moreItemSkus);
-            if (subscriptionsSupported()) {
-                queryPurchasesAndDetails(SUBS, inventory, querySkuDetails, moreSubsSkus);
+                queryPurchasesAndDetails(INAPP, inventory, querySkuDetails, moreItemSkus);
+                if (subscriptionsSupported()) {
+                    queryPurchasesAndDetails(SUBS, inventory, querySkuDetails, moreSubsSkus);
+                }
             }
+            notifyInventoryChanged(inventory, querySkuDetails);
+            saveToCache(inventory);
             return inventory;
         } catch (RemoteException e) {
             throw new IabException(IABHELPER_REMOTE_EXCEPTION, "Remote exception while refreshing inventory.", e);
@@ -361,6 +589,10 @@ public class IabHelper {
      * query as described in {@link #queryInventory}, but will do so asynchronously
      * and call back the specified listener upon completion. This method is safe to
      * call from a UI thread.
+     * <p/>
+     * If an inventory query is already in progress and it includes everything this query asks for
+     * (the same or fewer skus), no new query is started. Instead the listener is notified with the
+     * result of the query in progress, so all listeners receive the same {@link Inventory} instance.
      *
      * @param querySkuDetails as in {@link #queryInventory}
      * @param moreSkus        as in {@link #queryInventory}
@@ -378,7 +610,80 @@ public class IabHelper {
         }
 
         checkSetupDone("queryInventory");
-        new QueryInventoryTask(this, listener).execute(new QueryInventoryTask.Args(querySkuDetails, moreSkus, moreSubSkus));
+        final QueryInventoryTask.Args args = new QueryInventoryTask.Args(querySkuDetails, moreSkus, moreSubSkus);
+        synchronized (this) {
+            if (mInventoryQuery != null && mInventoryQueryArgs.covers(args) && mInventoryQuery.addListener(listener)) {
+                logDebug("Inventory query already in progress, waiting for its result.");
+                return;
+            }
+            final OperationQueue.Operation operation = new OperationQueue.Operation("refresh inventory", QUERY);
+            final QueryInventoryTask task = new QueryInventoryTask(this, operation, listener);
+            mInventoryQuery = task;
+            mInventoryQueryArgs = args;
+            startOperation(operation, new Runnable() {
+                @Override
+                public void run() {
+                    task.execute(getBackgroundExecutor(), getCallbackExecutor(), args);
+                }
+            });
+        }
+    }
+
+    /**
+     * Queries owned items and subscriptions, without SKU details, and delivers each page of purchases
+     * to <code>listener</code> as soon as it has been received and verified. This method may block or
+     * take long to execute, the listener is called on the calling thread. Do not call from a UI thread.
+     * For that, use the non-blocking version {@link #queryPurchasesAsync}.
+     * <p/>
+     * Pages delivered before an error are not retracted: if the query fails, the listener may already
+     * have received some of the purchases.
+     *
+     * @param listener The listener to notify about each page of purchases.
+     * @return the inventory with all owned purchases.
+     * @throws IabException if a problem occurs while querying the purchases.
+     */
+    public Inventory queryPurchases(OnPurchasesPageListener listener) throws IabException {
+        if (listener == null) throw new IllegalArgumentException("need non-null listener");
+        checkNotDisposed();
+        checkSetupDone("queryPurchases");
+        try {
+            final Inventory inventory = new Inventory();
+            queryOwnedItems(INAPP, inventory, listener);
+            if (subscriptionsSupported()) {
+                queryOwnedItems(SUBS, inventory, listener);
+            }
+            return inventory;
+        } catch (RemoteException e) {
+            throw new IabException(IABHELPER_REMOTE_EXCEPTION, "Remote exception while querying purchases.", e);
+        } catch (JSONException e) {
+            throw new IabException(IABHELPER_BAD_RESPONSE, "Error parsing JSON response while querying purchases.", e);
+        }
+    }
+
+    /**
+     * Asynchronous wrapper for {@link #queryPurchases(OnPurchasesPageListener)}. Each page of purchases
+     * is delivered to the listener as it arrives, so entitlements can be unlocked before the whole
+     * purchase history has been loaded. Afterwards the listener is notified with the result and the
+     * complete inventory. This method is safe to call from a UI thread.
+     *
+     * @param listener The listener to notify about each page and when the query completes.
+     */
+    public void queryPurchasesAsync(final QueryPurchasesListener listener) {
+        if (listener == null) throw new IllegalArgumentException("need non-null listener");
+        if (isDisposed()) {
+            listener.onQueryPurchasesFinished(new IabResult(Response.IABHELPER_DISPOSED), null);
+            return;
+        }
+
+        checkSetupDone("queryPurchases");
+        final OperationQueue.Operation operation = new OperationQueue.Operation("query purchases", QUERY);
+        final QueryPurchasesTask task = new QueryPurchasesTask(this, operation, listener);
+        startOperation(operation, new Runnable() {
+            @Override
+            public void run() {
+                task.execute(getBackgroundExecutor(), getCallbackExecutor());
+            }
+        });
     }
 
     /**
@@ -416,8 +721,25 @@ public class IabHelper {
                         + sku + " " + purchase);
             }
 
+            final ConsumeJournal journal = mConsumeJournal;
+            if (journal != null) {
+                try {
+                    journal.begin(purchase);
+                } catch (IOException e) {
+                    logWarn("Could not record consume of sku " + sku + ": " + e);
+                }
+            }
+
             logDebug("Consuming sku: " + sku + ", token: " + token);
             int response = mService.consumePurchase(API_VERSION, mContext.getPackageName(), token);
+            if (journal != null && !isTransientError(response)) {
+                // a definitive answer (not owned means an earlier attempt went through), nothing to retry
+                try {
+                    journal.complete(purchase);
+                } catch (IOException e) {
+                    logWarn("Could not record completed consume of sku " + sku + ": " + e);
+                }
+            }
             if (response == OK.code) {
                 logDebug("Successfully consumed sku: " + sku);
             } else {
@@ -433,6 +755,8 @@ public class IabHelper {
      * Asynchronous wrapper to item consumption. Works like {@link #consume}, but
      * performs the consumption in the background and notifies completion through
      * the provided listener. This method is safe to call from a UI thread.
+     * <p/>
+     * If the purchase is already being consumed, the consumption starts once the other one has finished.
      *
      * @param purchase The purchase to be consumed.
      * @param listener The listener to notify when the consumption operation finishes.
@@ -443,7 +767,7 @@ public class IabHelper {
             return;
         }
         checkSetupDone("consume");
-        consumeAsyncInternal(Arrays.asList(purchase), listener, null);
+        consumeAsyncInternal(Arrays.asList(purchase), listener, null, null);
     }
 
     /**
@@ -453,6 +777,20 @@ public class IabHelper {
      * @param listener  The listener to notify when the consumption operation finishes.
      */
     public void consumeAsync(List<Purchase> purchases, OnConsumeMultiFinishedListener listener) {
+        consumeAsync(purchases, listener, null);
+    }
+
+    /**
+     * Same as {@link #consumeAsync(List, OnConsumeMultiFinishedListener)}, but also reports the result
+     * of each item as soon as it has been consumed.
+     *
+     * @param purchases        The list of PurchaseInfo objects representing the purchases to consume.
+     * @param listener         The listener to notify when the consumption operation finishes.
+     * @param progressListener The listener to notify after each item, can be null.
+     */
+    public void consumeAsync(List<Purchase> purchases,
+                             OnConsumeMultiFinishedListener listener,
+                             OnConsumeProgressListener progressListener) {
         if (isDisposed()) {
             if (listener != null) {
                 listener.onConsumeMultiFinished(new ArrayList<Purchase>(), new ArrayList<IabResult>());
@@ -460,7 +798,7 @@ public class IabHelper {
             return;
         }
         checkSetupDone("consume");
-        consumeAsyncInternal(purchases, null, listener);
+        consumeAsyncInternal(purchases, null, listener, progressListener);
     }
 
     /**
@@ -484,6 +822,309 @@ public class IabHelper {
         mDebugLog = enable;
     }
 
+    /**
+     * Enables or disables parallel inventory queries. If enabled, {@link #queryInventory} queries
+     * in-app items and subscriptions concurrently (using a small, bounded pool of worker threads)
+     * and merges the results into one {@link Inventory}. Errors are reported exactly as with
+     * sequential queries: if both queries fail, the in-app error takes precedence.
+     */
+    public void enableParallelQueries(boolean enable) {
+        checkNotDisposedAndThrow();
+        mParallelQueries = enable;
+    }
+
+    /**
+     * Enables or disables parallel consumption. If enabled, {@link #consumeAsync(List, OnConsumeMultiFinishedListener)}
+     * consumes several purchases concurrently, limited by {@link #setMaxParallelRequests}. The results
+     * are still reported in the order of the purchases.
+     */
+    public void enableParallelConsumes(boolean enable) {
+        checkNotDisposedAndThrow();
+        mParallelConsumes = enable;
+    }
+
+    /**
+     * Enables or disables parallel verification of purchases. If enabled, the signatures of the
+     * purchases returned by a query are verified and parsed concurrently, using one thread per
+     * available core. Purchases are added to the {@link Inventory} in the same order as
+     * without parallel verification, and failures are reported the same way.
+     * <p/>
+     * The {@link SignatureValidator} has to be thread-safe, as {@link DefaultSignatureValidator} is.
+     */
+    public void enableParallelVerification(boolean enable) {
+        checkNotDisposedAndThrow();
+        mParallelVerification = enable;
+    }
+
+    /**
+     * Enables or disables asynchronous verification of purchases. If enabled, {@link #handleActivityResult}
+     * returns right away and the purchase data is parsed and its signature verified on a background
+     * thread (see {@link #setExecutors}). The purchase listener is then notified on the callback
+     * executor, by default the main thread. Results which are not successful purchases are still
+     * reported immediately.
+     */
+    public void enableAsyncPurchaseVerification(boolean enable) {
+        checkNotDisposedAndThrow();
+        mAsyncPurchaseVerification = enable;
+    }
+
+    /**
+     * Enables or disables persisting the state of the purchase flow. If enabled, the request code,
+     * item type, sku and payload of a launched purchase flow are saved in the app's shared preferences.
+     * When Android kills the process while the Google Play purchase screen is shown, a new helper
+     * can then still {@link #handleActivityResult(int, int, Intent, OnIabPurchaseFinishedListener) handle}
+     * the result, without querying the inventory to find out what happened. The same applies
+     * if the helper has been disposed of, for instance because the activity was recreated.
+     * <p/>
+     * Enable this right after creating the helper, before setup.
+     */
+    public void enablePurchaseFlowPersistence(boolean enable) {
+        checkNotDisposedAndThrow();
+        mPersistPurchaseFlow = enable;
+    }
+
+    /**
+     * Enables or disables lazy parsing of queried purchases. If enabled, purchases returned by
+     * inventory queries are created with {@link Purchase#lazy}, which only decodes the fields that
+     * are actually accessed. Results of purchase flows are always parsed in full.
+     */
+    public void enableLazyPurchaseParsing(boolean enable) {
+        checkNotDisposedAndThrow();
+        mLazyPurchases = enable;
+    }
+
+    /**
+     * Sets how purchases and SKU details returned by the billing service are parsed. Defaults to
+     * {@link JsonParsing#JSON_OBJECT}. {@link JsonParsing#STREAMING} reads only the known fields and
+     * allocates considerably less for large responses. Purchases parsed lazily
+     * (see {@link #enableLazyPurchaseParsing}) are not affected.
+     *
+     * @param parsing the parser to use, cannot be null.
+     */
+    public void setJsonParsing(JsonParsing parsing) {
+        if (parsing == null) throw new IllegalArgumentException("parsing cannot be null");
+        checkNotDisposedAndThrow();
+        mJsonParsing = parsing;
+    }
+
+    /* package */ boolean isParallelConsumeEnabled() {
+        return mParallelConsumes;
+    }
+
+    /**
+     * Sets a cache for SKU details. With a cache, {@link #queryInventory} only asks the service for
+     * details which are not cached yet. Stale details are returned immediately and refreshed in the
+     * background, so the next query will see the updated values.
+     *
+     * @param cache the cache to use, or null to disable caching.
+     */
+    public void setSkuDetailsCache(SkuDetailsCache cache) {
+        checkNotDisposedAndThrow();
+        mSkuDetailsCache = cache;
+    }
+
+    /**
+     * @return the SKU details cache, or null if none has been set.
+     */
+    public SkuDetailsCache getSkuDetailsCache() {
+        return mSkuDetailsCache;
+    }
+
+    /**
+     * Sets a cache for the inventory. With a cache, the result of each successful {@link #queryInventory}
+     * is saved on the background executor, and {@link #getCachedInventory()} returns the last saved
+     * inventory, even before setup has finished. An inventory queried without SKU details is saved
+     * without them.
+     *
+     * @param cache the cache to use, or null to disable caching.
+     */
+    public void setInventoryCache(InventoryCache cache) {
+        checkNotDisposedAndThrow();
+        mInventoryCache = cache;
+    }
+
+    /**
+     * Sets a journal for consumes. Each consume is recorded in the journal before the request is
+     * sent, and removed once the service answered it. Consumes which are still pending when the
+     * app is killed, or failed with a remote exception or a transient error, are retried
+     * automatically in the background after the next successful {@link #startSetup setup}.
+     *
+     * @param journal          the journal to use, or null to disable journaling.
+     * @param recoveryListener notified with the results of the retried consumes, may be null.
+     */
+    public void setConsumeJournal(ConsumeJournal journal, OnConsumeMultiFinishedListener recoveryListener) {
+        checkNotDisposedAndThrow();
+        mConsumeJournal = journal;
+        mConsumeRecoveryListener = recoveryListener;
+    }
+
+    /**
+     * Sets the metrics which receive every call to the billing service, with its duration and
+     * response code. Set them before {@link #startSetup} to include the setup calls.
+     *
+     * @param metrics the metrics to report to, or null to disable reporting.
+     * @see InMemoryBillingMetrics
+     */
+    public void setBillingMetrics(BillingMetrics metrics) {
+        checkNotDisposedAndThrow();
+        mBillingMetrics = metrics;
+    }
+
+    /**
+     * Sets a timer which is told how long each stage (service call, parsing, verification, merging)
+     * of the following operations took. Set it before {@link #startSetup}.
+     *
+     * @param timer the timer, or null to stop timing
+     */
+    /* package */ void setStageTimer(StageTimer timer) {
+        mStageTimer = timer;
+    }
+
+    /**
+     * Loads the inventory saved by the {@link #setInventoryCache inventory cache}, verifying the
+     * signatures of the saved purchases. Use it to serve entitlements right after startup, until
+     * the live inventory has been queried. The {@link #setInventoryChangedListener inventory listener}
+     * then only reports the changes from the cached inventory.
+     * <p/>
+     * This method reads a file and verifies signatures, do not call it from a UI thread. For that,
+     * use {@link #getCachedInventoryAsync}.
+     *
+     * @return the cached inventory, or null if there is no cache or nothing has been saved yet.
+     */
+    public Inventory getCachedInventory() {
+        checkNotDisposedAndThrow();
+        return loadCachedInventory();
+    }
+
+    /**
+     * Asynchronous version of {@link #getCachedInventory()}, which loads the cached inventory on the
+     * background executor and notifies the listener on the callback executor (see {@link #setExecutors}).
+     * This method is safe to call from a UI thread.
+     *
+     * @param listener notified with the cached inventory, which is null if there is no cache or nothing
+     *                 has been saved yet.
+     */
+    public void getCachedInventoryAsync(final QueryInventoryFinishedListener listener) {
+        if (listener == null) throw new IllegalArgumentException("listener cannot be null");
+        checkNotDisposedAndThrow();
+        getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Inventory inventory = isDisposed() ? null : loadCachedInventory();
+                getCallbackExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isDisposed()) {
+                            listener.onQueryInventoryFinished(new IabResult(IABHELPER_DISPOSED), null);
+                        } else {
+                            listener.onQueryInventoryFinished(new IabResult(OK), inventory);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private Inventory loadCachedInventory() {
+        final InventoryCache cache = mInventoryCache;
+        if (cache == null) return null;
+        final Inventory inventory = cache.load(mSignatureValidator);
+        if (inventory != null) {
+            logDebug("Loaded cached inventory: " + inventory);
+            synchronized (this) {
+                mCachedInventory = inventory.snapshot();
+            }
+        }
+        return inventory;
+    }
+
+    /**
+     * Sets a listener which is notified after each successful {@link #queryInventory} (or
+     * {@link #queryInventoryAsync}) which found changes compared to the previous query: new,
+     * removed or changed purchases, and price changes. The first query after setting a listener
+     * reports all purchases as added. The listener is notified on the callback executor
+     * (see {@link #setExecutors}), by default the main thread.
+     *
+     * @param listener the listener, or null to stop tracking changes.
+     */
+    public void setInventoryChangedListener(InventoryChangedListener listener) {
+        checkNotDisposedAndThrow();
+        synchronized (this) {
+            mInventoryChangedListener = listener;
+            mLastInventory = null;
+        }
+    }
+
+    /**
+     * Sets the maximum number of service requests a single query may run concurrently, including the
+     * calling thread. This applies to parallel inventory queries (see {@link #enableParallelQueries}),
+     * parallel consumption (see {@link #enableParallelConsumes}) and to SKU detail requests, which are
+     * split into chunks of at most 20 skus (the service limit).
+     * Use 1 to send all requests sequentially. Defaults to {@value #DEFAULT_MAX_PARALLEL_REQUESTS}.
+     *
+     * @param maxParallelRequests the maximum number of concurrent requests, at least 1.
+     */
+    public void setMaxParallelRequests(int maxParallelRequests) {
+        if (maxParallelRequests < 1) throw new IllegalArgumentException("need at least one request");
+        checkNotDisposedAndThrow();
+        synchronized (this) {
+            if (maxParallelRequests != mMaxParallelRequests) {
+                shutdownQueryExecutor();
+                mMaxParallelRequests = maxParallelRequests;
+            }
+        }
+    }
+
+    /**
+     * Sets the executors used by the asynchronous methods, such as {@link #queryInventoryAsync} and
+     * {@link #consumeAsync}. By default the work is done on a small pool of {@value #DEFAULT_BACKGROUND_THREADS}
+     * threads owned by this object, and listeners are notified on the main thread.
+     * <p/>
+     * Operations already in progress are not affected.
+     *
+     * @param backgroundExecutor the executor to run service requests on, or null for the default.
+     * @param callbackExecutor   the executor to notify listeners on, or null for the main thread.
+     */
+    public void setExecutors(Executor backgroundExecutor, Executor callbackExecutor) {
+        checkNotDisposedAndThrow();
+        synchronized (this) {
+            mBackgroundExecutor = backgroundExecutor;
+            mCallbackExecutor = callbackExecutor;
+            if (backgroundExecutor != null) {
+                shutdownDefaultBackgroundExecutor();
+            }
+        }
+    }
+
+    /**
+     * @return the number of asynchronous operations waiting for a conflicting operation to finish.
+     */
+    public int getOperationQueueDepth() {
+        return mOperations.getQueueDepth();
+    }
+
+    /**
+     * @return the number of asynchronous operations in progress, including purchase flows waiting
+     * for {@link #handleActivityResult}.
+     */
+    public int getRunningOperationCount() {
+        return mOperations.getRunningCount();
+    }
+
+    /**
+     * @return the average time asynchronous operations had to wait before starting, in milliseconds.
+     */
+    public long getAverageOperationWaitMillis() {
+        return mOperations.getAverageWaitMillis();
+    }
+
+    /**
+     * @return the longest time an asynchronous operation had to wait before starting, in milliseconds.
+     */
+    public long getMaxOperationWaitMillis() {
+        return mOperations.getMaxWaitMillis();
+    }
+
     // Checks that setup was done; if not, throws an exception.
     /* package */ void checkSetupDone(String operation) {
         if (!mSetupDone) {
@@ -507,18 +1148,36 @@ public class IabHelper {
         }
     }
 
-    /* package */ void flagStartAsync(String operation) {
-        if (mAsyncInProgress) throw new IllegalStateException("Can't start async operation (" +
-                operation + ") because another async operation(" + mAsyncOperation + ") is in progress.");
-        mAsyncOperation = operation;
-        mAsyncInProgress = true;
-        logDebug("Starting async operation: " + operation);
+    /* package */ void startOperation(OperationQueue.Operation operation, Runnable start) {
+        startOperation(operation, start, null);
+    }
+
+    // abort is run instead of start if the helper is disposed while the operation is waiting
+    /* package */ void startOperation(OperationQueue.Operation operation,
+                                      final Runnable start,
+                                      final Runnable abort) {
+        final Runnable checkedStart = new Runnable() {
+            @Override
+            public void run() {
+                // start is posted to the callback executor, the helper might have been disposed in between
+                if (!isDisposed()) {
+                    start.run();
+                } else if (abort != null) {
+                    abort.run();
+                }
+            }
+        };
+        if (mOperations.enqueue(operation, checkedStart, abort, getCallbackExecutor())) {
+            logDebug("Started async operation: " + operation);
+        } else {
+            logDebug("Queued async operation: " + operation + ", waiting: " + mOperations.getQueueDepth());
+        }
     }
 
-    /* package */ void flagEndAsync() {
-        logDebug("Ending async operation: " + mAsyncOperation);
-        mAsyncOperation = "";
-        mAsyncInProgress = false;
+    /* package */ void finishOperation(OperationQueue.Operation operation) {
+        if (operation == null) return;
+        logDebug("Ending async operation: " + operation);
+        mOperations.finish(operation);
     }
 
     /* package */  boolean isDisposed() {
@@ -537,9 +1196,10 @@ public class IabHelper {
         }
     }
 
-    private void handlePurchaseResult(String purchaseData,
-                                      String dataSignature,
-                                      PurchaseFlowState purchaseState) {
+    /* package */ void handlePurchaseResult(String purchaseData,
+                                            String dataSignature,
+                                            ItemType itemType,
+                                            OnIabPurchaseFinishedListener purchaseState) {
         if (purchaseData == null || dataSignature == null) {
             logError("BUG: either purchaseData or dataSignature is null." +
                     " data="+purchaseData+", signature="+dataSignature);
@@ -548,8 +1208,13 @@ public class IabHelper {
             return;
         }
         try {
-            Purchase purchase = new Purchase(purchaseState.itemType, purchaseData, dataSignature);
-            if (!mSignatureValidator.validate(purchaseData, dataSignature)) {
+            long start = startStage();
+            Purchase purchase = Purchase.parse(itemType, purchaseData, dataSignature, mJsonParsing);
+            endStage(PARSE, start);
+            start = startStage();
+            final boolean valid = mSignatureValidator.validate(purchaseData, dataSignature);
+            endStage(VERIFY, start);
+            if (!valid) {
                 logError("Purchase signature verification FAILED for " + purchase);
                 purchaseState.onIabPurchaseFinished(
                         new IabResult(IABHELPER_VERIFICATION_FAILED, "Signature verification failed for purchase " + purchase),
@@ -565,25 +1230,218 @@ public class IabHelper {
         }
     }
 
+    private void saveToCache(Inventory inventory) {
+        final InventoryCache cache = mInventoryCache;
+        if (cache == null || isDisposed()) return;
+        // copy now, the caller may modify the inventory while it is written
+        final Inventory copy = inventory.snapshot().toInventory();
+        final long save = mInventorySaves.incrementAndGet();
+        getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (cache) {
+                    if (save != mInventorySaves.get()) return; // superseded by a later query
+                    try {
+                        cache.save(copy);
+                    } catch (IOException e) {
+                        logWarn("Could not save inventory to " + cache + ": " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    private void notifyInventoryChanged(final Inventory inventory, boolean querySkuDetails) {
+        final InventoryChangedListener listener;
+        final InventoryDiff diff;
+        synchronized (this) {
+            listener = mInventoryChangedListener;
+            if (listener == null) return;
+            final long start = startStage();
+            final InventorySnapshot previous = mLastInventory != null ? mLastInventory : mCachedInventory;
+            // keep a snapshot, the caller may modify the inventory before the next query
+            InventorySnapshot snapshot = inventory.snapshot();
+            diff = InventoryDiff.between(previous, snapshot);
+            if (!querySkuDetails && previous != null) {
+                // keep the previous details, so the next query with details still reports price changes
+                for (SkuDetails details : previous.getSkuDetails()) {
+                    if (!snapshot.hasDetails(details.getSku())) snapshot = snapshot.withSkuDetails(details);
+                }
+            }
+            mLastInventory = snapshot;
+            endStage(MERGE, start);
+        }
+        if (diff.isEmpty()) return;
+
+        logDebug("Inventory changed: " + diff);
+        getCallbackExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (isDisposed()) return;
+                listener.onInventoryChanged(diff, inventory);
+            }
+        });
+    }
+
+    private Inventory queryInventoryParallel(final boolean querySkuDetails,
+                                             final List<String> moreItemSkus,
+                                             final List<String> moreSubsSkus)
+            throws JSONException, RemoteException, IabException {
+        List<Callable<Inventory>> queries = new ArrayList<Callable<Inventory>>(2);
+        queries.add(new Callable<Inventory>() {
+            @Override
+            public Inventory call() throws Exception {
+                Inventory inventory = new Inventory();
+                queryPurchasesAndDetails(INAPP, inventory, querySkuDetails, moreItemSkus);
+                return inventory;
+            }
+        });
+        queries.add(new Callable<Inventory>() {
+            @Override
+            public Inventory call() throws Exception {
+                Inventory inventory = new Inventory();
+                queryPurchasesAndDetails(SUBS, inventory, querySkuDetails, moreSubsSkus);
+                return inventory;
+            }
+        });
+        final Inventory inventory = new Inventory();
+        // results are checked in order, so an in-app error wins, as in the sequential case
+        for (Future<Inventory> result : invokeAll(queries)) {
+            Inventory partial = getResult(result);
+            final long start = startStage();
+            for (Purchase purchase : partial.getAllPurchases()) {
+                inventory.addPurchase(purchase);
+            }
+            for (SkuDetails details : partial.getSkuDetails()) {
+                inventory.addSkuDetails(details);
+            }
+            endStage(MERGE, start);
+        }
+        return inventory;
+    }
+
+    /* package */ <T> List<Future<T>> invokeAll(List<? extends Callable<T>> tasks) throws IabException {
+        try {
+            return ParallelTasks.invokeAll(tasks.size() > 1 ? getQueryExecutor() : CALLING_THREAD, tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IabException(IABHELPER_UNKNOWN_ERROR, "Interrupted while waiting for service requests", e);
+        }
+    }
+
+    // unwraps the result of a completed request, rethrowing its original exception
+    /* package */ static <T> T getResult(Future<T> future) throws JSONException, RemoteException, IabException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException("future not completed", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IabException) throw (IabException) cause;
+            else if (cause instanceof RemoteException) throw (RemoteException) cause;
+            else if (cause instanceof JSONException) throw (JSONException) cause;
+            else if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            else if (cause instanceof Error) throw (Error) cause;
+            else throw new IabException(IABHELPER_UNKNOWN_ERROR, "Unexpected exception", e);
+        }
+    }
+
+    private synchronized Executor getQueryExecutor() throws IabException {
+        checkNotDisposed();
+        if (mMaxParallelRequests == 1) {
+            return CALLING_THREAD;
+        } else if (mQueryExecutor == null) {
+            // the calling thread takes part in the work, so one thread less is needed
+            mQueryExecutor = ParallelTasks.newBoundedExecutor("IabHelper query", mMaxParallelRequests - 1);
+        }
+        return mQueryExecutor;
+    }
+
+    private synchronized Executor getVerificationExecutor() throws IabException {
+        checkNotDisposed();
+        if (mVerificationExecutor == null) {
+            // the calling thread takes part in the work, so one thread less than there are cores
+            mVerificationExecutor = ParallelTasks.newBoundedExecutor("IabHelper verify",
+                    Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        }
+        return mVerificationExecutor;
+    }
+
+    private synchronized void shutdownVerificationExecutor() {
+        if (mVerificationExecutor != null) {
+            mVerificationExecutor.shutdown();
+            mVerificationExecutor = null;
+        }
+    }
+
+    private synchronized void shutdownQueryExecutor() {
+        if (mQueryExecutor != null) {
+            mQueryExecutor.shutdown();
+            mQueryExecutor = null;
+        }
+    }
+
+    private synchronized Executor getBackgroundExecutor() throws IllegalStateException {
+        // don't recreate the default executor once dispose() has shut it down
+        checkNotDisposedAndThrow();
+        if (mBackgroundExecutor != null) {
+            return mBackgroundExecutor;
+        } else if (mDefaultBackgroundExecutor == null) {
+            mDefaultBackgroundExecutor = ParallelTasks.newBoundedExecutor("IabHelper", DEFAULT_BACKGROUND_THREADS);
+        }
+        return mDefaultBackgroundExecutor;
+    }
+
+    private synchronized Executor getCallbackExecutor() {
+        if (mCallbackExecutor == null) {
+            mCallbackExecutor = new Executor() {
+                private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+                @Override
+                public void execute(Runnable command) {
+                    if (!mHandler.post(command)) {
+                        throw new RejectedExecutionException("main looper has quit");
+                    }
+                }
+            };
+        }
+        return mCallbackExecutor;
+    }
+
+    private synchronized void shutdownDefaultBackgroundExecutor() {
+        if (mDefaultBackgroundExecutor != null) {
+            mDefaultBackgroundExecutor.shutdown();
+            mDefaultBackgroundExecutor = null;
+        }
+    }
+
     private void queryPurchasesAndDetails(ItemType itemType,
                                           Inventory inventory,
                                           boolean queryDetails,
                                           List<String> extraSkus) throws JSONException, RemoteException, IabException {
         checkNotDisposed();
 
-        int result = queryPurchases(inventory, itemType);
-        if (result != OK.code) {
-            throw new IabException(result, "Error querying purchases for "+itemType);
-        }
+        queryOwnedItems(itemType, inventory, null);
         if (queryDetails) {
-            result = querySkuDetails(itemType, inventory, extraSkus);
+            int result = querySkuDetails(itemType, inventory, extraSkus);
             if (result != OK.code) {
                 throw new IabException(result, "Error querying purchase details for "+itemType);
             }
         }
     }
 
-    private int queryPurchases(Inventory inv, ItemType itemType) throws JSONException, RemoteException, IabException {
+    private void queryOwnedItems(ItemType itemType,
+                                 Inventory inventory,
+                                 OnPurchasesPageListener pageListener) throws JSONException, RemoteException, IabException {
+        int result = queryPurchases(inventory, itemType, pageListener);
+        if (result != OK.code) {
+            throw new IabException(result, "Error querying purchases for "+itemType);
+        }
+    }
+
+    private int queryPurchases(Inventory inv,
+                               ItemType itemType,
+                               OnPurchasesPageListener pageListener) throws JSONException, RemoteException, IabException {
         checkNotDisposed();
 
         logDebug("Querying owned items, item type: " + itemType);
@@ -616,25 +1474,33 @@ public class IabHelper {
                 return ERROR.code;
             }
 
-            for (int i = 0; i < purchaseDataList.size(); i++) {
-                String purchaseData = purchaseDataList.get(i);
-                String signature = signatureList.get(i);
-                if (mSignatureValidator.validate(purchaseData, signature)) {
-                    Purchase purchase = new Purchase(itemType, purchaseData, signature);
+            final List<Purchase> verified = mParallelVerification && purchaseDataList.size() > 1 ?
+                    verifyInParallel(itemType, purchaseDataList, signatureList) :
+                    verify(itemType, purchaseDataList, signatureList, 0, purchaseDataList.size());
 
+            final long start = startStage();
+            final List<Purchase> page = new ArrayList<Purchase>(purchaseDataList.size());
+            for (int i = 0; i < purchaseDataList.size(); i++) {
+                Purchase purchase = verified.get(i);
+                if (purchase != null) {
                     if (TextUtils.isEmpty(purchase.getToken())) {
                         logWarn("BUG: empty/null token!");
-                        logDebug("Purchase data: " + purchaseData);
+                        logDebug("Purchase data: " + purchaseDataList.get(i));
                     }
 
                     inv.addPurchase(purchase);
+                    page.add(purchase);
                 } else {
                     logWarn("Purchase signature verification **FAILED**. Not adding item.");
-                    logDebug("   Purchase data: " + purchaseData);
-                    logDebug("   Signature: " + signature);
+                    logDebug("   Purchase data: " + purchaseDataList.get(i));
+                    logDebug("   Signature: " + signatureList.get(i));
                     verificationFailed = true;
                 }
             }
+            endStage(MERGE, start);
+            if (pageListener != null) {
+                pageListener.onPurchasesPage(itemType, Collections.unmodifiableList(page));
+            }
             continueToken = ownedItems.getString(INAPP_CONTINUATION_TOKEN);
             logDebug("Continuation token: " + continueToken);
         } while (!TextUtils.isEmpty(continueToken));
@@ -642,8 +1508,68 @@ public class IabHelper {
         return verificationFailed ? IABHELPER_VERIFICATION_FAILED.code : OK.code;
     }
 
+    /**
+     * Verifies and parses a range of purchases.
+     *
+     * @return the purchases, with null for each purchase which failed verification
+     */
+    private List<Purchase> verify(ItemType itemType,
+                                  List<String> purchaseDataList,
+                                  List<String> signatureList,
+                                  int from, int to) throws JSONException {
+        final List<Purchase> purchases = new ArrayList<Purchase>(to - from);
+        for (int i = from; i < to; i++) {
+            String purchaseData = purchaseDataList.get(i);
+            String signature = signatureList.get(i);
+            long start = startStage();
+            final boolean valid = mSignatureValidator.validate(purchaseData, signature);
+            endStage(VERIFY, start);
+            if (valid) {
+                start = startStage();
+                purchases.add(mLazyPurchases ?
+                        Purchase.lazy(itemType, purchaseData, signature) :
+                        Purchase.parse(itemType, purchaseData, signature, mJsonParsing));
+                endStage(PARSE, start);
+            } else {
+                purchases.add(null);
+            }
+        }
+        return purchases;
+    }
+
+    // splits the page into one contiguous range per core, the results keep the order of the page
+    private List<Purchase> verifyInParallel(final ItemType itemType,
+                                            final List<String> purchaseDataList,
+                                            final List<String> signatureList)
+            throws JSONException, RemoteException, IabException {
+        final int size = purchaseDataList.size();
+        final int chunks = Math.min(size, Runtime.getRuntime().availableProcessors());
+        final List<Callable<List<Purchase>>> verifications = new ArrayList<Callable<List<Purchase>>>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            final int from = i * size / chunks;
+            final int to = (i + 1) * size / chunks;
+            verifications.add(new Callable<List<Purchase>>() {
+                @Override
+                public List<Purchase> call() throws Exception {
+                    return verify(itemType, purchaseDataList, signatureList, from, to);
+                }
+            });
+        }
+        final List<Purchase> purchases = new ArrayList<Purchase>(size);
+        try {
+            for (Future<List<Purchase>> result : ParallelTasks.invokeAll(
+                    chunks > 1 ? getVerificationExecutor() : CALLING_THREAD, verifications)) {
+                purchases.addAll(getResult(result));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IabException(IABHELPER_UNKNOWN_ERROR, "Interrupted while verifying purchases", e);
+        }
+        return purchases;
+    }
+
     private int querySkuDetails(ItemType itemType, Inventory inv, List<String> moreSkus)
-            throws RemoteException, JSONException {
+            throws RemoteException, JSONException, IabException {
         logDebug("Querying SKU details.");
         ArrayList<String> skuList = new ArrayList<String>();
         skuList.addAll(inv.getAllOwnedSkus(itemType));
@@ -658,8 +1584,115 @@ public class IabHelper {
             logDebug("querySkuDetails: nothing to do because there are no SKUs.");
             return OK.code;
         }
+        final SkuDetailsCache cache = mSkuDetailsCache;
+        if (cache != null) {
+            skuList = addCachedSkuDetails(cache, itemType, inv, skuList);
+            if (skuList.isEmpty()) {
+                logDebug("querySkuDetails: all SKU details served from cache.");
+                return OK.code;
+            }
+        }
+
+        final List<SkuDetailsRequest> requests = new ArrayList<SkuDetailsRequest>();
+        for (int i = 0; i < skuList.size(); i += MAX_SKU_DETAILS_PER_REQUEST) {
+            requests.add(new SkuDetailsRequest(itemType, new ArrayList<String>(
+                    skuList.subList(i, Math.min(i + MAX_SKU_DETAILS_PER_REQUEST, skuList.size())))));
+        }
+        if (requests.size() > 1) {
+            logDebug("querySkuDetails: sending " + skuList.size() + " skus in " + requests.size() + " requests.");
+        }
+        // merge in request order, stop at the first error
+        for (Future<Integer> result : invokeAll(requests)) {
+            int response = getResult(result);
+            if (response != OK.code) return response;
+        }
+        final long start = startStage();
+        for (SkuDetailsRequest request : requests) {
+            for (SkuDetails details : request.details) {
+                inv.addSkuDetails(details);
+                if (cache != null) cache.put(details);
+            }
+        }
+        endStage(MERGE, start);
+        return OK.code;
+    }
+
+    // adds all cached details to the inventory and returns the skus which still need to be queried
+    private ArrayList<String> addCachedSkuDetails(SkuDetailsCache cache, ItemType itemType, Inventory inv, List<String> skus) {
+        final ArrayList<String> missing = new ArrayList<String>();
+        final ArrayList<String> stale = new ArrayList<String>();
+        for (String sku : skus) {
+            SkuDetailsCache.CacheEntry entry = cache.lookup(sku);
+            if (entry == null) {
+                missing.add(sku);
+            } else {
+                inv.addSkuDetails(entry.details);
+                if (cache.isStale(entry) && cache.startRefresh(sku)) {
+                    stale.add(sku);
+                }
+            }
+        }
+        if (!stale.isEmpty() && !refreshSkuDetails(cache, itemType, stale)) {
+            logDebug("querySkuDetails: cannot refresh in background, querying stale SKUs now.");
+            missing.addAll(stale);
+        }
+        return missing;
+    }
+
+    // refreshes stale cache entries in the background, returns false if no thread is available
+    private boolean refreshSkuDetails(final SkuDetailsCache cache, final ItemType itemType, final List<String> skus) {
+        final Runnable refresh = new Runnable() {
+            @Override
+            public void run() {
+                logDebug("Refreshing " + skus.size() + " stale SKU details.");
+                try {
+                    for (int i = 0; i < skus.size() && !isDisposed(); i += MAX_SKU_DETAILS_PER_REQUEST) {
+                        final List<SkuDetails> details = new ArrayList<SkuDetails>();
+                        final int response = querySkuDetails(itemType, new ArrayList<String>(
+                                skus.subList(i, Math.min(i + MAX_SKU_DETAILS_PER_REQUEST, skus.size()))), details);
+                        if (response != OK.code) {
+                            logWarn("Refreshing SKU details failed: " + getDescription(response));
+                            break;
+                        }
+                        for (SkuDetails d : details) {
+                            cache.put(d);
+                        }
+                    }
+                } catch (RemoteException e) {
+                    logWarn("Remote exception while refreshing SKU details.");
+                } catch (JSONException e) {
+                    logWarn("Error parsing JSON response while refreshing SKU details.");
+                } catch (RuntimeException e) {
+                    // the service goes away when the helper is disposed while refreshing
+                    if (!isDisposed()) throw e;
+                    logDebug("Helper disposed while refreshing SKU details.");
+                } finally {
+                    endRefresh(cache, skus);
+                }
+            }
+        };
+        boolean started = false;
+        try {
+            getQueryExecutor().execute(refresh);
+            started = true;
+        } catch (RejectedExecutionException e) {
+            logDebug("No thread available to refresh SKU details.");
+        } catch (IabException e) {
+            logDebug("Cannot refresh SKU details: " + e.getMessage());
+        } finally {
+            if (!started) endRefresh(cache, skus);
+        }
+        return started;
+    }
+
+    private static void endRefresh(SkuDetailsCache cache, List<String> skus) {
+        for (String sku : skus) {
+            cache.endRefresh(sku);
+        }
+    }
 
-        // TODO: check for 20 SKU limit + add batching ?
+    private int querySkuDetails(ItemType itemType, ArrayList<String> skuList, List<SkuDetails> details)
+            throws RemoteException, JSONException {
         Bundle querySkus = new Bundle();
         querySkus.putStringArrayList(GET_SKU_DETAILS_ITEM_LIST, skuList);
         Bundle skuDetails = mService.getSkuDetails(API_VERSION, mContext.getPackageName(), itemType.toString(), querySkus);
@@ -676,16 +1709,68 @@ public class IabHelper {
             }
         }
         ArrayList<String> responseList = skuDetails.getStringArrayList(RESPONSE_GET_SKU_DETAILS_LIST);
+        final long start = startStage();
         for (String json : responseList) {
-            inv.addSkuDetails(new SkuDetails(json));
+            details.add(SkuDetails.parse(json, mJsonParsing));
         }
+        endStage(PARSE, start);
         return OK.code;
     }
 
-    private ConsumeTask consumeAsyncInternal(final List<Purchase> purchases,
-                                             final OnConsumeFinishedListener singleListener,
-                                             final OnConsumeMultiFinishedListener multiListener) {
-        return (ConsumeTask) new ConsumeTask(this, singleListener, multiListener).execute(purchases.toArray(new Purchase[purchases.size()]));
+    private void consumeAsyncInternal(final List<Purchase> purchases,
+                                      final OnConsumeFinishedListener singleListener,
+                                      final OnConsumeMultiFinishedListener multiListener,
+                                      final OnConsumeProgressListener progressListener) {
+        final List<String> tokens = new ArrayList<String>(purchases.size());
+        for (Purchase purchase : purchases) {
+            tokens.add(purchase.getToken());
+        }
+        final OperationQueue.Operation operation = new OperationQueue.Operation("consume", CONSUME, tokens);
+        final ConsumeTask task = new ConsumeTask(this, operation, singleListener, multiListener, progressListener);
+        startOperation(operation, new Runnable() {
+            @Override
+            public void run() {
+                task.execute(getBackgroundExecutor(), getCallbackExecutor(),
+                        purchases.toArray(new Purchase[purchases.size()]));
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                task.abort(purchases);
+            }
+        });
+    }
+
+    // consumes which failed with these may succeed when retried
+    private static boolean isTransientError(int response) {
+        return response == ERROR.code || response == SERVICE_UNAVAILABLE;
+    }
+
+    private void recoverPendingConsumes() {
+        final ConsumeJournal journal = mConsumeJournal;
+        if (journal == null || isDisposed()) return;
+        // called on the main thread, read the journal in the background
+        getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Purchase> pending = journal.getPendingPurchases();
+                if (pending.isEmpty() || isDisposed()) return;
+                logDebug("Retrying " + pending.size() + " pending consume(s)");
+                consumeAsyncInternal(pending, null, mConsumeRecoveryListener, null);
+            }
+        });
+    }
+
+    // the start of a timed stage, 0 if no stage timer is set
+    private long startStage() {
+        return mStageTimer != null ? System.nanoTime() : 0;
+    }
+
+    private void endStage(StageTimer.Stage stage, long start) {
+        final StageTimer timer = mStageTimer;
+        if (timer != null && start != 0) {
+            timer.onStage(stage, System.nanoTime() - start);
+        }
     }
 
     private void logDebug(String msg) {
@@ -709,6 +1794,23 @@ public class IabHelper {
         return IInAppBillingService.Stub.asInterface(service);
     }
 
+    // a single getSkuDetails call, for at most MAX_SKU_DETAILS_PER_REQUEST skus
+    private class SkuDetailsRequest implements Callable<Integer> {
+        final ItemType itemType;
+        final ArrayList<String> skus;
+        final List<SkuDetails> details = new ArrayList<SkuDetails>();
+
+        SkuDetailsRequest(ItemType itemType, ArrayList<String> skus) {
+            this.itemType = itemType;
+            this.skus = skus;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            return querySkuDetails(itemType, skus, details);
+        }
+    }
+
     private class BillingServiceConnection implements ServiceConnection {
         private OnIabSetupFinishedListener listener;
 
@@ -727,7 +1829,7 @@ public class IabHelper {
         public void onServiceConnected(ComponentName name, IBinder service) {
             if (isDisposed()) return;
             logDebug("Billing service connected.");
-            mService = getInAppBillingService(service);
+            mService = new MeteredBillingService(getInAppBillingService(service), mServiceCalls);
 
             String packageName = mContext.getPackageName();
             IabResult result = new IabResult(OK);
@@ -753,6 +1855,9 @@ public class IabHelper {
                 Log.e(mDebugTag, "RemoteException while setting up in-app billing.", e);
             } finally {
                 mSetupDone = true;
+                if (result.isSuccess()) {
+                    recoverPendingConsumes();
+                }
                 if (listener != null) {
                     listener.onIabSetupFinished(result);
                 }
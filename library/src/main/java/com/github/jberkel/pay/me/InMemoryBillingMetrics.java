@@ -0,0 +1,234 @@
+package com.github.jberkel.pay.me;
+
+import com.github.jberkel.pay.me.model.ItemType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link BillingMetrics} which aggregates the service calls in memory: the number of calls, a latency
+ * histogram and the distribution of response codes, for each {@link ServiceCall} and {@link ItemType}.
+ * Use {@link #snapshot()} to export them, e.g. when the app goes to the background.
+ * <p/>
+ * Latencies are counted in fixed buckets, see {@link #getLatencyBucketsMillis()}.
+ */
+public class InMemoryBillingMetrics implements BillingMetrics {
+    // the upper bounds of the latency buckets, the last bucket counts all slower calls
+    private static final long[] LATENCY_BUCKETS_MILLIS = {
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000
+    };
+    private static final int ITEM_TYPES = ItemType.values().length;
+
+    private final AtomicReferenceArray<Counter> mCounters =
+            new AtomicReferenceArray<Counter>(ServiceCall.values().length * ITEM_TYPES);
+
+    @Override
+    public void onServiceCall(ServiceCall call, ItemType itemType, int response, long durationNanos) {
+        getCounter(call, itemType).record(response, durationNanos);
+    }
+
+    /**
+     * @return the statistics of the given call and item type, with a count of 0 if there were none.
+     */
+    public Stats getStats(ServiceCall call, ItemType itemType) {
+        final Counter counter = mCounters.get(index(call, itemType));
+        return counter != null ? counter.snapshot() : new Counter(call, itemType).snapshot();
+    }
+
+    /**
+     * @return the statistics of every call and item type which was recorded at least once.
+     */
+    public List<Stats> snapshot() {
+        final List<Stats> stats = new ArrayList<Stats>();
+        for (int i = 0; i < mCounters.length(); i++) {
+            final Counter counter = mCounters.get(i);
+            if (counter != null) {
+                stats.add(counter.snapshot());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Clears all recorded calls. Calls recorded concurrently with the reset may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, null);
+        }
+    }
+
+    /**
+     * @return the (exclusive) upper bounds of the latency buckets, in milliseconds. There is one
+     * more bucket, counting all slower calls.
+     */
+    public static long[] getLatencyBucketsMillis() {
+        return LATENCY_BUCKETS_MILLIS.clone();
+    }
+
+    private Counter getCounter(ServiceCall call, ItemType itemType) {
+        final int index = index(call, itemType);
+        Counter counter = mCounters.get(index);
+        if (counter == null) {
+            mCounters.compareAndSet(index, null, new Counter(call, itemType));
+            counter = mCounters.get(index);
+        }
+        return counter;
+    }
+
+    private static int index(ServiceCall call, ItemType itemType) {
+        if (call == null) throw new IllegalArgumentException("call cannot be null");
+        if (itemType == null) throw new IllegalArgumentException("itemType cannot be null");
+        return call.ordinal() * ITEM_TYPES + itemType.ordinal();
+    }
+
+    private static class Counter {
+        private final ServiceCall mCall;
+        private final ItemType mItemType;
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLongArray mLatencies = new AtomicLongArray(LATENCY_BUCKETS_MILLIS.length + 1);
+        private final ConcurrentMap<Integer, AtomicLong> mResponses = new ConcurrentHashMap<Integer, AtomicLong>();
+
+        Counter(ServiceCall call, ItemType itemType) {
+            mCall = call;
+            mItemType = itemType;
+        }
+
+        void record(int response, long durationNanos) {
+            mCount.incrementAndGet();
+            mTotalNanos.addAndGet(durationNanos);
+            mLatencies.incrementAndGet(bucket(durationNanos));
+
+            AtomicLong responses = mResponses.get(response);
+            if (responses == null) {
+                final AtomicLong created = new AtomicLong();
+                responses = mResponses.putIfAbsent(response, created);
+                if (responses == null) responses = created;
+            }
+            responses.incrementAndGet();
+        }
+
+        Stats snapshot() {
+            final long[] latencies = new long[mLatencies.length()];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = mLatencies.get(i);
+            }
+            final Map<Integer, Long> responses = new TreeMap<Integer, Long>();
+            for (Map.Entry<Integer, AtomicLong> entry : mResponses.entrySet()) {
+                responses.put(entry.getKey(), entry.getValue().get());
+            }
+            return new Stats(mCall, mItemType, mCount.get(), mTotalNanos.get(), latencies, responses);
+        }
+
+        private static int bucket(long durationNanos) {
+            final long millis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+            for (int i = 0; i < LATENCY_BUCKETS_MILLIS.length; i++) {
+                if (millis < LATENCY_BUCKETS_MILLIS[i]) return i;
+            }
+            return LATENCY_BUCKETS_MILLIS.length;
+        }
+    }
+
+    /**
+     * The statistics of one service call and item type, at the time of the snapshot.
+     */
+    public static final class Stats {
+        private final ServiceCall mCall;
+        private final ItemType mItemType;
+        private final long mCount;
+        private final long mTotalNanos;
+        private final long[] mLatencies;
+        private final Map<Integer, Long> mResponses;
+
+        Stats(ServiceCall call, ItemType itemType, long count, long totalNanos,
+              long[] latencies, Map<Integer, Long> responses) {
+            mCall = call;
+            mItemType = itemType;
+            mCount = count;
+            mTotalNanos = totalNanos;
+            mLatencies = latencies;
+            mResponses = Collections.unmodifiableMap(responses);
+        }
+
+        public ServiceCall getCall() {
+            return mCall;
+        }
+
+        public ItemType getItemType() {
+            return mItemType;
+        }
+
+        /** @return the number of calls */
+        public long getCount() {
+            return mCount;
+        }
+
+        /** @return the number of calls which did not return {@link Response#OK} */
+        public long getErrorCount() {
+            return mCount - getResponseCount(Response.OK.code);
+        }
+
+        /** @return the total time spent in the calls, in nanoseconds */
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        /**
+         * @return the number of calls per latency bucket, see {@link InMemoryBillingMetrics#getLatencyBucketsMillis()}.
+         */
+        public long[] getLatencyCounts() {
+            return mLatencies.clone();
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 1 (e.g. 0.99)
+         * @return the upper bound of the latency bucket the percentile falls into, in milliseconds,
+         * {@link Long#MAX_VALUE} if it is in the last bucket, or 0 if there were no calls.
+         */
+        public long getLatencyPercentileMillis(double percentile) {
+            if (percentile < 0 || percentile > 1) {
+                throw new IllegalArgumentException("percentile must be between 0 and 1: " + percentile);
+            }
+            if (mCount == 0) return 0;
+            final long rank = Math.max(1, (long) Math.ceil(percentile * mCount));
+            long seen = 0;
+            for (int i = 0; i < LATENCY_BUCKETS_MILLIS.length; i++) {
+                seen += mLatencies[i];
+                if (seen >= rank) return LATENCY_BUCKETS_MILLIS[i];
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /** @return the number of calls which returned the given response code */
+        public long getResponseCount(int response) {
+            final Long count = mResponses.get(response);
+            return count != null ? count : 0;
+        }
+
+        /** @return the number of calls for each response code, sorted by code */
+        public Map<Integer, Long> getResponseCounts() {
+            return mResponses;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "call=" + mCall +
+                    ", itemType=" + mItemType +
+                    ", count=" + mCount +
+                    ", totalNanos=" + mTotalNanos +
+                    ", responses=" + mResponses +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.github.jberkel.pay.me;
+
+import android.util.Log;
+import com.github.jberkel.pay.me.model.Inventory;
+import com.github.jberkel.pay.me.model.ItemType;
+import com.github.jberkel.pay.me.model.Purchase;
+import com.github.jberkel.pay.me.model.SkuDetails;
+import com.github.jberkel.pay.me.validator.SignatureValidator;
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persists the last queried {@link Inventory}, so that entitlements are known right after a cold
+ * start, before the billing service is bound and queried.
+ * <p/>
+ * Purchases are stored with their original JSON and signature, and their signatures are verified
+ * again when the cache is loaded: a modified cache file can't grant anything. SKU details are stored
+ * as JSON. The file is replaced atomically, so a crash while saving leaves the previous version.
+ * <p/>
+ * Install it with {@link IabHelper#setInventoryCache}. This class is thread-safe.
+ */
+public class InventoryCache {
+    private static final String TAG = "IAB/InventoryCache";
+    private static final int FILE_MAGIC = 0x50415949; // "PAYI"
+    private static final int FILE_VERSION = 1;
+    private static final String CHARSET = "UTF-8";
+    // purchases and SKU details are small, anything larger is a corrupt file
+    private static final int MAX_STRING_LENGTH = 1024 * 1024;
+
+    private final File mFile;
+
+    /**
+     * @param file the file to store the inventory in, preferably in the application's private storage.
+     */
+    public InventoryCache(File file) {
+        if (file == null) throw new IllegalArgumentException("file cannot be null");
+        mFile = file;
+    }
+
+    /**
+     * Saves an inventory, replacing the previous one. SKU details which were not received from the
+     * billing service (see {@link SkuDetails#getOriginalJson()}) are not saved.
+     *
+     * @param inventory the inventory to save
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save(Inventory inventory) throws IOException {
+        if (inventory == null) throw new IllegalArgumentException("inventory cannot be null");
+        final List<Purchase> purchases = inventory.getAllPurchases();
+        final List<String> details = new ArrayList<String>();
+        for (SkuDetails d : inventory.getSkuDetails()) {
+            if (d.getOriginalJson() != null) details.add(d.getOriginalJson());
+        }
+
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        final FileOutputStream fileOut = new FileOutputStream(tmp);
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(purchases.size());
+            for (Purchase purchase : purchases) {
+                out.writeByte(purchase.getItemType().ordinal());
+                writeString(out, purchase.getOriginalJson());
+                writeString(out, purchase.getSignature());
+            }
+            out.writeInt(details.size());
+            for (String json : details) {
+                writeString(out, json);
+            }
+            out.flush();
+            // make sure the data is on disk before it replaces the old file
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("could not rename " + tmp + " to " + mFile);
+        }
+    }
+
+    /**
+     * Loads the saved inventory. This reads a small file, it is safe to call on the main thread.
+     *
+     * @param validator the validator to verify the saved purchases with
+     * @return the inventory, or null if there is none or it cannot be read. Purchases whose
+     * signature can't be verified are left out.
+     */
+    public synchronized Inventory load(SignatureValidator validator) {
+        if (validator == null) throw new IllegalArgumentException("validator cannot be null");
+        final DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                Log.w(TAG, "ignoring cache file with unknown format: " + mFile);
+                return null;
+            }
+            final Inventory inventory = new Inventory();
+            final ItemType[] itemTypes = ItemType.values();
+            final int purchaseCount = in.readInt();
+            for (int i = 0; i < purchaseCount; i++) {
+                final int type = in.readUnsignedByte();
+                final String json = readString(in);
+                final String signature = readString(in);
+                if (type >= itemTypes.length) throw new IOException("invalid item type " + type);
+                if (validator.validate(json, signature)) {
+                    inventory.addPurchase(new Purchase(itemTypes[type], json, signature));
+                } else {
+                    Log.w(TAG, "signature verification of cached purchase failed, ignoring it");
+                }
+            }
+            final int detailsCount = in.readInt();
+            for (int i = 0; i < detailsCount; i++) {
+                inventory.addSkuDetails(new SkuDetails(readString(in)));
+            }
+            return inventory;
+        } catch (IOException e) {
+            Log.w(TAG, "error reading cache file " + mFile, e);
+            return null;
+        } catch (JSONException e) {
+            Log.w(TAG, "error parsing cache file " + mFile, e);
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /** Deletes the saved inventory. */
+    public synchronized void clear() {
+        mFile.delete();
+    }
+
+    // length-prefixed, writeUTF is limited to 64k
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        final byte[] bytes = s.getBytes(CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_LENGTH) throw new IOException("invalid length " + length);
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    @Override
+    public String toString() {
+        return "InventoryCache{" + mFile + '}';
+    }
+}
@@ -0,0 +1,130 @@
+package com.github.jberkel.pay.me;
+
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.RemoteException;
+import com.android.vending.billing.IInAppBillingService;
+import com.github.jberkel.pay.me.model.ItemType;
+
+import static com.github.jberkel.pay.me.IabConsts.RESPONSE_CODE;
+import static com.github.jberkel.pay.me.Response.IABHELPER_BAD_RESPONSE;
+import static com.github.jberkel.pay.me.Response.IABHELPER_REMOTE_EXCEPTION;
+import static com.github.jberkel.pay.me.Response.IABHELPER_UNKNOWN_ERROR;
+import static com.github.jberkel.pay.me.Response.OK;
+import static com.github.jberkel.pay.me.ServiceCall.*;
+
+/**
+ * Wraps the billing service and reports each call, with its duration and response code,
+ * to {@link BillingMetrics}. Calls which fail with a runtime exception are reported as
+ * {@link Response#IABHELPER_UNKNOWN_ERROR}.
+ */
+class MeteredBillingService implements IInAppBillingService {
+    private final IInAppBillingService mService;
+    private final BillingMetrics mMetrics;
+
+    MeteredBillingService(IInAppBillingService service, BillingMetrics metrics) {
+        if (service == null) throw new IllegalArgumentException("service cannot be null");
+        if (metrics == null) throw new IllegalArgumentException("metrics cannot be null");
+        mService = service;
+        mMetrics = metrics;
+    }
+
+    @Override
+    public int isBillingSupported(int apiVersion, String packageName, String type) throws RemoteException {
+        final long start = System.nanoTime();
+        int response = IABHELPER_UNKNOWN_ERROR.code;
+        try {
+            response = mService.isBillingSupported(apiVersion, packageName, type);
+            return response;
+        } catch (RemoteException e) {
+            response = IABHELPER_REMOTE_EXCEPTION.code;
+            throw e;
+        } finally {
+            mMetrics.onServiceCall(IS_BILLING_SUPPORTED, ItemType.fromString(type), response, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Bundle getSkuDetails(int apiVersion, String packageName, String type, Bundle skusBundle) throws RemoteException {
+        final long start = System.nanoTime();
+        int response = IABHELPER_UNKNOWN_ERROR.code;
+        try {
+            final Bundle bundle = mService.getSkuDetails(apiVersion, packageName, type, skusBundle);
+            response = getResponseCode(bundle);
+            return bundle;
+        } catch (RemoteException e) {
+            response = IABHELPER_REMOTE_EXCEPTION.code;
+            throw e;
+        } finally {
+            mMetrics.onServiceCall(GET_SKU_DETAILS, ItemType.fromString(type), response, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Bundle getBuyIntent(int apiVersion, String packageName, String sku, String type, String developerPayload)
+            throws RemoteException {
+        final long start = System.nanoTime();
+        int response = IABHELPER_UNKNOWN_ERROR.code;
+        try {
+            final Bundle bundle = mService.getBuyIntent(apiVersion, packageName, sku, type, developerPayload);
+            response = getResponseCode(bundle);
+            return bundle;
+        } catch (RemoteException e) {
+            response = IABHELPER_REMOTE_EXCEPTION.code;
+            throw e;
+        } finally {
+            mMetrics.onServiceCall(GET_BUY_INTENT, ItemType.fromString(type), response, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Bundle getPurchases(int apiVersion, String packageName, String type, String continuationToken)
+            throws RemoteException {
+        final long start = System.nanoTime();
+        int response = IABHELPER_UNKNOWN_ERROR.code;
+        try {
+            final Bundle bundle = mService.getPurchases(apiVersion, packageName, type, continuationToken);
+            response = getResponseCode(bundle);
+            return bundle;
+        } catch (RemoteException e) {
+            response = IABHELPER_REMOTE_EXCEPTION.code;
+            throw e;
+        } finally {
+            mMetrics.onServiceCall(GET_PURCHASES, ItemType.fromString(type), response, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int consumePurchase(int apiVersion, String packageName, String purchaseToken) throws RemoteException {
+        final long start = System.nanoTime();
+        int response = IABHELPER_UNKNOWN_ERROR.code;
+        try {
+            response = mService.consumePurchase(apiVersion, packageName, purchaseToken);
+            return response;
+        } catch (RemoteException e) {
+            response = IABHELPER_REMOTE_EXCEPTION.code;
+            throw e;
+        } finally {
+            // only in-app items can be consumed
+            mMetrics.onServiceCall(CONSUME_PURCHASE, ItemType.INAPP, response, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public IBinder asBinder() {
+        return mService.asBinder();
+    }
+
+    // a missing response code means OK, as in IabHelper#getResponseCodeFromBundle
+    private static int getResponseCode(Bundle bundle) {
+        if (bundle == null) return IABHELPER_BAD_RESPONSE.code;
+        final Object code = bundle.get(RESPONSE_CODE);
+        if (code == null) {
+            return OK.code;
+        } else if (code instanceof Integer || code instanceof Long) {
+            return ((Number) code).intValue();
+        } else {
+            return IABHELPER_BAD_RESPONSE.code;
+        }
+    }
+}
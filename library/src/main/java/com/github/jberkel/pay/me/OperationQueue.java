@@ -0,0 +1,199 @@
+package com.github.jberkel.pay.me;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Schedules asynchronous operations, running those which can run together in parallel and
+ * serializing those which conflict.
+ * <p/>
+ * Inventory queries are read-only and never conflict. Consumes conflict with each other if they
+ * share a purchase token, and only one purchase flow can be in progress at a time.
+ * <p/>
+ * Waiting operations are started in the order they were enqueued: an operation never overtakes
+ * an earlier one it conflicts with, so a steady stream of operations can't starve another one.
+ * This class is thread-safe.
+ */
+class OperationQueue {
+    enum Kind {
+        QUERY,
+        CONSUME,
+        PURCHASE
+    }
+
+    private final List<Operation> mRunning = new ArrayList<Operation>();
+    private final LinkedList<Operation> mWaiting = new LinkedList<Operation>();
+
+    private long mStartedCount, mTotalWaitMillis, mMaxWaitMillis;
+
+    /**
+     * Runs an operation now if it doesn't conflict with any running or waiting operation,
+     * otherwise queues it.
+     *
+     * @param operation     the operation
+     * @param start         starts the operation
+     * @param startExecutor the executor to run <code>start</code> on if the operation has to wait
+     * @return true if the operation was started on the calling thread, false if it was queued.
+     */
+    boolean enqueue(Operation operation, Runnable start, Executor startExecutor) {
+        return enqueue(operation, start, null, startExecutor);
+    }
+
+    /**
+     * @param abort run on <code>startExecutor</code> instead of <code>start</code> if the operation
+     *              is still waiting when the queue is {@link #clear cleared}, can be null
+     * @see #enqueue(Operation, Runnable, Executor)
+     */
+    boolean enqueue(Operation operation, Runnable start, Runnable abort, Executor startExecutor) {
+        synchronized (this) {
+            if (operation.mEnqueuedAt != -1) throw new IllegalStateException(operation + " already enqueued");
+            operation.mEnqueuedAt = currentTimeMillis();
+            operation.mStart = start;
+            operation.mAbort = abort;
+            operation.mStartExecutor = startExecutor;
+
+            if (conflictsWith(operation, mRunning) || conflictsWith(operation, mWaiting)) {
+                mWaiting.add(operation);
+                return false;
+            }
+            markStarted(operation);
+        }
+        operation.mStart.run();
+        return true;
+    }
+
+    /**
+     * Marks an operation as finished and starts any waiting operations which no longer conflict.
+     */
+    void finish(Operation operation) {
+        final List<Operation> ready = new ArrayList<Operation>();
+        synchronized (this) {
+            if (!mRunning.remove(operation)) return;
+
+            final List<Operation> skipped = new ArrayList<Operation>();
+            for (Iterator<Operation> it = mWaiting.iterator(); it.hasNext(); ) {
+                Operation waiting = it.next();
+                if (!conflictsWith(waiting, mRunning) && !conflictsWith(waiting, skipped)) {
+                    it.remove();
+                    markStarted(waiting);
+                    ready.add(waiting);
+                } else {
+                    skipped.add(waiting);
+                }
+            }
+        }
+        for (Operation waiting : ready) {
+            waiting.mStartExecutor.execute(waiting.mStart);
+        }
+    }
+
+    /**
+     * Forgets all operations. Waiting operations will not be started, their abort callbacks are
+     * run instead.
+     */
+    void clear() {
+        final List<Operation> aborted;
+        synchronized (this) {
+            aborted = new ArrayList<Operation>(mWaiting);
+            mWaiting.clear();
+            mRunning.clear();
+        }
+        for (Operation operation : aborted) {
+            if (operation.mAbort != null) {
+                operation.mStartExecutor.execute(operation.mAbort);
+            }
+        }
+    }
+
+    /** Returns the number of operations waiting to be started. */
+    synchronized int getQueueDepth() {
+        return mWaiting.size();
+    }
+
+    /** Returns the number of operations currently running. */
+    synchronized int getRunningCount() {
+        return mRunning.size();
+    }
+
+    /** Returns the average time operations had to wait before being started, in milliseconds. */
+    synchronized long getAverageWaitMillis() {
+        return mStartedCount == 0 ? 0 : mTotalWaitMillis / mStartedCount;
+    }
+
+    /** Returns the longest time an operation had to wait before being started, in milliseconds. */
+    synchronized long getMaxWaitMillis() {
+        return mMaxWaitMillis;
+    }
+
+    // for testing
+    /* package */ long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private void markStarted(Operation operation) {
+        final long waited = currentTimeMillis() - operation.mEnqueuedAt;
+        mStartedCount++;
+        mTotalWaitMillis += waited;
+        mMaxWaitMillis = Math.max(mMaxWaitMillis, waited);
+        mRunning.add(operation);
+    }
+
+    private static boolean conflictsWith(Operation operation, Collection<Operation> others) {
+        for (Operation other : others) {
+            if (operation.conflictsWith(other)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * An asynchronous operation. Whoever completes it has to call {@link OperationQueue#finish}.
+     */
+    static final class Operation {
+        final String name;
+        final Kind kind;
+        final Set<String> tokens;
+
+        private long mEnqueuedAt = -1;
+        private Runnable mStart;
+        private Runnable mAbort;
+        private Executor mStartExecutor;
+
+        Operation(String name, Kind kind) {
+            this(name, kind, Collections.<String>emptySet());
+        }
+
+        /**
+         * @param tokens the purchase tokens this operation acts on
+         */
+        Operation(String name, Kind kind, Collection<String> tokens) {
+            if (kind == null) throw new IllegalArgumentException("kind cannot be null");
+            this.name = name;
+            this.kind = kind;
+            this.tokens = new HashSet<String>(tokens);
+        }
+
+        boolean conflictsWith(Operation other) {
+            if (kind != other.kind) return false;
+            switch (kind) {
+                case PURCHASE:
+                    return true;
+                case CONSUME:
+                    return !Collections.disjoint(tokens, other.tokens);
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
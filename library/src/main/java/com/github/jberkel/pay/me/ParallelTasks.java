@@ -0,0 +1,87 @@
+package com.github.jberkel.pay.me;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a batch of independent tasks on a bounded executor and waits for all of them.
+ * <p/>
+ * The calling thread takes part in the work: every task which has not been picked up by a worker
+ * when the batch has been handed out is run by the caller itself. A saturated (or shut down)
+ * executor therefore degrades to sequential execution instead of deadlocking, which also makes
+ * nested batches on the same executor safe.
+ */
+final class ParallelTasks {
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private ParallelTasks() {
+    }
+
+    /**
+     * @param executor  the executor to hand the tasks to
+     * @param callables the tasks to run
+     * @return the completed futures, in the same order as <code>callables</code>
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    static <T> List<Future<T>> invokeAll(Executor executor, List<? extends Callable<T>> callables)
+            throws InterruptedException {
+        final List<FutureTask<T>> tasks = new ArrayList<FutureTask<T>>(callables.size());
+        for (Callable<T> callable : callables) {
+            tasks.add(new FutureTask<T>(callable));
+        }
+        // the first task is always run by the caller, no need to hand it out
+        for (int i = 1; i < tasks.size(); i++) {
+            try {
+                executor.execute(tasks.get(i));
+            } catch (RejectedExecutionException e) {
+                break; // run the remaining ones on this thread
+            }
+        }
+        // workers take tasks from the head of the queue, so start from the other end.
+        // run() is a no-op for tasks which are already running or done.
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            tasks.get(i).run();
+        }
+        for (FutureTask<T> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException ignored) {
+                // reported to the caller through the future
+            }
+        }
+        return new ArrayList<Future<T>>(tasks);
+    }
+
+    /**
+     * Creates an executor with at most <code>threads</code> daemon threads, which time out when idle.
+     */
+    static ExecutorService newBoundedExecutor(final String name, int threads) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, name + " #" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -1,32 +1,132 @@
 package com.github.jberkel.pay.me;
 
+import android.content.SharedPreferences;
+import android.os.Build;
 import com.github.jberkel.pay.me.listener.OnIabPurchaseFinishedListener;
 import com.github.jberkel.pay.me.model.ItemType;
 import com.github.jberkel.pay.me.model.Purchase;
 
+import static com.github.jberkel.pay.me.Response.IABHELPER_VERIFICATION_FAILED;
 import static com.github.jberkel.pay.me.model.ItemType.UNKNOWN;
 
 class PurchaseFlowState implements OnIabPurchaseFinishedListener {
-    static final PurchaseFlowState NONE = new PurchaseFlowState(-1, UNKNOWN, null);
+    static final PurchaseFlowState NONE = new PurchaseFlowState(-1, UNKNOWN, null, null, null, false);
+
+    /** The name of the preferences the state is persisted in */
+    static final String PREFERENCES_NAME = "pay_me_purchase_flow";
+    private static final String KEY_REQUEST_CODE = "requestCode";
+    private static final String KEY_ITEM_TYPE = "itemType";
+    private static final String KEY_SKU = "sku";
+    private static final String KEY_DEVELOPER_PAYLOAD = "developerPayload";
 
     /** The request code used to launch purchase flow */
     final int requestCode;
     /** The item type of the current purchase flow */
     final ItemType itemType;
+    /** The sku being purchased */
+    final String sku;
+    /** The developer payload passed to launchPurchaseFlow, can be null */
+    final String developerPayload;
     /**  The listener registered on launchPurchaseFlow, which we have to call back when the purchase finishes */
     final OnIabPurchaseFinishedListener listener;
+    /** True if the state was restored after the process was recreated */
+    final boolean restored;
+
+    PurchaseFlowState(int requestCode,
+                      ItemType itemType,
+                      String sku,
+                      String developerPayload,
+                      OnIabPurchaseFinishedListener listener) {
+        this(requestCode, itemType, sku, developerPayload, listener, false);
+    }
 
-    PurchaseFlowState(int requestCode, ItemType itemType, OnIabPurchaseFinishedListener listener) {
+    private PurchaseFlowState(int requestCode,
+                              ItemType itemType,
+                              String sku,
+                              String developerPayload,
+                              OnIabPurchaseFinishedListener listener,
+                              boolean restored) {
         if (itemType == null) throw new IllegalArgumentException("itemType cannot be null");
         this.requestCode = requestCode;
         this.itemType = itemType;
+        this.sku = sku;
+        this.developerPayload = developerPayload;
         this.listener = listener;
+        this.restored = restored;
     }
 
     @Override
     public void onIabPurchaseFinished(IabResult result, Purchase purchase) {
+        // only the request code identified a restored flow, make sure the purchase belongs to it
+        if (restored && result.isSuccess() && !matches(purchase)) {
+            result = new IabResult(IABHELPER_VERIFICATION_FAILED,
+                    "Purchase does not match restored purchase flow " + this + ": " + purchase);
+        }
         if (listener != null) {
             listener.onIabPurchaseFinished(result, purchase);
         }
     }
+
+    private boolean matches(Purchase purchase) {
+        return purchase != null
+                && purchase.getSku().equals(sku)
+                && (developerPayload == null || developerPayload.length() == 0
+                    || developerPayload.equals(purchase.getDeveloperPayload()));
+    }
+
+    /**
+     * Saves this state, so that the result of the purchase flow can be handled after the process
+     * has been recreated. The listener is not saved.
+     */
+    void save(SharedPreferences preferences) {
+        apply(preferences.edit()
+                .putInt(KEY_REQUEST_CODE, requestCode)
+                .putString(KEY_ITEM_TYPE, itemType.toString())
+                .putString(KEY_SKU, sku)
+                .putString(KEY_DEVELOPER_PAYLOAD, developerPayload));
+    }
+
+    /**
+     * @param preferences the preferences the state was {@link #save saved} in
+     * @param listener    the listener to notify when the restored purchase finishes
+     * @return the saved state, or {@link #NONE} if there is none
+     */
+    static PurchaseFlowState restore(SharedPreferences preferences, OnIabPurchaseFinishedListener listener) {
+        if (!preferences.contains(KEY_REQUEST_CODE)) return NONE;
+        final ItemType itemType = ItemType.fromString(preferences.getString(KEY_ITEM_TYPE, null));
+        if (itemType == UNKNOWN) return NONE;
+        return new PurchaseFlowState(
+                preferences.getInt(KEY_REQUEST_CODE, -1),
+                itemType,
+                preferences.getString(KEY_SKU, null),
+                preferences.getString(KEY_DEVELOPER_PAYLOAD, null),
+                listener,
+                true);
+    }
+
+    static void clear(SharedPreferences preferences) {
+        apply(preferences.edit()
+                .remove(KEY_REQUEST_CODE)
+                .remove(KEY_ITEM_TYPE)
+                .remove(KEY_SKU)
+                .remove(KEY_DEVELOPER_PAYLOAD));
+    }
+
+    // these run on the UI thread, apply() writes to disk in the background but needs API level 9
+    private static void apply(SharedPreferences.Editor editor) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            editor.apply();
+        } else {
+            editor.commit();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PurchaseFlowState{" +
+                "requestCode=" + requestCode +
+                ", itemType=" + itemType +
+                ", sku='" + sku + '\'' +
+                '}';
+    }
 }
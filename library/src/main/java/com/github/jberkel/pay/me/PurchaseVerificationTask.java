@@ -0,0 +1,56 @@
+package com.github.jberkel.pay.me;
+
+import com.github.jberkel.pay.me.listener.OnIabPurchaseFinishedListener;
+import com.github.jberkel.pay.me.model.Purchase;
+
+/**
+ * Parses and verifies the result of a purchase flow in the background, and notifies the purchase
+ * listener on the callback executor.
+ */
+class PurchaseVerificationTask extends BillingTask<Void, Void> implements OnIabPurchaseFinishedListener {
+    private final IabHelper mIabHelper;
+    private final OperationQueue.Operation mOperation;
+    private final PurchaseFlowState mPurchaseFlowState;
+    private final String mPurchaseData;
+    private final String mSignature;
+    private IabResult mResult;
+    private Purchase mPurchase;
+
+    public PurchaseVerificationTask(IabHelper iabHelper,
+                                    OperationQueue.Operation operation,
+                                    PurchaseFlowState purchaseFlowState,
+                                    String purchaseData,
+                                    String signature) {
+        mIabHelper = iabHelper;
+        mOperation = operation;
+        mPurchaseFlowState = purchaseFlowState;
+        mPurchaseData = purchaseData;
+        mSignature = signature;
+    }
+
+    @Override
+    protected Void doInBackground(Void... params) {
+        mIabHelper.handlePurchaseResult(mPurchaseData, mSignature, mPurchaseFlowState.itemType, this);
+        return null;
+    }
+
+    // called by handlePurchaseResult, on the background thread
+    @Override
+    public void onIabPurchaseFinished(IabResult result, Purchase purchase) {
+        mResult = result;
+        mPurchase = purchase;
+    }
+
+    @Override
+    protected void onFailed(RuntimeException e) {
+        mIabHelper.finishOperation(mOperation);
+    }
+
+    @Override
+    protected void onPostExecute(Void ignored) {
+        mIabHelper.finishOperation(mOperation);
+        if (mIabHelper.isDisposed() || isCancelled()) return;
+
+        mPurchaseFlowState.onIabPurchaseFinished(mResult, mPurchase);
+    }
+}
@@ -1,26 +1,36 @@
 package com.github.jberkel.pay.me;
 
-import android.os.AsyncTask;
 import com.github.jberkel.pay.me.listener.QueryInventoryFinishedListener;
 import com.github.jberkel.pay.me.model.Inventory;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static com.github.jberkel.pay.me.Response.OK;
 
-class QueryInventoryTask extends AsyncTask<QueryInventoryTask.Args, Void, Inventory> {
+class QueryInventoryTask extends BillingTask<QueryInventoryTask.Args, Inventory> {
     private final IabHelper mIabHelper;
-    private final QueryInventoryFinishedListener mListener;
+    private final OperationQueue.Operation mOperation;
+    private List<QueryInventoryFinishedListener> mListeners = new ArrayList<QueryInventoryFinishedListener>(1);
     private IabResult mResult = new IabResult(OK);
 
-    public QueryInventoryTask(IabHelper iabHelper, QueryInventoryFinishedListener listener) {
+    public QueryInventoryTask(IabHelper iabHelper,
+                              OperationQueue.Operation operation,
+                              QueryInventoryFinishedListener listener) {
         mIabHelper = iabHelper;
-        mListener = listener;
+        mOperation = operation;
+        mListeners.add(listener);
     }
 
-    @Override
-    protected void onPreExecute() {
-        mIabHelper.flagStartAsync("refresh inventory");
+    /**
+     * Attaches another listener to this query, which will receive the same result.
+     *
+     * @return false if the query has already finished, in which case the listener will not be called.
+     */
+    synchronized boolean addListener(QueryInventoryFinishedListener listener) {
+        if (mListeners == null) return false;
+        mListeners.add(listener);
+        return true;
     }
 
     @Override
@@ -35,11 +45,25 @@ class QueryInventoryTask extends AsyncTask<QueryInventoryTask.Args, Void, Invent
         }
     }
 
+    @Override
+    protected void onFailed(RuntimeException e) {
+        mIabHelper.finishOperation(mOperation);
+    }
+
     @Override
     protected void onPostExecute(Inventory inventory) {
-        mIabHelper.flagEndAsync();
-        if (mListener != null && !mIabHelper.isDisposed() && !isCancelled()) {
-            mListener.onQueryInventoryFinished(mResult, inventory);
+        mIabHelper.finishOperation(mOperation);
+        final List<QueryInventoryFinishedListener> listeners;
+        synchronized (this) {
+            listeners = mListeners;
+            mListeners = null;
+        }
+        if (mIabHelper.isDisposed() || isCancelled()) return;
+
+        for (QueryInventoryFinishedListener listener : listeners) {
+            if (listener != null) {
+                listener.onQueryInventoryFinished(mResult, inventory);
+            }
         }
     }
 
@@ -52,6 +76,18 @@ class QueryInventoryTask extends AsyncTask<QueryInventoryTask.Args, Void, Invent
             skus = moreSkus;
             subSkus = moreSubSkus;
         }
+
+        /**
+         * @return true if a query with these arguments returns everything a query with
+         * <code>other</code> would return.
+         */
+        boolean covers(Args other) {
+            if (!other.queryDetails) return true;
+            return queryDetails && containsAll(skus, other.skus) && containsAll(subSkus, other.subSkus);
+        }
+
+        private static boolean containsAll(List<String> list, List<String> other) {
+            return other == null || other.isEmpty() || (list != null && list.containsAll(other));
+        }
     }
 }
-
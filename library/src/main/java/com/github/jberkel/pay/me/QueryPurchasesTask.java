@@ -0,0 +1,60 @@
+package com.github.jberkel.pay.me;
+
+import com.github.jberkel.pay.me.listener.OnPurchasesPageListener;
+import com.github.jberkel.pay.me.listener.QueryPurchasesListener;
+import com.github.jberkel.pay.me.model.Inventory;
+import com.github.jberkel.pay.me.model.ItemType;
+import com.github.jberkel.pay.me.model.Purchase;
+
+import java.util.List;
+
+import static com.github.jberkel.pay.me.Response.OK;
+
+class QueryPurchasesTask extends BillingTask<Void, Inventory> {
+    private final IabHelper mIabHelper;
+    private final OperationQueue.Operation mOperation;
+    private final QueryPurchasesListener mListener;
+    private IabResult mResult = new IabResult(OK);
+
+    public QueryPurchasesTask(IabHelper iabHelper,
+                              OperationQueue.Operation operation,
+                              QueryPurchasesListener listener) {
+        mIabHelper = iabHelper;
+        mOperation = operation;
+        mListener = listener;
+    }
+
+    @Override
+    protected Inventory doInBackground(Void... params) {
+        try {
+            return mIabHelper.queryPurchases(new OnPurchasesPageListener() {
+                @Override
+                public void onPurchasesPage(final ItemType itemType, final List<Purchase> purchases) {
+                    runOnCallbackExecutor(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mIabHelper.isDisposed() || isCancelled()) return;
+                            mListener.onPurchasesPage(itemType, purchases);
+                        }
+                    });
+                }
+            });
+        } catch (IabException ex) {
+            mResult = ex.getResult();
+            return null;
+        }
+    }
+
+    @Override
+    protected void onFailed(RuntimeException e) {
+        mIabHelper.finishOperation(mOperation);
+    }
+
+    @Override
+    protected void onPostExecute(Inventory inventory) {
+        mIabHelper.finishOperation(mOperation);
+        if (mIabHelper.isDisposed() || isCancelled()) return;
+
+        mListener.onQueryPurchasesFinished(mResult, inventory);
+    }
+}
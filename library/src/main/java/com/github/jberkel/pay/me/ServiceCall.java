@@ -0,0 +1,19 @@
+package com.github.jberkel.pay.me;
+
+/**
+ * The methods of the in-app billing service, as reported to {@link BillingMetrics}.
+ */
+public enum ServiceCall {
+    IS_BILLING_SUPPORTED("isBillingSupported"),
+    GET_SKU_DETAILS     ("getSkuDetails"),
+    GET_BUY_INTENT      ("getBuyIntent"),
+    GET_PURCHASES       ("getPurchases"),
+    CONSUME_PURCHASE    ("consumePurchase");
+
+    /** the name of the service method */
+    public final String methodName;
+
+    ServiceCall(String methodName) {
+        this.methodName = methodName;
+    }
+}
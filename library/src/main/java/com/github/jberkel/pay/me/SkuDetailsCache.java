@@ -0,0 +1,163 @@
+package com.github.jberkel.pay.me;
+
+import com.github.jberkel.pay.me.model.SkuDetails;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory cache of {@link SkuDetails}, bounded in size with least-recently-used eviction.
+ * Each entry has its own time to live. Once it has expired the entry is stale: it is still served
+ * by {@link IabHelper#queryInventory} but refreshed in the background.
+ * <p/>
+ * Install it with {@link IabHelper#setSkuDetailsCache}. This class is thread-safe.
+ */
+public class SkuDetailsCache {
+    private final int mMaxSize;
+    private final long mTtlMillis;
+    private final Map<String, CacheEntry> mEntries;
+
+    private int mHitCount, mStaleHitCount, mMissCount, mEvictionCount;
+
+    /**
+     * @param maxSize   the maximum number of entries
+     * @param ttlMillis the default time to live of an entry, in milliseconds
+     */
+    public SkuDetailsCache(int maxSize, long ttlMillis) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+        if (ttlMillis < 0) throw new IllegalArgumentException("ttlMillis < 0");
+        mMaxSize = maxSize;
+        mTtlMillis = ttlMillis;
+        mEntries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > mMaxSize) {
+                    mEvictionCount++;
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the cached details for a product, even if they are stale.
+     *
+     * @param sku the product id
+     * @return the details, or null if not cached
+     */
+    public SkuDetails get(String sku) {
+        CacheEntry entry = lookup(sku);
+        return entry == null ? null : entry.details;
+    }
+
+    /** Caches details, using the default time to live. */
+    public void put(SkuDetails details) {
+        put(details, mTtlMillis);
+    }
+
+    /**
+     * Caches details.
+     *
+     * @param details   the details to cache
+     * @param ttlMillis the time to live of this entry, in milliseconds
+     */
+    public synchronized void put(SkuDetails details, long ttlMillis) {
+        if (details == null) throw new IllegalArgumentException("details cannot be null");
+        mEntries.put(details.getSku(), new CacheEntry(details, currentTimeMillis() + ttlMillis));
+    }
+
+    public synchronized void remove(String sku) {
+        mEntries.remove(sku);
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /** Returns the number of lookups which found an entry, fresh or stale. */
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    /** Returns the number of lookups which found a stale entry. */
+    public synchronized int staleHitCount() {
+        return mStaleHitCount;
+    }
+
+    /** Returns the number of lookups which did not find an entry. */
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    /** Returns the number of entries which have been evicted to stay within the size bound. */
+    public synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SkuDetailsCache{" +
+                "size=" + mEntries.size() +
+                ", maxSize=" + mMaxSize +
+                ", hits=" + mHitCount +
+                ", staleHits=" + mStaleHitCount +
+                ", misses=" + mMissCount +
+                ", evictions=" + mEvictionCount +
+                '}';
+    }
+
+    /* package */ synchronized CacheEntry lookup(String sku) {
+        CacheEntry entry = mEntries.get(sku);
+        if (entry == null) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+            if (isStale(entry)) mStaleHitCount++;
+        }
+        return entry;
+    }
+
+    /* package */ boolean isStale(CacheEntry entry) {
+        return currentTimeMillis() >= entry.expiresAt;
+    }
+
+    /**
+     * Marks a stale entry as being refreshed.
+     *
+     * @return true if the caller should refresh it, false if a refresh is already under way
+     * or the entry is gone.
+     */
+    /* package */ synchronized boolean startRefresh(String sku) {
+        CacheEntry entry = mEntries.get(sku);
+        if (entry == null || entry.refreshing) return false;
+        entry.refreshing = true;
+        return true;
+    }
+
+    /* package */ synchronized void endRefresh(String sku) {
+        CacheEntry entry = mEntries.get(sku);
+        if (entry != null) entry.refreshing = false;
+    }
+
+    // for testing
+    /* package */ long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /* package */ static class CacheEntry {
+        final SkuDetails details;
+        final long expiresAt;
+        boolean refreshing;
+
+        CacheEntry(SkuDetails details, long expiresAt) {
+            this.details = details;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
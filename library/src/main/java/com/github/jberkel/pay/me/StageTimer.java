@@ -0,0 +1,27 @@
+package com.github.jberkel.pay.me;
+
+/**
+ * Receives the time {@link IabHelper} spends in each stage of its operations, to break down where
+ * the time goes when profiling. See {@link IabHelper#setStageTimer}.
+ * <p/>
+ * Stages can be timed on several threads at once (parallel queries and verification), so
+ * implementations have to be thread-safe.
+ */
+/* package */ interface StageTimer {
+    enum Stage {
+        /** Waiting for a call to the billing service to return */
+        BINDER,
+        /** Parsing purchases and SKU details */
+        PARSE,
+        /** Verifying purchase signatures */
+        VERIFY,
+        /** Adding results to the inventory and comparing it to the previous one */
+        MERGE
+    }
+
+    /**
+     * @param stage the stage which finished
+     * @param nanos the time spent in the stage, in nanoseconds
+     */
+    void onStage(Stage stage, long nanos);
+}
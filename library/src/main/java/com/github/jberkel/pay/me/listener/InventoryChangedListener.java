@@ -0,0 +1,17 @@
+package com.github.jberkel.pay.me.listener;
+
+import com.github.jberkel.pay.me.model.Inventory;
+import com.github.jberkel.pay.me.model.InventoryDiff;
+
+/**
+ * Listener that notifies when an inventory query found changes compared to the previous query.
+ */
+public interface InventoryChangedListener {
+    /**
+     * Called after an inventory query if the inventory changed.
+     *
+     * @param diff      The changes since the previous query, never empty.
+     * @param inventory The new inventory.
+     */
+    public void onInventoryChanged(InventoryDiff diff, Inventory inventory);
+}
@@ -0,0 +1,20 @@
+package com.github.jberkel.pay.me.listener;
+
+import com.github.jberkel.pay.me.IabResult;
+import com.github.jberkel.pay.me.model.Purchase;
+
+/**
+ * Callback that notifies about the progress of a multi-item consumption operation.
+ */
+public interface OnConsumeProgressListener {
+    /**
+     * Called each time the consumption of one item has finished, in the order the items
+     * finish (which, for parallel consumption, is not necessarily the order they were passed in).
+     *
+     * @param purchase The purchase that was (or was to be) consumed.
+     * @param result The result of the consumption operation.
+     * @param finished The number of items finished so far, including this one.
+     * @param total The total number of items to consume.
+     */
+    public void onConsumeProgress(Purchase purchase, IabResult result, int finished, int total);
+}
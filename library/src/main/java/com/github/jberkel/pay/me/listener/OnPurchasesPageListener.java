@@ -0,0 +1,19 @@
+package com.github.jberkel.pay.me.listener;
+
+import com.github.jberkel.pay.me.model.ItemType;
+import com.github.jberkel.pay.me.model.Purchase;
+
+import java.util.List;
+
+/**
+ * Listener that receives owned purchases page by page, as they are returned by the service.
+ */
+public interface OnPurchasesPageListener {
+    /**
+     * Called for each page of purchases. Only purchases with a valid signature are included.
+     *
+     * @param itemType The type of the purchases in this page.
+     * @param purchases The purchases in this page, possibly empty.
+     */
+    public void onPurchasesPage(ItemType itemType, List<Purchase> purchases);
+}
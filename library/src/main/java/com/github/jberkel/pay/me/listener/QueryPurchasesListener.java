@@ -0,0 +1,18 @@
+package com.github.jberkel.pay.me.listener;
+
+import com.github.jberkel.pay.me.IabResult;
+import com.github.jberkel.pay.me.model.Inventory;
+
+/**
+ * Listener for streaming purchase queries, which receives each page of purchases as it arrives
+ * and is notified once the query has completed.
+ */
+public interface QueryPurchasesListener extends OnPurchasesPageListener {
+    /**
+     * Called to notify that the purchase query completed, after the last page has been delivered.
+     *
+     * @param result The result of the operation.
+     * @param inv The inventory with all purchases, or null if the query failed.
+     */
+    public void onQueryPurchasesFinished(IabResult result, Inventory inv);
+}
@@ -0,0 +1,93 @@
+package com.github.jberkel.pay.me;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.jberkel.pay.me.TestHelper.DIRECT_EXECUTOR;
+import static com.github.jberkel.pay.me.TestHelper.QueueingExecutor;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class BillingTaskTest {
+
+    @Test public void shouldRunCallbacksOnExecutors() throws Exception {
+        QueueingExecutor background = new QueueingExecutor();
+        QueueingExecutor callback = new QueueingExecutor();
+        RecordingTask task = new RecordingTask();
+
+        task.execute(background, callback, "foo");
+        assertThat(task.calls).containsExactly("onPreExecute");
+
+        background.runAll();
+        assertThat(task.calls).containsExactly("onPreExecute", "doInBackground foo");
+        assertThat(task.get()).isEqualTo("FOO");
+
+        callback.runAll();
+        assertThat(task.calls).containsExactly("onPreExecute", "doInBackground foo", "onPostExecute FOO");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldOnlyExecuteOnce() throws Exception {
+        RecordingTask task = new RecordingTask();
+        task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR, "foo");
+        task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR, "foo");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotGetResultBeforeExecution() throws Exception {
+        new RecordingTask().get();
+    }
+
+    @Test public void shouldRethrowExceptionOnCallbackExecutor() throws Exception {
+        QueueingExecutor callback = new QueueingExecutor();
+        RecordingTask task = new RecordingTask();
+
+        task.execute(DIRECT_EXECUTOR, callback, (String) null);
+        try {
+            callback.runAll();
+            fail("expected exception");
+        } catch (NullPointerException expected) {
+        }
+        assertThat(task.calls).containsExactly("onPreExecute", "onFailed NullPointerException");
+    }
+
+    @Test public void shouldNotRunCancelledTask() throws Exception {
+        QueueingExecutor background = new QueueingExecutor();
+        RecordingTask task = new RecordingTask();
+
+        task.execute(background, DIRECT_EXECUTOR, "foo");
+        assertThat(task.cancel(false)).isTrue();
+        assertThat(task.isCancelled()).isTrue();
+
+        background.runAll();
+        assertThat(task.calls).containsExactly("onPreExecute", "onPostExecute null");
+    }
+
+    private static class RecordingTask extends BillingTask<String, String> {
+        final List<String> calls = new ArrayList<String>();
+
+        @Override
+        protected void onPreExecute() {
+            calls.add("onPreExecute");
+        }
+
+        @Override
+        protected String doInBackground(String... params) {
+            String result = params[0].toUpperCase();
+            calls.add("doInBackground " + params[0]);
+            return result;
+        }
+
+        @Override
+        protected void onPostExecute(String result) {
+            calls.add("onPostExecute " + result);
+        }
+
+        @Override
+        protected void onFailed(RuntimeException e) {
+            calls.add("onFailed " + e.getClass().getSimpleName());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.jberkel.pay.me;
+
+import com.github.jberkel.pay.me.model.Purchase;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import static com.github.jberkel.pay.me.model.ItemType.INAPP;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class ConsumeJournalTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private ConsumeJournal journal;
+
+    @Before public void before() throws Exception {
+        file = new File(folder.getRoot(), "consumes");
+        journal = new ConsumeJournal(file);
+    }
+
+    @Test public void shouldBeEmptyWithoutFile() throws Exception {
+        assertThat(journal.getPendingPurchases()).isEmpty();
+    }
+
+    @Test public void shouldRecordPendingPurchases() throws Exception {
+        journal.begin(purchase("foo"));
+        journal.begin(purchase("bar"));
+
+        assertThat(tokens(new ConsumeJournal(file))).containsExactly("foo", "bar");
+    }
+
+    @Test public void shouldRemoveCompletedPurchases() throws Exception {
+        journal.begin(purchase("foo"));
+        journal.begin(purchase("bar"));
+        journal.complete(purchase("foo"));
+
+        assertThat(tokens(journal)).containsExactly("bar");
+        assertThat(tokens(new ConsumeJournal(file))).containsExactly("bar");
+    }
+
+    @Test public void shouldDeleteFileWhenNothingIsPending() throws Exception {
+        journal.begin(purchase("foo"));
+        assertThat(file.exists()).isTrue();
+
+        journal.complete(purchase("foo"));
+
+        assertThat(file.exists()).isFalse();
+        assertThat(new ConsumeJournal(file).getPendingPurchases()).isEmpty();
+    }
+
+    @Test public void shouldIgnoreCompleteOfUnknownPurchase() throws Exception {
+        journal.begin(purchase("foo"));
+        journal.complete(purchase("bar"));
+
+        assertThat(tokens(new ConsumeJournal(file))).containsExactly("foo");
+    }
+
+    @Test public void shouldKeepPurchaseDataAndSignature() throws Exception {
+        Purchase purchase = new Purchase(INAPP, "{\"productId\":\"sku\",\"purchaseToken\":\"foo\"}", "sig");
+        journal.begin(purchase);
+
+        Purchase loaded = new ConsumeJournal(file).getPendingPurchases().get(0);
+        assertThat(loaded.getItemType()).isEqualTo(INAPP);
+        assertThat(loaded.getSku()).isEqualTo("sku");
+        assertThat(loaded.getOriginalJson()).isEqualTo(purchase.getOriginalJson());
+        assertThat(loaded.getSignature()).isEqualTo("sig");
+    }
+
+    @Test public void shouldIgnoreTornRecordAtEnd() throws Exception {
+        journal.begin(purchase("foo"));
+        journal.begin(purchase("bar"));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        assertThat(tokens(new ConsumeJournal(file))).containsExactly("foo");
+    }
+
+    @Test public void shouldAppendAfterTornRecord() throws Exception {
+        journal.begin(purchase("foo"));
+        journal.begin(purchase("bar"));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        ConsumeJournal reopened = new ConsumeJournal(file);
+        reopened.begin(purchase("baz"));
+
+        assertThat(tokens(new ConsumeJournal(file))).containsExactly("foo", "baz");
+    }
+
+    @Test public void shouldIgnoreGarbage() throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 0, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff});
+        out.close();
+
+        assertThat(journal.getPendingPurchases()).isEmpty();
+    }
+
+    @Test public void shouldClear() throws Exception {
+        journal.begin(purchase("foo"));
+        journal.clear();
+
+        assertThat(file.exists()).isFalse();
+        assertThat(journal.getPendingPurchases()).isEmpty();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAcceptNullFile() throws Exception {
+        new ConsumeJournal(null);
+    }
+
+    private static Purchase purchase(String token) throws Exception {
+        return new Purchase(INAPP, "{\"productId\":\"sku\",\"purchaseToken\":\"" + token + "\"}", "");
+    }
+
+    private static String[] tokens(ConsumeJournal journal) {
+        String[] tokens = new String[journal.getPendingPurchases().size()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = journal.getPendingPurchases().get(i).getToken();
+        }
+        return tokens;
+    }
+}
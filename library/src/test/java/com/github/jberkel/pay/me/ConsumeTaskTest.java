@@ -2,15 +2,20 @@ package com.github.jberkel.pay.me;
 
 import com.github.jberkel.pay.me.listener.OnConsumeFinishedListener;
 import com.github.jberkel.pay.me.listener.OnConsumeMultiFinishedListener;
+import com.github.jberkel.pay.me.listener.OnConsumeProgressListener;
 import com.github.jberkel.pay.me.model.Purchase;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.robolectric.RobolectricTestRunner;
 
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
+import static com.github.jberkel.pay.me.TestHelper.DIRECT_EXECUTOR;
 import static com.github.jberkel.pay.me.Response.ERROR;
 import static com.github.jberkel.pay.me.Response.OK;
 import static org.fest.assertions.api.Assertions.assertThat;
@@ -25,12 +30,17 @@ public class ConsumeTaskTest {
     @Mock
     OnConsumeMultiFinishedListener consumeMultiFinishedListener;
     @Mock
+    OnConsumeProgressListener consumeProgressListener;
+    @Mock
     IabHelper iabHelper;
+    OperationQueue.Operation operation;
     ConsumeTask task;
 
     @Before public void before() throws Exception {
         initMocks(this);
-        task = new ConsumeTask(iabHelper, consumeFinishedListener, consumeMultiFinishedListener);
+        operation = new OperationQueue.Operation("consume", OperationQueue.Kind.CONSUME);
+        task = new ConsumeTask(iabHelper, operation, consumeFinishedListener, consumeMultiFinishedListener,
+                consumeProgressListener);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -46,11 +56,12 @@ public class ConsumeTaskTest {
     @Test public void shouldConsumeItem() throws Exception {
         Purchase p = mock(Purchase.class);
 
-        List<IabResult> results = task.execute(p).get();
+        List<IabResult> results = task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR, p).get();
         assertThat(results).hasSize(1);
         assertThat(results.get(0).getResponse()).isEqualTo(OK);
 
         verify(iabHelper).consume(p);
+        verify(iabHelper).finishOperation(operation);
         verify(consumeFinishedListener).onConsumeFinished(p, new IabResult(OK));
         verify(consumeMultiFinishedListener).onConsumeMultiFinished(anyListOf(Purchase.class), anyListOf(IabResult.class));
     }
@@ -60,7 +71,7 @@ public class ConsumeTaskTest {
 
         doThrow(new IabException(Response.ERROR, "error")).when(iabHelper).consume(p);
 
-        List<IabResult> results = task.execute(p).get();
+        List<IabResult> results = task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR, p).get();
         assertThat(results).hasSize(1);
         assertThat(results.get(0).getResponse()).isEqualTo(ERROR);
 
@@ -72,7 +83,7 @@ public class ConsumeTaskTest {
         Purchase p1 = mock(Purchase.class);
         Purchase p2 = mock(Purchase.class);
 
-        List<IabResult> results = task.execute(p1, p2).get();
+        List<IabResult> results = task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR, p1, p2).get();
 
         assertThat(results).hasSize(2);
         assertThat(results.get(0).getResponse()).isEqualTo(OK);
@@ -83,13 +94,50 @@ public class ConsumeTaskTest {
         verify(consumeMultiFinishedListener).onConsumeMultiFinished(anyListOf(Purchase.class), anyListOf(IabResult.class));
     }
 
+    @Test public void shouldReportProgressForEachItem() throws Exception {
+        Purchase p1 = mock(Purchase.class);
+        Purchase p2 = mock(Purchase.class);
+        doThrow(new IabException(Response.ERROR, "error")).when(iabHelper).consume(p2);
+
+        task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR, p1, p2).get();
+
+        InOrder inOrder = inOrder(consumeProgressListener, consumeMultiFinishedListener);
+        inOrder.verify(consumeProgressListener).onConsumeProgress(p1, new IabResult(OK), 1, 2);
+        inOrder.verify(consumeProgressListener).onConsumeProgress(p2, new IabResult(ERROR), 2, 2);
+        inOrder.verify(consumeMultiFinishedListener).onConsumeMultiFinished(anyListOf(Purchase.class), anyListOf(IabResult.class));
+    }
+
+    @Test public void shouldReportProgressCountsInCallbackOrder() throws Exception {
+        Purchase p1 = mock(Purchase.class);
+        Purchase p2 = mock(Purchase.class);
+        // consumes running in parallel can post their progress in a different order than they finished
+        final LinkedList<Runnable> callbacks = new LinkedList<Runnable>();
+        Executor callbackExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                callbacks.addFirst(command);
+            }
+        };
+
+        task.execute(DIRECT_EXECUTOR, callbackExecutor, p1, p2).get();
+        while (!callbacks.isEmpty()) {
+            callbacks.removeFirst().run();
+        }
+
+        InOrder inOrder = inOrder(consumeProgressListener);
+        inOrder.verify(consumeProgressListener).onConsumeProgress(p2, new IabResult(OK), 1, 2);
+        inOrder.verify(consumeProgressListener).onConsumeProgress(p1, new IabResult(OK), 2, 2);
+    }
+
     @Test public void shouldNotNotifyListenerIfHelperWasDisposed() throws Exception {
         Purchase p = mock(Purchase.class);
 
         when(iabHelper.isDisposed()).thenReturn(true);
-        task.execute(p).get();
+        task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR, p).get();
 
+        verify(iabHelper).finishOperation(operation);
         verifyZeroInteractions(consumeFinishedListener);
         verifyZeroInteractions(consumeMultiFinishedListener);
+        verifyZeroInteractions(consumeProgressListener);
     }
 }
@@ -0,0 +1,414 @@
+package com.github.jberkel.pay.me;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.util.Base64;
+import com.android.vending.billing.IInAppBillingService;
+import com.github.jberkel.pay.me.model.ItemType;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.jberkel.pay.me.IabConsts.*;
+import static com.github.jberkel.pay.me.Response.*;
+import static com.github.jberkel.pay.me.model.ItemType.INAPP;
+import static com.github.jberkel.pay.me.model.ItemType.SUBS;
+
+/**
+ * An in-process stand-in for the Google Play billing service, backed by an in-memory catalog
+ * and purchase ledger. Unlike a mock it behaves like the real service: purchases are returned
+ * in pages with continuation tokens, the number of skus per details request is limited,
+ * consumed items disappear and responses are signed with a generated RSA key, so they pass
+ * the {@link com.github.jberkel.pay.me.validator.DefaultSignatureValidator} created with
+ * {@link #getBase64PublicKey()}.
+ * <p/>
+ * Every call can be slowed down by a fixed latency and made to fail, to load test
+ * {@link IabHelper} without a device. Purchase flows are completed with {@link #completePurchase()}
+ * or {@link #cancelPurchase()}, which return the data to pass to {@link IabHelper#handleActivityResult}.
+ * This class is thread-safe.
+ */
+public class FakeBillingService extends IInAppBillingService.Stub {
+    /** The service methods, to configure latency and failures per call */
+    public enum Call {
+        IS_BILLING_SUPPORTED,
+        GET_SKU_DETAILS,
+        GET_BUY_INTENT,
+        GET_PURCHASES,
+        CONSUME_PURCHASE
+    }
+
+    private static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+
+    private final Context mContext;
+    private final KeyPair mKeyPair;
+    // sku -> details json
+    private final Map<String, String> mCatalog = new LinkedHashMap<String, String>();
+    private final Map<String, ItemType> mCatalogTypes = new LinkedHashMap<String, ItemType>();
+    // purchases by token, in purchase order
+    private final Map<String, FakePurchase> mLedger = new LinkedHashMap<String, FakePurchase>();
+    private final Map<Call, Long> mLatency = new EnumMap<Call, Long>(Call.class);
+    private final Map<Call, LinkedList<Failure>> mFailures = new EnumMap<Call, LinkedList<Failure>>(Call.class);
+    private final Map<Call, AtomicInteger> mCallCounts = new EnumMap<Call, AtomicInteger>(Call.class);
+    private int mPageSize = Integer.MAX_VALUE;
+    private int mMaxSkusPerRequest = MAX_SKU_DETAILS_PER_REQUEST;
+    private boolean mSubscriptionsSupported = true;
+    private int mPurchaseCounter;
+    private FakePurchase mPendingPurchase;
+
+    /**
+     * @param context used to create the buy intents
+     */
+    public FakeBillingService(Context context) {
+        if (context == null) throw new IllegalArgumentException("context cannot be null");
+        mContext = context;
+        try {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(1024);
+            mKeyPair = generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        for (Call call : Call.values()) {
+            mLatency.put(call, 0L);
+            mFailures.put(call, new LinkedList<Failure>());
+            mCallCounts.put(call, new AtomicInteger());
+        }
+    }
+
+    /**
+     * @return the public key of the key the responses are signed with, encoded like the one
+     * in the Developer Console.
+     */
+    public String getBase64PublicKey() {
+        return Base64.encodeToString(mKeyPair.getPublic().getEncoded(), Base64.NO_WRAP);
+    }
+
+    /** Adds a product to the catalog. */
+    public synchronized void addSku(String sku, ItemType itemType, String price, long priceMicros) {
+        if (sku == null) throw new IllegalArgumentException("sku cannot be null");
+        if (itemType != INAPP && itemType != SUBS) throw new IllegalArgumentException("invalid item type " + itemType);
+        try {
+            mCatalog.put(sku, new JSONObject()
+                    .put("productId", sku)
+                    .put("type", itemType.toString())
+                    .put("price", price)
+                    .put("price_amount_micros", priceMicros)
+                    .put("price_currency_code", "USD")
+                    .put("title", "Title of " + sku)
+                    .put("description", "Description of " + sku)
+                    .toString());
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        mCatalogTypes.put(sku, itemType);
+    }
+
+    /**
+     * Adds an owned item to the purchase ledger, without a purchase flow.
+     *
+     * @return the token of the purchase
+     */
+    public synchronized String addPurchase(String sku, String developerPayload) {
+        final FakePurchase purchase = createPurchase(sku, developerPayload);
+        mLedger.put(purchase.token, purchase);
+        return purchase.token;
+    }
+
+    /** @return the number of purchases of the given type in the ledger */
+    public synchronized int getPurchaseCount(ItemType itemType) {
+        int count = 0;
+        for (FakePurchase purchase : mLedger.values()) {
+            if (purchase.itemType == itemType) count++;
+        }
+        return count;
+    }
+
+    /** Sets the latency of every call. */
+    public synchronized void setLatency(long millis) {
+        for (Call call : Call.values()) {
+            setLatency(call, millis);
+        }
+    }
+
+    /** Sets the latency of a single call. */
+    public synchronized void setLatency(Call call, long millis) {
+        if (millis < 0) throw new IllegalArgumentException("negative latency");
+        mLatency.put(call, millis);
+    }
+
+    /** Sets the maximum number of purchases returned by a single getPurchases call. */
+    public synchronized void setPageSize(int pageSize) {
+        if (pageSize <= 0) throw new IllegalArgumentException("invalid page size " + pageSize);
+        mPageSize = pageSize;
+    }
+
+    /** Sets the maximum number of skus in a getSkuDetails call, more fail with a developer error. */
+    public synchronized void setMaxSkusPerRequest(int max) {
+        if (max <= 0) throw new IllegalArgumentException("invalid maximum " + max);
+        mMaxSkusPerRequest = max;
+    }
+
+    public synchronized void setSubscriptionsSupported(boolean supported) {
+        mSubscriptionsSupported = supported;
+    }
+
+    /** Makes the next call of the given method return <code>response</code>. Failures are queued. */
+    public synchronized void failNext(Call call, Response response) {
+        if (response == null || response == OK) throw new IllegalArgumentException("invalid response " + response);
+        mFailures.get(call).add(new Failure(response));
+    }
+
+    /** Makes the next call of the given method throw a {@link RemoteException}. Failures are queued. */
+    public synchronized void failNextWithRemoteException(Call call) {
+        mFailures.get(call).add(new Failure(null));
+    }
+
+    /** @return how often a method has been called, including failed calls */
+    public int getCallCount(Call call) {
+        return mCallCounts.get(call).get();
+    }
+
+    /**
+     * Completes the purchase flow started by the last {@link #getBuyIntent} call.
+     *
+     * @return the data to pass to {@link IabHelper#handleActivityResult}, with result code
+     * {@link android.app.Activity#RESULT_OK}
+     */
+    public synchronized Intent completePurchase() {
+        final FakePurchase purchase = takePendingPurchase();
+        mLedger.put(purchase.token, purchase);
+        final Intent data = new Intent();
+        data.putExtra(RESPONSE_CODE, OK.code);
+        data.putExtra(RESPONSE_INAPP_PURCHASE_DATA, purchase.json);
+        data.putExtra(RESPONSE_INAPP_SIGNATURE, purchase.signature);
+        return data;
+    }
+
+    /**
+     * Cancels the purchase flow started by the last {@link #getBuyIntent} call.
+     *
+     * @return the data to pass to {@link IabHelper#handleActivityResult}, with result code
+     * {@link android.app.Activity#RESULT_CANCELED}
+     */
+    public synchronized Intent cancelPurchase() {
+        takePendingPurchase();
+        final Intent data = new Intent();
+        data.putExtra(RESPONSE_CODE, USER_CANCELED.code);
+        return data;
+    }
+
+    @Override
+    public int isBillingSupported(int apiVersion, String packageName, String type) throws RemoteException {
+        final Response failure = beginCall(Call.IS_BILLING_SUPPORTED);
+        if (failure != null) return failure.code;
+        if (apiVersion != API_VERSION) return BILLING_UNAVAILABLE.code;
+        final ItemType itemType = ItemType.fromString(type);
+        synchronized (this) {
+            if (itemType == INAPP || itemType == SUBS && mSubscriptionsSupported) {
+                return OK.code;
+            }
+        }
+        return BILLING_UNAVAILABLE.code;
+    }
+
+    @Override
+    public Bundle getSkuDetails(int apiVersion, String packageName, String type, Bundle skusBundle)
+            throws RemoteException {
+        final Response failure = beginCall(Call.GET_SKU_DETAILS);
+        if (failure != null) return response(failure);
+        final List<String> skus = skusBundle == null ? null : skusBundle.getStringArrayList(GET_SKU_DETAILS_ITEM_LIST);
+        final ItemType itemType = ItemType.fromString(type);
+        final ArrayList<String> details = new ArrayList<String>();
+        synchronized (this) {
+            if (skus == null || skus.size() > mMaxSkusPerRequest) return response(DEVELOPER_ERROR);
+            for (String sku : skus) {
+                // unknown skus are left out, like the real service does
+                if (mCatalogTypes.get(sku) == itemType) details.add(mCatalog.get(sku));
+            }
+        }
+        final Bundle bundle = response(OK);
+        bundle.putStringArrayList(RESPONSE_GET_SKU_DETAILS_LIST, details);
+        return bundle;
+    }
+
+    @Override
+    public Bundle getBuyIntent(int apiVersion, String packageName, String sku, String type, String developerPayload)
+            throws RemoteException {
+        final Response failure = beginCall(Call.GET_BUY_INTENT);
+        if (failure != null) return response(failure);
+        synchronized (this) {
+            final ItemType itemType = mCatalogTypes.get(sku);
+            if (itemType == null || !itemType.toString().equals(type)) return response(ITEM_UNAVAILABLE);
+            for (FakePurchase purchase : mLedger.values()) {
+                if (purchase.sku.equals(sku)) return response(ITEM_ALREADY_OWNED);
+            }
+            mPendingPurchase = createPurchase(sku, developerPayload);
+        }
+        final Bundle bundle = response(OK);
+        bundle.putParcelable(RESPONSE_BUY_INTENT, PendingIntent.getActivity(mContext, 0, new Intent(), 0));
+        return bundle;
+    }
+
+    @Override
+    public Bundle getPurchases(int apiVersion, String packageName, String type, String continuationToken)
+            throws RemoteException {
+        final Response failure = beginCall(Call.GET_PURCHASES);
+        if (failure != null) return response(failure);
+        final ItemType itemType = ItemType.fromString(type);
+        final ArrayList<String> skus = new ArrayList<String>();
+        final ArrayList<String> data = new ArrayList<String>();
+        final ArrayList<String> signatures = new ArrayList<String>();
+        final int offset;
+        try {
+            offset = continuationToken == null ? 0 : Integer.parseInt(continuationToken);
+        } catch (NumberFormatException e) {
+            return response(DEVELOPER_ERROR);
+        }
+        String nextToken = null;
+        synchronized (this) {
+            int index = 0;
+            for (Iterator<FakePurchase> it = mLedger.values().iterator(); it.hasNext() && nextToken == null; ) {
+                final FakePurchase purchase = it.next();
+                if (purchase.itemType != itemType) continue;
+                if (index >= offset) {
+                    if (skus.size() == mPageSize) {
+                        nextToken = String.valueOf(index);
+                    } else {
+                        skus.add(purchase.sku);
+                        data.add(purchase.json);
+                        signatures.add(purchase.signature);
+                    }
+                }
+                index++;
+            }
+        }
+        final Bundle bundle = response(OK);
+        bundle.putStringArrayList(RESPONSE_INAPP_ITEM_LIST, skus);
+        bundle.putStringArrayList(RESPONSE_INAPP_PURCHASE_DATA_LIST, data);
+        bundle.putStringArrayList(RESPONSE_INAPP_SIGNATURE_LIST, signatures);
+        if (nextToken != null) bundle.putString(INAPP_CONTINUATION_TOKEN, nextToken);
+        return bundle;
+    }
+
+    @Override
+    public int consumePurchase(int apiVersion, String packageName, String purchaseToken) throws RemoteException {
+        final Response failure = beginCall(Call.CONSUME_PURCHASE);
+        if (failure != null) return failure.code;
+        synchronized (this) {
+            final FakePurchase purchase = mLedger.get(purchaseToken);
+            if (purchase == null || purchase.itemType != INAPP) return ITEM_NOT_OWNED.code;
+            mLedger.remove(purchaseToken);
+        }
+        return OK.code;
+    }
+
+    // counts the call, waits for its latency and returns the injected failure, if any
+    private Response beginCall(Call call) throws RemoteException {
+        mCallCounts.get(call).incrementAndGet();
+        final long latency;
+        final Failure failure;
+        synchronized (this) {
+            latency = mLatency.get(call);
+            failure = mFailures.get(call).poll();
+        }
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure == null) return null;
+        if (failure.response == null) throw new RemoteException();
+        return failure.response;
+    }
+
+    private FakePurchase takePendingPurchase() {
+        final FakePurchase purchase = mPendingPurchase;
+        if (purchase == null) throw new IllegalStateException("no purchase flow in progress");
+        mPendingPurchase = null;
+        return purchase;
+    }
+
+    private FakePurchase createPurchase(String sku, String developerPayload) {
+        final ItemType itemType = mCatalogTypes.get(sku);
+        if (itemType == null) throw new IllegalArgumentException("unknown sku " + sku);
+        final int id = ++mPurchaseCounter;
+        final String token = "token-" + id;
+        final String json;
+        try {
+            json = new JSONObject()
+                    .put("orderId", "order-" + id)
+                    .put("packageName", mContext.getPackageName())
+                    .put("productId", sku)
+                    .put("purchaseTime", System.currentTimeMillis())
+                    .put("purchaseState", 0)
+                    .put("developerPayload", developerPayload == null ? "" : developerPayload)
+                    .put("purchaseToken", token)
+                    .toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return new FakePurchase(sku, itemType, token, json, sign(json));
+    }
+
+    private String sign(String data) {
+        try {
+            final Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+            signature.initSign(mKeyPair.getPrivate());
+            signature.update(data.getBytes("UTF-8"));
+            return Base64.encodeToString(signature.sign(), Base64.NO_WRAP);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Bundle response(Response response) {
+        final Bundle bundle = new Bundle();
+        bundle.putInt(RESPONSE_CODE, response.code);
+        return bundle;
+    }
+
+    private static class FakePurchase {
+        final String sku;
+        final ItemType itemType;
+        final String token;
+        final String json;
+        final String signature;
+
+        FakePurchase(String sku, ItemType itemType, String token, String json, String signature) {
+            this.sku = sku;
+            this.itemType = itemType;
+            this.token = token;
+            this.json = json;
+            this.signature = signature;
+        }
+    }
+
+    private static class Failure {
+        // null means throw a RemoteException
+        final Response response;
+
+        Failure(Response response) {
+            this.response = response;
+        }
+    }
+}
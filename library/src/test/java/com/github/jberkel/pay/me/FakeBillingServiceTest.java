@@ -0,0 +1,171 @@
+package com.github.jberkel.pay.me;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.content.IntentSender;
+import android.content.pm.ResolveInfo;
+import android.os.IBinder;
+import com.android.vending.billing.IInAppBillingService;
+import com.github.jberkel.pay.me.listener.OnIabPurchaseFinishedListener;
+import com.github.jberkel.pay.me.listener.OnIabSetupFinishedListener;
+import com.github.jberkel.pay.me.model.Inventory;
+import com.github.jberkel.pay.me.model.Purchase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.res.builder.RobolectricPackageManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.jberkel.pay.me.FakeBillingService.Call.CONSUME_PURCHASE;
+import static com.github.jberkel.pay.me.FakeBillingService.Call.GET_PURCHASES;
+import static com.github.jberkel.pay.me.FakeBillingService.Call.GET_SKU_DETAILS;
+import static com.github.jberkel.pay.me.Response.*;
+import static com.github.jberkel.pay.me.TestHelper.DIRECT_EXECUTOR;
+import static com.github.jberkel.pay.me.model.ItemType.INAPP;
+import static com.github.jberkel.pay.me.model.ItemType.SUBS;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class FakeBillingServiceTest {
+    private static final int REQUEST_CODE = 42;
+
+    private FakeBillingService service;
+    private IabHelper helper;
+
+    @Before public void before() throws Exception {
+        service = new FakeBillingService(Robolectric.application);
+        for (int i = 0; i < 45; i++) {
+            service.addSku("sku" + i, INAPP, "$0.99", 990000);
+        }
+        service.addSku("sub", SUBS, "$4.99", 4990000);
+
+        helper = new IabHelper(Robolectric.application, service.getBase64PublicKey()) {
+            @Override
+            protected IInAppBillingService getInAppBillingService(IBinder binder) {
+                return service;
+            }
+        };
+        helper.setExecutors(DIRECT_EXECUTOR, DIRECT_EXECUTOR);
+        RobolectricPackageManager pm = (RobolectricPackageManager) Robolectric.application.getPackageManager();
+        pm.addResolveInfoForIntent(IabHelper.BIND_BILLING_SERVICE, new ResolveInfo());
+        OnIabSetupFinishedListener setupListener = mock(OnIabSetupFinishedListener.class);
+        helper.startSetup(setupListener);
+        verify(setupListener).onIabSetupFinished(new IabResult(OK));
+    }
+
+    @Test public void shouldReturnSignedPurchasesInPages() throws Exception {
+        for (int i = 0; i < 45; i++) {
+            service.addPurchase("sku" + i, "payload");
+        }
+        service.addPurchase("sub", null);
+        service.setPageSize(10);
+
+        Inventory inventory = helper.queryInventory(true, null, null);
+
+        assertThat(inventory.getPurchases(INAPP)).hasSize(45);
+        assertThat(inventory.getPurchases(SUBS)).hasSize(1);
+        assertThat(inventory.getPurchase("sku44").getDeveloperPayload()).isEqualTo("payload");
+        assertThat(inventory.getSkuDetails("sku44").getPrice()).isEqualTo("$0.99");
+        assertThat(inventory.getSkuDetails("sub").getPrice()).isEqualTo("$4.99");
+        // 5 pages of in-app purchases, one of subscriptions
+        assertThat(service.getCallCount(GET_PURCHASES)).isEqualTo(6);
+        // 20 + 20 + 5 in-app skus, one subscription
+        assertThat(service.getCallCount(GET_SKU_DETAILS)).isEqualTo(4);
+    }
+
+    @Test public void shouldRejectTooManySkusPerRequest() throws Exception {
+        service.setMaxSkusPerRequest(10);
+        service.addPurchase("sku0", null);
+        try {
+            helper.queryInventory(true, asList(30), null);
+            fail("expected exception");
+        } catch (IabException e) {
+            assertThat(e.getResult().getResponse()).isEqualTo(DEVELOPER_ERROR);
+        }
+    }
+
+    @Test public void shouldConsumePurchase() throws Exception {
+        service.addPurchase("sku0", null);
+        Purchase purchase = helper.queryInventory(false, null, null).getPurchase("sku0");
+
+        helper.consume(purchase);
+
+        assertThat(service.getPurchaseCount(INAPP)).isEqualTo(0);
+        try {
+            helper.consume(purchase);
+            fail("expected exception");
+        } catch (IabException e) {
+            assertThat(e.getResult().getResponse()).isEqualTo(ITEM_NOT_OWNED);
+        }
+    }
+
+    @Test public void shouldCompletePurchaseFlow() throws Exception {
+        OnIabPurchaseFinishedListener listener = mock(OnIabPurchaseFinishedListener.class);
+        Activity activity = mock(Activity.class);
+        helper.launchPurchaseFlow(activity, "sku1", INAPP, REQUEST_CODE, listener, "payload");
+        verify(activity).startIntentSenderForResult(any(IntentSender.class), eq(REQUEST_CODE), any(Intent.class), eq(0), eq(0), eq(0));
+
+        assertThat(helper.handleActivityResult(REQUEST_CODE, Activity.RESULT_OK, service.completePurchase())).isTrue();
+
+        ArgumentCaptor<Purchase> purchase = ArgumentCaptor.forClass(Purchase.class);
+        verify(listener).onIabPurchaseFinished(eq(new IabResult(OK)), purchase.capture());
+        assertThat(purchase.getValue().getSku()).isEqualTo("sku1");
+        assertThat(purchase.getValue().getDeveloperPayload()).isEqualTo("payload");
+        assertThat(helper.queryInventory(false, null, null).hasPurchase("sku1")).isTrue();
+    }
+
+    @Test public void shouldNotBuyOwnedItem() throws Exception {
+        service.addPurchase("sku1", null);
+        OnIabPurchaseFinishedListener listener = mock(OnIabPurchaseFinishedListener.class);
+
+        helper.launchPurchaseFlow(mock(Activity.class), "sku1", INAPP, REQUEST_CODE, listener, "");
+
+        verify(listener).onIabPurchaseFinished(eq(new IabResult(ITEM_ALREADY_OWNED)), any(Purchase.class));
+    }
+
+    @Test public void shouldInjectFailures() throws Exception {
+        service.failNext(GET_PURCHASES, ERROR);
+        service.failNextWithRemoteException(GET_PURCHASES);
+        try {
+            helper.queryInventory(false, null, null);
+            fail("expected exception");
+        } catch (IabException e) {
+            assertThat(e.getResult().getResponse()).isEqualTo(ERROR);
+        }
+        try {
+            helper.queryInventory(false, null, null);
+            fail("expected exception");
+        } catch (IabException e) {
+            assertThat(e.getResult().getResponse()).isEqualTo(IABHELPER_REMOTE_EXCEPTION);
+        }
+        assertThat(helper.queryInventory(false, null, null).getAllPurchases()).isEmpty();
+    }
+
+    @Test public void shouldDelayCalls() throws Exception {
+        service.setLatency(CONSUME_PURCHASE, 50);
+        service.addPurchase("sku0", null);
+        Purchase purchase = helper.queryInventory(false, null, null).getPurchase("sku0");
+
+        long start = System.currentTimeMillis();
+        helper.consume(purchase);
+        assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(50);
+    }
+
+    private static List<String> asList(int count) {
+        List<String> skus = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            skus.add("sku" + i);
+        }
+        return skus;
+    }
+}
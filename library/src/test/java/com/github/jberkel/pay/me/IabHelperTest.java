@@ -6,25 +6,37 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentSender;
 import android.content.ServiceConnection;
+import android.content.SharedPreferences;
 import android.content.pm.ResolveInfo;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.os.RemoteException;
 import com.android.vending.billing.IInAppBillingService;
+import com.github.jberkel.pay.me.listener.InventoryChangedListener;
 import com.github.jberkel.pay.me.listener.OnConsumeFinishedListener;
 import com.github.jberkel.pay.me.listener.OnConsumeMultiFinishedListener;
+import com.github.jberkel.pay.me.listener.OnConsumeProgressListener;
 import com.github.jberkel.pay.me.listener.OnIabPurchaseFinishedListener;
 import com.github.jberkel.pay.me.listener.OnIabSetupFinishedListener;
+import com.github.jberkel.pay.me.listener.OnPurchasesPageListener;
 import com.github.jberkel.pay.me.listener.QueryInventoryFinishedListener;
+import com.github.jberkel.pay.me.listener.QueryPurchasesListener;
 import com.github.jberkel.pay.me.model.Inventory;
+import com.github.jberkel.pay.me.model.InventoryDiff;
+import com.github.jberkel.pay.me.model.JsonParsing;
 import com.github.jberkel.pay.me.model.Purchase;
+import com.github.jberkel.pay.me.model.SkuDetails;
 import com.github.jberkel.pay.me.validator.SignatureValidator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.res.builder.RobolectricPackageManager;
@@ -36,6 +48,8 @@ import java.util.List;
 
 import static com.github.jberkel.pay.me.IabConsts.*;
 import static com.github.jberkel.pay.me.Response.*;
+import static com.github.jberkel.pay.me.TestHelper.DIRECT_EXECUTOR;
+import static com.github.jberkel.pay.me.TestHelper.QueueingExecutor;
 import static com.github.jberkel.pay.me.model.ItemType.INAPP;
 import static com.github.jberkel.pay.me.model.ItemType.SUBS;
 import static org.fest.assertions.api.Assertions.assertThat;
@@ -68,6 +82,7 @@ public class IabHelperTest {
                 return service;
             }
         };
+        helper.setExecutors(DIRECT_EXECUTOR, DIRECT_EXECUTOR);
         helper.enableDebugLogging(true, getClass().getSimpleName());
         ShadowLog.stream = System.out;
     }
@@ -441,6 +456,154 @@ public class IabHelperTest {
                 eq(new IabResult(IABHELPER_VERIFICATION_FAILED)), any(Purchase.class));
     }
 
+    @Test public void shouldVerifyPurchaseInBackground() throws Exception {
+        shouldStartIntentAfterSuccessfulLaunchPurchase();
+        helper.enableAsyncPurchaseVerification(true);
+        QueueingExecutor background = new QueueingExecutor();
+        QueueingExecutor callbacks = new QueueingExecutor();
+        helper.setExecutors(background, callbacks);
+
+        Intent data = new Intent();
+        data.putExtra(RESPONSE_CODE, OK.code);
+        data.putExtra(RESPONSE_INAPP_PURCHASE_DATA, "{ \"productId\": \"foo\" }");
+        data.putExtra(RESPONSE_INAPP_SIGNATURE, "");
+
+        assertThat(helper.handleActivityResult(TEST_REQUEST_CODE, Activity.RESULT_OK, data)).isTrue();
+        verify(signatureValidator, never()).validate(anyString(), anyString());
+        assertThat(helper.getRunningOperationCount()).isEqualTo(1);
+
+        background.runAll();
+        verify(signatureValidator).validate("{ \"productId\": \"foo\" }", "");
+        verifyZeroInteractions(purchaseFinishedListener);
+
+        callbacks.runAll();
+        verify(purchaseFinishedListener).onIabPurchaseFinished(eq(new IabResult(OK)), any(Purchase.class));
+        assertThat(helper.getRunningOperationCount()).isEqualTo(0);
+    }
+
+    @Test public void shouldReportFailedVerificationInBackground() throws Exception {
+        shouldStartIntentAfterSuccessfulLaunchPurchase();
+        helper.enableAsyncPurchaseVerification(true);
+        when(signatureValidator.validate(anyString(), anyString())).thenReturn(false);
+
+        Intent data = new Intent();
+        data.putExtra(RESPONSE_CODE, OK.code);
+        data.putExtra(RESPONSE_INAPP_PURCHASE_DATA, "{ \"productId\": \"foo\" }");
+        data.putExtra(RESPONSE_INAPP_SIGNATURE, "some signature");
+
+        assertThat(helper.handleActivityResult(TEST_REQUEST_CODE, Activity.RESULT_OK, data)).isTrue();
+        verify(purchaseFinishedListener).onIabPurchaseFinished(
+                eq(new IabResult(IABHELPER_VERIFICATION_FAILED)), any(Purchase.class));
+    }
+
+    @Test public void shouldReportCanceledPurchaseImmediatelyWithAsyncVerification() throws Exception {
+        shouldStartIntentAfterSuccessfulLaunchPurchase();
+        helper.enableAsyncPurchaseVerification(true);
+        helper.setExecutors(new QueueingExecutor(), new QueueingExecutor());
+        Intent data = new Intent();
+        data.putExtra(RESPONSE_CODE, ITEM_UNAVAILABLE.code);
+
+        assertThat(helper.handleActivityResult(TEST_REQUEST_CODE, Activity.RESULT_CANCELED, data)).isTrue();
+        verify(purchaseFinishedListener).onIabPurchaseFinished(new IabResult(ITEM_UNAVAILABLE), null);
+        assertThat(helper.getRunningOperationCount()).isEqualTo(0);
+    }
+
+    @Test public void shouldHandleResultOfPurchaseFlowLaunchedBeforeProcessRecreation() throws Exception {
+        helper.enablePurchaseFlowPersistence(true);
+        shouldStartIntentAfterSuccessfulLaunchPurchase();
+
+        IabHelper recreated = new IabHelper(Robolectric.application, signatureValidator);
+        recreated.enablePurchaseFlowPersistence(true);
+        OnIabPurchaseFinishedListener listener = mock(OnIabPurchaseFinishedListener.class);
+        Intent data = new Intent();
+        data.putExtra(RESPONSE_CODE, OK.code);
+        data.putExtra(RESPONSE_INAPP_PURCHASE_DATA, "{ \"productId\": \"sku\" }");
+        data.putExtra(RESPONSE_INAPP_SIGNATURE, "");
+
+        // not set up yet
+        assertThat(recreated.handleActivityResult(TEST_REQUEST_CODE, Activity.RESULT_OK, data, listener)).isTrue();
+
+        ArgumentCaptor<Purchase> purchase = ArgumentCaptor.forClass(Purchase.class);
+        verify(listener).onIabPurchaseFinished(eq(new IabResult(OK)), purchase.capture());
+        assertThat(purchase.getValue().getSku()).isEqualTo("sku");
+        assertThat(purchase.getValue().getItemType()).isEqualTo(INAPP);
+        verifyZeroInteractions(purchaseFinishedListener);
+    }
+
+    @Test public void shouldRejectRestoredPurchaseOfOtherSku() throws Exception {
+        helper.enablePurchaseFlowPersistence(true);
+        shouldStartIntentAfterSuccessfulLaunchPurchase();
+
+        IabHelper recreated = new IabHelper(Robolectric.application, signatureValidator);
+        recreated.enablePurchaseFlowPersistence(true);
+        OnIabPurchaseFinishedListener listener = mock(OnIabPurchaseFinishedListener.class);
+        Intent data = new Intent();
+        data.putExtra(RESPONSE_CODE, OK.code);
+        data.putExtra(RESPONSE_INAPP_PURCHASE_DATA, "{ \"productId\": \"other\" }");
+        data.putExtra(RESPONSE_INAPP_SIGNATURE, "");
+
+        assertThat(recreated.handleActivityResult(TEST_REQUEST_CODE, Activity.RESULT_OK, data, listener)).isTrue();
+        verify(listener).onIabPurchaseFinished(eq(new IabResult(IABHELPER_VERIFICATION_FAILED)), any(Purchase.class));
+    }
+
+    @Test public void shouldRejectRestoredPurchaseWithOtherDeveloperPayload() throws Exception {
+        helper.enablePurchaseFlowPersistence(true);
+        shouldStartSetup_SuccessCase();
+        Bundle response = new Bundle();
+        response.putParcelable(RESPONSE_BUY_INTENT, PendingIntent.getActivity(Robolectric.application, 0, new Intent(), 0));
+        when(service.getBuyIntent(API_VERSION, Robolectric.application.getPackageName(), "sku", "inapp", "payload")).thenReturn(response);
+        helper.launchPurchaseFlow(mock(Activity.class), "sku", INAPP, TEST_REQUEST_CODE, purchaseFinishedListener, "payload");
+
+        IabHelper recreated = new IabHelper(Robolectric.application, signatureValidator);
+        recreated.enablePurchaseFlowPersistence(true);
+        OnIabPurchaseFinishedListener listener = mock(OnIabPurchaseFinishedListener.class);
+        Intent data = new Intent();
+        data.putExtra(RESPONSE_CODE, OK.code);
+        data.putExtra(RESPONSE_INAPP_PURCHASE_DATA, "{ \"productId\": \"sku\", \"developerPayload\": \"forged\" }");
+        data.putExtra(RESPONSE_INAPP_SIGNATURE, "");
+
+        assertThat(recreated.handleActivityResult(TEST_REQUEST_CODE, Activity.RESULT_OK, data, listener)).isTrue();
+        verify(listener).onIabPurchaseFinished(eq(new IabResult(IABHELPER_VERIFICATION_FAILED)), any(Purchase.class));
+    }
+
+    @Test public void shouldKeepOtherPreferencesWhenClearingPurchaseFlow() throws Exception {
+        SharedPreferences preferences = Robolectric.application.getSharedPreferences(
+                PurchaseFlowState.PREFERENCES_NAME, Context.MODE_PRIVATE);
+        preferences.edit().putString("other", "value").commit();
+        helper.enablePurchaseFlowPersistence(true);
+        shouldStartIntentAfterSuccessfulLaunchPurchase();
+
+        assertThat(helper.handleActivityResult(TEST_REQUEST_CODE, Activity.RESULT_CANCELED, new Intent())).isTrue();
+        assertThat(preferences.getString("other", null)).isEqualTo("value");
+    }
+
+    @Test public void shouldClearPersistedPurchaseFlowOnceHandled() throws Exception {
+        helper.enablePurchaseFlowPersistence(true);
+        shouldStartIntentAfterSuccessfulLaunchPurchase();
+        assertThat(helper.handleActivityResult(TEST_REQUEST_CODE, Activity.RESULT_CANCELED, new Intent())).isTrue();
+
+        IabHelper recreated = new IabHelper(Robolectric.application, signatureValidator);
+        recreated.enablePurchaseFlowPersistence(true);
+        assertThat(recreated.handleActivityResult(TEST_REQUEST_CODE, Activity.RESULT_CANCELED, new Intent())).isFalse();
+    }
+
+    @Test public void shouldNotRestorePurchaseFlowWithDifferentRequestCode() throws Exception {
+        helper.enablePurchaseFlowPersistence(true);
+        shouldStartIntentAfterSuccessfulLaunchPurchase();
+
+        IabHelper recreated = new IabHelper(Robolectric.application, signatureValidator);
+        recreated.enablePurchaseFlowPersistence(true);
+        assertThat(recreated.handleActivityResult(TEST_REQUEST_CODE + 1, Activity.RESULT_CANCELED, new Intent())).isFalse();
+    }
+
+    @Test public void shouldNotRestorePurchaseFlowWithoutPersistence() throws Exception {
+        helper.enablePurchaseFlowPersistence(true);
+        shouldStartIntentAfterSuccessfulLaunchPurchase();
+
+        IabHelper recreated = new IabHelper(Robolectric.application, signatureValidator);
+        assertThat(recreated.handleActivityResult(TEST_REQUEST_CODE, Activity.RESULT_CANCELED, new Intent())).isFalse();
+    }
+
     // inventory
 
     @Test public void shouldQueryInventoryWithoutSubscriptions() throws Exception {
@@ -487,6 +650,47 @@ public class IabHelperTest {
         assertThat(inventory.getSkuDetails()).hasSize(1);
     }
 
+    @Test public void shouldReportServiceCallsToBillingMetrics() throws Exception {
+        BillingMetrics metrics = mock(BillingMetrics.class);
+        helper.setBillingMetrics(metrics);
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenThrow(new RemoteException());
+        try {
+            helper.queryInventory(false, null, null);
+            fail("expected exception");
+        } catch (IabException e) {
+            assertThat(e.getResult().getResponse()).isEqualTo(IABHELPER_REMOTE_EXCEPTION);
+        }
+
+        verify(metrics).onServiceCall(eq(ServiceCall.IS_BILLING_SUPPORTED), eq(INAPP), eq(OK.code), anyLong());
+        verify(metrics).onServiceCall(eq(ServiceCall.IS_BILLING_SUPPORTED), eq(SUBS), eq(BILLING_UNAVAILABLE.code), anyLong());
+        verify(metrics).onServiceCall(eq(ServiceCall.GET_PURCHASES), eq(INAPP), eq(IABHELPER_REMOTE_EXCEPTION.code), anyLong());
+        verifyNoMoreInteractions(metrics);
+    }
+
+    @Test public void shouldReportStageTimesOfInventoryQuery() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        StageTimer timer = mock(StageTimer.class);
+        helper.setStageTimer(timer);
+
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo"));
+        when(service.getSkuDetails(eq(API_VERSION),
+                eq(Robolectric.application.getPackageName()),
+                eq("inapp"),
+                TestHelper.BundleStringArrayListMatcher.bundleWithStringValues(GET_SKU_DETAILS_ITEM_LIST, "foo")))
+                .thenReturn(createSkuDetailsResponseBundle("foo"));
+
+        helper.queryInventory(true, null, null);
+
+        verify(timer, times(2)).onStage(eq(StageTimer.Stage.BINDER), anyLong());
+        verify(timer, times(2)).onStage(eq(StageTimer.Stage.PARSE), anyLong());
+        verify(timer).onStage(eq(StageTimer.Stage.VERIFY), anyLong());
+        verify(timer, times(2)).onStage(eq(StageTimer.Stage.MERGE), anyLong());
+    }
+
     @Test public void shouldQueryInventoryWithoutSubscriptionsButSkuDetailsAndMoreSkus() throws Exception {
         shouldStartSetup_CheckForSubscriptions_Unavailable();
 
@@ -510,6 +714,140 @@ public class IabHelperTest {
         assertThat(inventory.getSkuDetails()).hasSize(1);
     }
 
+    @Test public void shouldQueryInventorySkuDetailsInChunks() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        helper.setMaxParallelRequests(2);
+
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle());
+
+        when(service.getSkuDetails(eq(API_VERSION),
+                eq(Robolectric.application.getPackageName()),
+                eq("inapp"),
+                any(Bundle.class)))
+                .thenAnswer(new Answer<Bundle>() {
+                    @Override public Bundle answer(InvocationOnMock invocation) throws Throwable {
+                        Bundle request = (Bundle) invocation.getArguments()[3];
+                        List<String> skus = request.getStringArrayList(GET_SKU_DETAILS_ITEM_LIST);
+                        assertThat(skus.size()).isLessThanOrEqualTo(MAX_SKU_DETAILS_PER_REQUEST);
+                        return createSkuDetailsResponseBundle(skus.toArray(new String[skus.size()]));
+                    }
+                });
+
+        ArrayList<String> skus = new ArrayList<String>();
+        for (int i = 0; i < 45; i++) {
+            skus.add("sku" + i);
+        }
+        Inventory inventory = helper.queryInventory(true, skus, null);
+
+        verify(service, times(3)).getSkuDetails(eq(API_VERSION),
+                eq(Robolectric.application.getPackageName()),
+                eq("inapp"),
+                any(Bundle.class));
+        assertThat(inventory.getSkuDetails()).hasSize(45);
+        for (String sku : skus) {
+            assertThat(inventory.hasDetails(sku)).isTrue();
+        }
+    }
+
+    @Test public void shouldQueryInventorySkuDetailsInChunksWithError() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle());
+
+        Bundle error = new Bundle();
+        error.putInt(RESPONSE_CODE, ERROR.code);
+
+        when(service.getSkuDetails(eq(API_VERSION),
+                eq(Robolectric.application.getPackageName()),
+                eq("inapp"),
+                any(Bundle.class)))
+                .thenReturn(createSkuDetailsResponseBundle("sku0"))
+                .thenReturn(error);
+
+        ArrayList<String> skus = new ArrayList<String>();
+        for (int i = 0; i < 30; i++) {
+            skus.add("sku" + i);
+        }
+        try {
+            helper.queryInventory(true, skus, null);
+            fail("expected exception");
+        } catch (IabException e) {
+            assertThat(e.getResult()).isEqualTo(new IabResult(ERROR));
+        }
+    }
+
+    @Test public void shouldQueryInventoryAndServeSkuDetailsFromCache() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        SkuDetailsCache cache = new SkuDetailsCache(10, 60 * 1000);
+        helper.setSkuDetailsCache(cache);
+
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo"));
+
+        when(service.getSkuDetails(eq(API_VERSION),
+                eq(Robolectric.application.getPackageName()),
+                eq("inapp"),
+                TestHelper.BundleStringArrayListMatcher.bundleWithStringValues(GET_SKU_DETAILS_ITEM_LIST, "foo")))
+                .thenReturn(createSkuDetailsResponseBundle("foo"));
+
+        assertThat(helper.queryInventory(true, null, null).hasDetails("foo")).isTrue();
+        assertThat(helper.queryInventory(true, null, null).hasDetails("foo")).isTrue();
+
+        verify(service, times(1)).getSkuDetails(eq(API_VERSION),
+                eq(Robolectric.application.getPackageName()),
+                eq("inapp"),
+                any(Bundle.class));
+        assertThat(cache.missCount()).isEqualTo(1);
+        assertThat(cache.hitCount()).isEqualTo(1);
+    }
+
+    @Test public void shouldQueryInventoryAndOnlyQueryUncachedSkuDetails() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        SkuDetailsCache cache = new SkuDetailsCache(10, 60 * 1000);
+        cache.put(new SkuDetails("{ \"productId\": \"foo\" }"));
+        helper.setSkuDetailsCache(cache);
+
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo"));
+
+        when(service.getSkuDetails(eq(API_VERSION),
+                eq(Robolectric.application.getPackageName()),
+                eq("inapp"),
+                TestHelper.BundleStringArrayListMatcher.bundleWithStringValues(GET_SKU_DETAILS_ITEM_LIST, "bar")))
+                .thenReturn(createSkuDetailsResponseBundle("bar"));
+
+        Inventory inventory = helper.queryInventory(true, asArrayList("bar"), null);
+        assertThat(inventory.getSkuDetails()).hasSize(2);
+        assertThat(cache.get("bar")).isNotNull();
+    }
+
+    @Test public void shouldQueryStaleSkuDetailsWhenNoBackgroundThreadIsAvailable() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        helper.setMaxParallelRequests(1);
+        SkuDetailsCache cache = new SkuDetailsCache(10, 0);
+        cache.put(new SkuDetails("{ \"productId\": \"foo\", \"price\": \"1.00\" }"));
+        helper.setSkuDetailsCache(cache);
+
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo"));
+
+        when(service.getSkuDetails(eq(API_VERSION),
+                eq(Robolectric.application.getPackageName()),
+                eq("inapp"),
+                TestHelper.BundleStringArrayListMatcher.bundleWithStringValues(GET_SKU_DETAILS_ITEM_LIST, "foo")))
+                .thenReturn(createSkuDetailsResponseBundle("foo"));
+
+        Inventory inventory = helper.queryInventory(true, null, null);
+        assertThat(inventory.getSkuDetails("foo").getPrice()).isEmpty();
+        assertThat(cache.get("foo").getPrice()).isEmpty();
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void shouldRequireAtLeastOneParallelRequest() throws Exception {
+        helper.setMaxParallelRequests(0);
+    }
+
     @Test(expected = IabException.class) public void shouldQueryInventoryWithoutSubscriptionsButSkuDetailsAndSkuError() throws Exception {
         shouldStartSetup_CheckForSubscriptions_Unavailable();
 
@@ -672,6 +1010,69 @@ public class IabHelperTest {
     }
 
 
+    @Test public void shouldQueryInventoryWithSubscriptionsAndSkusInParallel() throws Exception {
+        shouldStartSetup_SuccessCase();
+        helper.enableParallelQueries(true);
+
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo"));
+
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "subs", null))
+                .thenReturn(createInventoryResponseBundle("bar"));
+
+        when(service.getSkuDetails(eq(API_VERSION),
+                eq(Robolectric.application.getPackageName()),
+                eq("inapp"),
+                any(Bundle.class)))
+                .thenReturn(createSkuDetailsResponseBundle("foo"));
+
+        when(service.getSkuDetails(eq(API_VERSION),
+                eq(Robolectric.application.getPackageName()),
+                eq("subs"),
+                any(Bundle.class)))
+                .thenReturn(createSkuDetailsResponseBundle("bar"));
+
+        Inventory inventory = helper.queryInventory(true, null ,null);
+
+        assertThat(inventory.getAllOwnedSkus(INAPP)).containsExactly("foo");
+        assertThat(inventory.getAllOwnedSkus(SUBS)).containsExactly("bar");
+        assertThat(inventory.getSkuDetails()).hasSize(2);
+    }
+
+    @Test public void shouldQueryInventoryInParallelAndReportInAppErrorFirst() throws Exception {
+        shouldStartSetup_SuccessCase();
+        helper.enableParallelQueries(true);
+
+        Bundle inAppError = new Bundle();
+        inAppError.putInt(RESPONSE_CODE, DEVELOPER_ERROR.code);
+        Bundle subsError = new Bundle();
+        subsError.putInt(RESPONSE_CODE, ERROR.code);
+
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(inAppError);
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "subs", null))
+                .thenReturn(subsError);
+
+        try {
+            helper.queryInventory(false, null, null);
+            fail("expected exception");
+        } catch (IabException e) {
+            assertThat(e.getResult()).isEqualTo(new IabResult(DEVELOPER_ERROR));
+        }
+    }
+
+    @Test(expected = IabException.class) public void shouldQueryInventoryInParallelRemoteException() throws Exception {
+        shouldStartSetup_SuccessCase();
+        helper.enableParallelQueries(true);
+
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo"));
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "subs", null))
+                .thenThrow(new RemoteException());
+
+        helper.queryInventory(false, null, null);
+    }
+
     @Test(expected = IabException.class) public void shouldQueryInventoryRemoteException() throws Exception {
         shouldStartSetup_SuccessCase();
 
@@ -756,6 +1157,41 @@ public class IabHelperTest {
         verify(listener).onQueryInventoryFinished(eq(new IabResult(OK)), any(Inventory.class));
     }
 
+    @Test public void queryInventoryAsyncShouldCoalesceConcurrentQueries() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+
+        QueryInventoryFinishedListener first = mock(QueryInventoryFinishedListener.class);
+        QueryInventoryFinishedListener second = mock(QueryInventoryFinishedListener.class);
+
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo"));
+
+        QueueingExecutor background = new QueueingExecutor();
+        helper.setExecutors(background, DIRECT_EXECUTOR);
+        helper.queryInventoryAsync(false, null, null, first);
+        helper.queryInventoryAsync(false, null, null, second);
+        background.runAll();
+
+        ArgumentCaptor<Inventory> firstInventory = ArgumentCaptor.forClass(Inventory.class);
+        ArgumentCaptor<Inventory> secondInventory = ArgumentCaptor.forClass(Inventory.class);
+        verify(first).onQueryInventoryFinished(eq(new IabResult(OK)), firstInventory.capture());
+        verify(second).onQueryInventoryFinished(eq(new IabResult(OK)), secondInventory.capture());
+        assertThat(firstInventory.getValue()).isSameAs(secondInventory.getValue());
+
+        verify(service, times(1)).getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null);
+    }
+
+    @Test public void queryInventoryAsyncShouldRunLargerQueryInParallel() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+
+        helper.setExecutors(new QueueingExecutor(), DIRECT_EXECUTOR);
+        helper.queryInventoryAsync(false, null, null, mock(QueryInventoryFinishedListener.class));
+        helper.queryInventoryAsync(true, null, null, mock(QueryInventoryFinishedListener.class));
+
+        assertThat(helper.getRunningOperationCount()).isEqualTo(2);
+        assertThat(helper.getOperationQueueDepth()).isEqualTo(0);
+    }
+
     @Test public void queryInventoryAsyncWhenDisposed() throws Exception {
         shouldStartSetup_CheckForSubscriptions_Unavailable();
         QueryInventoryFinishedListener listener = mock(QueryInventoryFinishedListener.class);
@@ -766,19 +1202,308 @@ public class IabHelperTest {
         verify(listener).onQueryInventoryFinished(eq(new IabResult(IABHELPER_DISPOSED)), isNull(Inventory.class));
     }
 
-    // consume
-    @Test(expected = IabException.class) public void shouldNotConsumeSubscription() throws Exception {
-        shouldStartSetup_SuccessCase();
-        Purchase purchase = mock(Purchase.class);
-        when(purchase.getToken()).thenReturn("foo");
-        when(purchase.getItemType()).thenReturn(SUBS);
-        helper.consume(purchase);
+    @Test public void shouldQueryInventoryWithLazyPurchases() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        helper.enableLazyPurchaseParsing(true);
+        Bundle response = createInventoryResponseBundle("foo", "bar");
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(response);
+
+        Inventory inventory = helper.queryInventory(false, null, null);
+
+        assertThat(inventory.getAllOwnedSkus()).containsOnly("foo", "bar");
+        assertThat(inventory.getPurchase("foo").getOriginalJson())
+                .isSameAs(response.getStringArrayList(RESPONSE_INAPP_PURCHASE_DATA_LIST).get(0));
     }
 
-    @Test(expected = IabException.class) public void shouldNotConsumePurchaseWithoutType() throws Exception {
-        shouldStartSetup_SuccessCase();
-        Purchase purchase = mock(Purchase.class);
-        when(purchase.getToken()).thenReturn("foo");
+    @Test public void shouldQueryInventoryWithStreamingParser() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        helper.setJsonParsing(JsonParsing.STREAMING);
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo", "bar"));
+
+        Inventory inventory = helper.queryInventory(false, null, null);
+
+        assertThat(inventory.getAllOwnedSkus()).containsOnly("foo", "bar");
+        assertThat(inventory.getPurchase("foo").getItemType()).isEqualTo(INAPP);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAcceptNullJsonParsing() throws Exception {
+        helper.setJsonParsing(null);
+    }
+
+    @Test public void shouldVerifyPurchasesInParallelKeepingOrder() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        helper.enableParallelVerification(true);
+        String[] skus = new String[25];
+        for (int i = 0; i < skus.length; i++) {
+            skus[i] = "sku" + i;
+        }
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle(skus));
+
+        OnPurchasesPageListener listener = mock(OnPurchasesPageListener.class);
+        Inventory inventory = helper.queryPurchases(listener);
+
+        ArgumentCaptor<List> page = ArgumentCaptor.forClass(List.class);
+        verify(listener).onPurchasesPage(eq(INAPP), page.capture());
+        List<String> pageSkus = new ArrayList<String>();
+        for (Object purchase : page.getValue()) {
+            pageSkus.add(((Purchase) purchase).getSku());
+        }
+        assertThat(pageSkus).containsExactly((Object[]) skus);
+        assertThat(inventory.getAllOwnedSkus()).hasSize(skus.length);
+    }
+
+    @Test public void shouldReportFailedVerificationWithParallelVerification() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        helper.enableParallelVerification(true);
+        when(signatureValidator.validate(eq("{ \"productId\": \"bar\" }"), anyString())).thenReturn(false);
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo", "bar", "baz"));
+
+        try {
+            helper.queryInventory(false, null, null);
+            fail("expected exception");
+        } catch (IabException e) {
+            assertThat(e.getResult()).isEqualTo(new IabResult(IABHELPER_VERIFICATION_FAILED,
+                    "Error refreshing inventory (querying owned items)."));
+        }
+    }
+
+    @Test public void shouldNotifyInventoryChangedListenerWithDeltas() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        InventoryChangedListener listener = mock(InventoryChangedListener.class);
+        helper.setInventoryChangedListener(listener);
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo", "bar"))
+                .thenReturn(createInventoryResponseBundle("foo", "bar"))
+                .thenReturn(createInventoryResponseBundle("foo", "baz"));
+
+        Inventory first = helper.queryInventory(false, null, null);
+        ArgumentCaptor<InventoryDiff> diff = ArgumentCaptor.forClass(InventoryDiff.class);
+        verify(listener).onInventoryChanged(diff.capture(), same(first));
+        assertThat(diff.getValue().getAddedPurchases()).hasSize(2);
+
+        helper.queryInventory(false, null, null);
+        verifyNoMoreInteractions(listener);
+
+        Inventory third = helper.queryInventory(false, null, null);
+        verify(listener).onInventoryChanged(diff.capture(), same(third));
+        assertThat(diff.getValue().getAddedPurchases()).containsExactly(third.getPurchase("baz"));
+        assertThat(diff.getValue().getRemovedPurchases()).hasSize(1);
+        assertThat(diff.getValue().getRemovedPurchases().get(0).getSku()).isEqualTo("bar");
+    }
+
+    @Test public void shouldReportPriceChangesAfterQueryWithoutDetails() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        InventoryChangedListener listener = mock(InventoryChangedListener.class);
+        helper.setInventoryChangedListener(listener);
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo"));
+        when(service.getSkuDetails(eq(API_VERSION),
+                eq(Robolectric.application.getPackageName()),
+                eq("inapp"),
+                TestHelper.BundleStringArrayListMatcher.bundleWithStringValues(GET_SKU_DETAILS_ITEM_LIST, "foo")))
+                .thenReturn(createSkuDetailsResponseBundleWithPrice("foo", "1.00"))
+                .thenReturn(createSkuDetailsResponseBundleWithPrice("foo", "2.00"));
+
+        helper.queryInventory(true, null, null);
+        verify(listener).onInventoryChanged(any(InventoryDiff.class), any(Inventory.class));
+
+        helper.queryInventory(false, null, null);
+        verifyNoMoreInteractions(listener);
+
+        Inventory third = helper.queryInventory(true, null, null);
+        ArgumentCaptor<InventoryDiff> diff = ArgumentCaptor.forClass(InventoryDiff.class);
+        verify(listener).onInventoryChanged(diff.capture(), same(third));
+        assertThat(diff.getValue().getChangedSkuDetails()).containsExactly(third.getSkuDetails("foo"));
+        assertThat(diff.getValue().getAddedPurchases()).isEmpty();
+    }
+
+    @Test public void shouldSaveQueriedInventoryToCache() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        InventoryCache cache = mock(InventoryCache.class);
+        helper.setInventoryCache(cache);
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo"));
+
+        QueueingExecutor background = new QueueingExecutor();
+        helper.setExecutors(background, DIRECT_EXECUTOR);
+        Inventory inventory = helper.queryInventory(false, null, null);
+        verify(cache, never()).save(any(Inventory.class));
+
+        background.runAll();
+        ArgumentCaptor<Inventory> saved = ArgumentCaptor.forClass(Inventory.class);
+        verify(cache).save(saved.capture());
+        assertThat(saved.getValue().getAllOwnedSkus()).isEqualTo(inventory.getAllOwnedSkus());
+    }
+
+    @Test public void shouldOnlySaveLatestQueriedInventoryToCache() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        InventoryCache cache = mock(InventoryCache.class);
+        helper.setInventoryCache(cache);
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo"))
+                .thenReturn(createInventoryResponseBundle("bar"));
+
+        QueueingExecutor background = new QueueingExecutor();
+        helper.setExecutors(background, DIRECT_EXECUTOR);
+        helper.queryInventory(false, null, null);
+        helper.queryInventory(false, null, null);
+        background.runAll();
+
+        ArgumentCaptor<Inventory> saved = ArgumentCaptor.forClass(Inventory.class);
+        verify(cache).save(saved.capture());
+        assertThat(saved.getValue().getAllOwnedSkus()).containsExactly("bar");
+    }
+
+    @Test public void shouldReportChangesFromCachedInventory() throws Exception {
+        InventoryCache cache = mock(InventoryCache.class);
+        Inventory cached = new Inventory();
+        cached.addPurchase(new Purchase(INAPP, "{ \"productId\": \"foo\" }", ""));
+        cached.addPurchase(new Purchase(INAPP, "{ \"productId\": \"bar\" }", ""));
+        when(cache.load(signatureValidator)).thenReturn(cached);
+        helper.setInventoryCache(cache);
+        InventoryChangedListener listener = mock(InventoryChangedListener.class);
+        helper.setInventoryChangedListener(listener);
+
+        assertThat(helper.getCachedInventory()).isSameAs(cached);
+
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo"));
+        helper.queryInventory(false, null, null);
+
+        ArgumentCaptor<InventoryDiff> diff = ArgumentCaptor.forClass(InventoryDiff.class);
+        verify(listener).onInventoryChanged(diff.capture(), any(Inventory.class));
+        assertThat(diff.getValue().getAddedPurchases()).isEmpty();
+        assertThat(diff.getValue().getRemovedPurchases()).containsExactly(cached.getPurchase("bar"));
+    }
+
+    @Test public void shouldLoadCachedInventoryAsync() throws Exception {
+        InventoryCache cache = mock(InventoryCache.class);
+        Inventory cached = new Inventory();
+        when(cache.load(signatureValidator)).thenReturn(cached);
+        helper.setInventoryCache(cache);
+
+        QueueingExecutor background = new QueueingExecutor();
+        helper.setExecutors(background, DIRECT_EXECUTOR);
+        QueryInventoryFinishedListener listener = mock(QueryInventoryFinishedListener.class);
+        helper.getCachedInventoryAsync(listener);
+        verifyZeroInteractions(cache, listener);
+
+        background.runAll();
+        verify(listener).onQueryInventoryFinished(new IabResult(OK), cached);
+    }
+
+    @Test public void shouldNotifyCachedInventoryAsyncListenerOnDispose() throws Exception {
+        helper.setInventoryCache(mock(InventoryCache.class));
+        QueueingExecutor background = new QueueingExecutor();
+        helper.setExecutors(background, DIRECT_EXECUTOR);
+        QueryInventoryFinishedListener listener = mock(QueryInventoryFinishedListener.class);
+        helper.getCachedInventoryAsync(listener);
+
+        helper.dispose();
+        background.runAll();
+        verify(listener).onQueryInventoryFinished(new IabResult(IABHELPER_DISPOSED), null);
+    }
+
+    @Test public void shouldReturnNullCachedInventoryWithoutCache() throws Exception {
+        assertThat(helper.getCachedInventory()).isNull();
+    }
+
+    // queryPurchases
+    @Test public void shouldQueryPurchasesPageByPage() throws Exception {
+        shouldStartSetup_SuccessCase();
+        Bundle firstPage = createInventoryResponseBundle("foo", "bar");
+        firstPage.putString(INAPP_CONTINUATION_TOKEN, "next");
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(firstPage);
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", "next"))
+                .thenReturn(createInventoryResponseBundle("baz"));
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "subs", null))
+                .thenReturn(createInventoryResponseBundle("sub"));
+
+        OnPurchasesPageListener listener = mock(OnPurchasesPageListener.class);
+        Inventory inventory = helper.queryPurchases(listener);
+
+        ArgumentCaptor<List> pages = ArgumentCaptor.forClass(List.class);
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener, times(2)).onPurchasesPage(eq(INAPP), pages.capture());
+        inOrder.verify(listener).onPurchasesPage(eq(SUBS), pages.capture());
+
+        assertThat(pages.getAllValues()).hasSize(3);
+        assertThat(pages.getAllValues().get(0)).hasSize(2);
+        assertThat(pages.getAllValues().get(1)).hasSize(1);
+        assertThat(pages.getAllValues().get(2)).hasSize(1);
+        assertThat(inventory.getAllPurchases()).hasSize(4);
+    }
+
+    @Test public void shouldQueryPurchasesAsync() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        Bundle firstPage = createInventoryResponseBundle("foo");
+        firstPage.putString(INAPP_CONTINUATION_TOKEN, "next");
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(firstPage);
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", "next"))
+                .thenReturn(createInventoryResponseBundle("bar"));
+
+        QueueingExecutor callbacks = new QueueingExecutor();
+        helper.setExecutors(DIRECT_EXECUTOR, callbacks);
+        QueryPurchasesListener listener = mock(QueryPurchasesListener.class);
+        helper.queryPurchasesAsync(listener);
+        verifyZeroInteractions(listener);
+
+        callbacks.runAll();
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener, times(2)).onPurchasesPage(eq(INAPP), anyListOf(Purchase.class));
+        inOrder.verify(listener).onQueryPurchasesFinished(eq(new IabResult(OK)), any(Inventory.class));
+    }
+
+    @Test public void shouldQueryPurchasesAsyncAndReportError() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        Bundle firstPage = createInventoryResponseBundle("foo");
+        firstPage.putString(INAPP_CONTINUATION_TOKEN, "next");
+        Bundle error = new Bundle();
+        error.putInt(RESPONSE_CODE, ERROR.code);
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(firstPage);
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", "next"))
+                .thenReturn(error);
+
+        QueryPurchasesListener listener = mock(QueryPurchasesListener.class);
+        helper.queryPurchasesAsync(listener);
+
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).onPurchasesPage(eq(INAPP), anyListOf(Purchase.class));
+        inOrder.verify(listener).onQueryPurchasesFinished(eq(new IabResult(ERROR)), isNull(Inventory.class));
+    }
+
+    @Test public void queryPurchasesAsyncWhenDisposed() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        QueryPurchasesListener listener = mock(QueryPurchasesListener.class);
+
+        helper.dispose();
+        helper.queryPurchasesAsync(listener);
+
+        verify(listener).onQueryPurchasesFinished(eq(new IabResult(IABHELPER_DISPOSED)), isNull(Inventory.class));
+    }
+
+    // consume
+    @Test(expected = IabException.class) public void shouldNotConsumeSubscription() throws Exception {
+        shouldStartSetup_SuccessCase();
+        Purchase purchase = mock(Purchase.class);
+        when(purchase.getToken()).thenReturn("foo");
+        when(purchase.getItemType()).thenReturn(SUBS);
+        helper.consume(purchase);
+    }
+
+    @Test(expected = IabException.class) public void shouldNotConsumePurchaseWithoutType() throws Exception {
+        shouldStartSetup_SuccessCase();
+        Purchase purchase = mock(Purchase.class);
+        when(purchase.getToken()).thenReturn("foo");
         helper.consume(purchase);
     }
 
@@ -863,6 +1588,154 @@ public class IabHelperTest {
         verify(listener).onConsumeMultiFinished(purchases, results);
     }
 
+    @Test public void shouldConsumeAsyncInParallelAndKeepResultOrder() throws Exception {
+        shouldStartSetup_SuccessCase();
+        helper.enableParallelConsumes(true);
+
+        final List<Purchase> purchases = new ArrayList<Purchase>();
+        final List<IabResult> expected = new ArrayList<IabResult>();
+        for (int i = 0; i < 10; i++) {
+            Purchase purchase = mock(Purchase.class);
+            when(purchase.getToken()).thenReturn("token" + i);
+            when(purchase.getItemType()).thenReturn(INAPP);
+            purchases.add(purchase);
+            Response response = i % 3 == 0 ? ERROR : OK;
+            when(service.consumePurchase(API_VERSION, Robolectric.application.getPackageName(), "token" + i))
+                    .thenReturn(response.code);
+            expected.add(new IabResult(response));
+        }
+        OnConsumeMultiFinishedListener listener = mock(OnConsumeMultiFinishedListener.class);
+        OnConsumeProgressListener progressListener = mock(OnConsumeProgressListener.class);
+
+        helper.consumeAsync(purchases, listener, progressListener);
+
+        verify(listener).onConsumeMultiFinished(purchases, expected);
+        verify(progressListener, times(10)).onConsumeProgress(any(Purchase.class), any(IabResult.class), anyInt(), eq(10));
+        verify(progressListener).onConsumeProgress(any(Purchase.class), any(IabResult.class), eq(10), eq(10));
+        for (int i = 0; i < 10; i++) {
+            verify(service).consumePurchase(API_VERSION, Robolectric.application.getPackageName(), "token" + i);
+        }
+    }
+
+    @Test public void shouldRecordConsumeInJournal() throws Exception {
+        shouldStartSetup_SuccessCase();
+        ConsumeJournal journal = mock(ConsumeJournal.class);
+        helper.setConsumeJournal(journal, null);
+        Purchase purchase = mock(Purchase.class);
+        when(purchase.getToken()).thenReturn("foo");
+        when(purchase.getItemType()).thenReturn(INAPP);
+        when(service.consumePurchase(API_VERSION, Robolectric.application.getPackageName(), "foo")).thenReturn(OK.code);
+
+        helper.consume(purchase);
+
+        InOrder inOrder = inOrder(journal, service);
+        inOrder.verify(journal).begin(purchase);
+        inOrder.verify(service).consumePurchase(API_VERSION, Robolectric.application.getPackageName(), "foo");
+        inOrder.verify(journal).complete(purchase);
+    }
+
+    @Test public void shouldCompleteJournalEntryWhenItemIsNotOwned() throws Exception {
+        shouldStartSetup_SuccessCase();
+        ConsumeJournal journal = mock(ConsumeJournal.class);
+        helper.setConsumeJournal(journal, null);
+        Purchase purchase = mock(Purchase.class);
+        when(purchase.getToken()).thenReturn("foo");
+        when(purchase.getItemType()).thenReturn(INAPP);
+        when(service.consumePurchase(API_VERSION, Robolectric.application.getPackageName(), "foo")).thenReturn(ITEM_NOT_OWNED.code);
+
+        try {
+            helper.consume(purchase);
+            fail("expected exception");
+        } catch (IabException e) {
+            assertThat(e.getResult().getResponse()).isEqualTo(ITEM_NOT_OWNED);
+        }
+        verify(journal).complete(purchase);
+    }
+
+    @Test public void shouldKeepJournalEntryWhenConsumeFails() throws Exception {
+        shouldStartSetup_SuccessCase();
+        ConsumeJournal journal = mock(ConsumeJournal.class);
+        helper.setConsumeJournal(journal, null);
+        Purchase purchase = mock(Purchase.class);
+        when(purchase.getToken()).thenReturn("foo");
+        when(purchase.getItemType()).thenReturn(INAPP);
+        when(service.consumePurchase(API_VERSION, Robolectric.application.getPackageName(), "foo")).thenThrow(new RemoteException());
+
+        try {
+            helper.consume(purchase);
+            fail("expected exception");
+        } catch (IabException ignored) {
+        }
+        verify(journal).begin(purchase);
+        verify(journal, never()).complete(any(Purchase.class));
+    }
+
+    @Test public void shouldKeepJournalEntryOnTransientError() throws Exception {
+        shouldStartSetup_SuccessCase();
+        ConsumeJournal journal = mock(ConsumeJournal.class);
+        helper.setConsumeJournal(journal, null);
+        Purchase purchase = mock(Purchase.class);
+        when(purchase.getToken()).thenReturn("foo");
+        when(purchase.getItemType()).thenReturn(INAPP);
+        when(service.consumePurchase(API_VERSION, Robolectric.application.getPackageName(), "foo")).thenReturn(ERROR.code);
+
+        try {
+            helper.consume(purchase);
+            fail("expected exception");
+        } catch (IabException ignored) {
+        }
+        verify(journal, never()).complete(any(Purchase.class));
+    }
+
+    @Test public void shouldCompleteJournalEntryOnDefinitiveError() throws Exception {
+        shouldStartSetup_SuccessCase();
+        ConsumeJournal journal = mock(ConsumeJournal.class);
+        helper.setConsumeJournal(journal, null);
+        Purchase purchase = mock(Purchase.class);
+        when(purchase.getToken()).thenReturn("foo");
+        when(purchase.getItemType()).thenReturn(INAPP);
+        when(service.consumePurchase(API_VERSION, Robolectric.application.getPackageName(), "foo")).thenReturn(DEVELOPER_ERROR.code);
+
+        try {
+            helper.consume(purchase);
+            fail("expected exception");
+        } catch (IabException ignored) {
+        }
+        verify(journal).complete(purchase);
+    }
+
+    @Test public void shouldReadConsumeJournalInBackground() throws Exception {
+        ConsumeJournal journal = mock(ConsumeJournal.class);
+        when(journal.getPendingPurchases()).thenReturn(Collections.<Purchase>emptyList());
+        helper.setConsumeJournal(journal, null);
+        QueueingExecutor background = new QueueingExecutor();
+        helper.setExecutors(background, DIRECT_EXECUTOR);
+
+        shouldStartSetup_SuccessCase();
+        verify(journal, never()).getPendingPurchases();
+
+        background.runAll();
+        verify(journal).getPendingPurchases();
+    }
+
+    @Test public void shouldRetryPendingConsumesAfterSetup() throws Exception {
+        Purchase purchase = mock(Purchase.class);
+        when(purchase.getToken()).thenReturn("foo");
+        when(purchase.getItemType()).thenReturn(INAPP);
+        ConsumeJournal journal = mock(ConsumeJournal.class);
+        when(journal.getPendingPurchases()).thenReturn(Collections.singletonList(purchase));
+        OnConsumeMultiFinishedListener listener = mock(OnConsumeMultiFinishedListener.class);
+        helper.setConsumeJournal(journal, listener);
+        when(service.consumePurchase(API_VERSION, Robolectric.application.getPackageName(), "foo")).thenReturn(OK.code);
+
+        shouldStartSetup_SuccessCase();
+
+        verify(service).consumePurchase(API_VERSION, Robolectric.application.getPackageName(), "foo");
+        verify(journal).complete(purchase);
+        verify(listener).onConsumeMultiFinished(Collections.singletonList(purchase),
+                Collections.singletonList(new IabResult(OK)));
+    }
+
     // getResponseCodeFromBundle
     @Test public void shouldGetResponseCodeFromBundleEmpty() throws Exception {
         Bundle b = new Bundle();
@@ -887,12 +1760,164 @@ public class IabHelperTest {
         helper.getResponseCodeFromBundle(b);
     }
 
-    // other methods
-    @Test(expected = IllegalStateException.class) public void testFlagAsync() throws Exception {
-        helper.flagStartAsync("something");
-        helper.flagEndAsync();
-        helper.flagStartAsync("something");
-        helper.flagStartAsync("something else");
+    // operation queue
+    @Test public void shouldQueryInventoryWhileConsuming() throws Exception {
+        shouldStartSetup_CheckForSubscriptions_Unavailable();
+        Purchase purchase = mock(Purchase.class);
+        when(purchase.getToken()).thenReturn("foo");
+        when(purchase.getItemType()).thenReturn(INAPP);
+        when(service.consumePurchase(API_VERSION, Robolectric.application.getPackageName(), "foo")).thenReturn(OK.code);
+        when(service.getPurchases(API_VERSION, Robolectric.application.getPackageName(), "inapp", null))
+                .thenReturn(createInventoryResponseBundle("foo"));
+
+        QueueingExecutor background = new QueueingExecutor();
+        helper.setExecutors(background, DIRECT_EXECUTOR);
+        OnConsumeFinishedListener consumeListener = mock(OnConsumeFinishedListener.class);
+        QueryInventoryFinishedListener queryListener = mock(QueryInventoryFinishedListener.class);
+        helper.consumeAsync(purchase, consumeListener);
+        helper.queryInventoryAsync(false, null, null, queryListener);
+
+        assertThat(helper.getRunningOperationCount()).isEqualTo(2);
+        assertThat(helper.getOperationQueueDepth()).isEqualTo(0);
+        background.runAll();
+
+        verify(consumeListener).onConsumeFinished(purchase, new IabResult(OK));
+        verify(queryListener).onQueryInventoryFinished(eq(new IabResult(OK)), any(Inventory.class));
+        assertThat(helper.getRunningOperationCount()).isEqualTo(0);
+    }
+
+    @Test public void shouldSerializeConsumesOfSamePurchase() throws Exception {
+        shouldStartSetup_SuccessCase();
+        Purchase purchase = mock(Purchase.class);
+        when(purchase.getToken()).thenReturn("foo");
+        when(purchase.getItemType()).thenReturn(INAPP);
+        when(service.consumePurchase(API_VERSION, Robolectric.application.getPackageName(), "foo")).thenReturn(OK.code);
+
+        QueueingExecutor background = new QueueingExecutor();
+        helper.setExecutors(background, DIRECT_EXECUTOR);
+        OnConsumeFinishedListener first = mock(OnConsumeFinishedListener.class);
+        OnConsumeFinishedListener second = mock(OnConsumeFinishedListener.class);
+        helper.consumeAsync(purchase, first);
+        helper.consumeAsync(purchase, second);
+
+        assertThat(helper.getRunningOperationCount()).isEqualTo(1);
+        assertThat(helper.getOperationQueueDepth()).isEqualTo(1);
+
+        background.runAll();
+        verify(first).onConsumeFinished(purchase, new IabResult(OK));
+        verifyZeroInteractions(second);
+        assertThat(helper.getOperationQueueDepth()).isEqualTo(0);
+
+        background.runAll();
+        verify(second).onConsumeFinished(eq(purchase), any(IabResult.class));
+        assertThat(helper.getRunningOperationCount()).isEqualTo(0);
+    }
+
+    @Test public void shouldLaunchQueuedPurchaseFlowAfterActivityResult() throws Exception {
+        shouldStartIntentAfterSuccessfulLaunchPurchase();
+        Bundle response = new Bundle();
+        response.putParcelable(RESPONSE_BUY_INTENT, PendingIntent.getActivity(Robolectric.application, 0, new Intent(), 0));
+        when(service.getBuyIntent(API_VERSION, Robolectric.application.getPackageName(), "other", "inapp", "")).thenReturn(response);
+
+        Activity activity = mock(Activity.class);
+        OnIabPurchaseFinishedListener listener = mock(OnIabPurchaseFinishedListener.class);
+        helper.launchPurchaseFlow(activity, "other", INAPP, TEST_REQUEST_CODE + 1, listener, "");
+        verifyZeroInteractions(activity);
+        assertThat(helper.getOperationQueueDepth()).isEqualTo(1);
+
+        assertThat(helper.handleActivityResult(TEST_REQUEST_CODE, Activity.RESULT_CANCELED, new Intent())).isTrue();
+        verify(activity).startIntentSenderForResult(any(IntentSender.class), eq(TEST_REQUEST_CODE + 1), any(Intent.class), eq(0), eq(0), eq(0));
+        verifyZeroInteractions(listener);
+        assertThat(helper.getOperationQueueDepth()).isEqualTo(0);
+        assertThat(helper.getRunningOperationCount()).isEqualTo(1);
+    }
+
+    @Test public void shouldNotLaunchQueuedPurchaseFlowForFinishingActivity() throws Exception {
+        shouldStartIntentAfterSuccessfulLaunchPurchase();
+        Activity activity = mock(Activity.class);
+        OnIabPurchaseFinishedListener listener = mock(OnIabPurchaseFinishedListener.class);
+        helper.launchPurchaseFlow(activity, "other", INAPP, TEST_REQUEST_CODE + 1, listener, "");
+        when(activity.isFinishing()).thenReturn(true);
+
+        assertThat(helper.handleActivityResult(TEST_REQUEST_CODE, Activity.RESULT_CANCELED, new Intent())).isTrue();
+        verify(activity, never()).startIntentSenderForResult(any(IntentSender.class), anyInt(), any(Intent.class), anyInt(), anyInt(), anyInt());
+        verify(listener).onIabPurchaseFinished(new IabResult(IABHELPER_SEND_INTENT_FAILED), null);
+        assertThat(helper.getRunningOperationCount()).isEqualTo(0);
+    }
+
+    @Test public void shouldNotifyQueuedPurchaseFlowOnDispose() throws Exception {
+        shouldStartIntentAfterSuccessfulLaunchPurchase();
+        OnIabPurchaseFinishedListener listener = mock(OnIabPurchaseFinishedListener.class);
+        helper.launchPurchaseFlow(mock(Activity.class), "other", INAPP, TEST_REQUEST_CODE + 1, listener, "");
+
+        helper.dispose();
+        verify(listener).onIabPurchaseFinished(new IabResult(IABHELPER_DISPOSED), null);
+        assertThat(helper.getOperationQueueDepth()).isEqualTo(0);
+    }
+
+    @Test public void shouldNotifyQueuedOperationsOnDispose() throws Exception {
+        shouldStartSetup_SuccessCase();
+        Purchase purchase = mock(Purchase.class);
+        when(purchase.getToken()).thenReturn("foo");
+        when(purchase.getItemType()).thenReturn(INAPP);
+
+        helper.setExecutors(new QueueingExecutor(), DIRECT_EXECUTOR);
+        OnConsumeFinishedListener first = mock(OnConsumeFinishedListener.class);
+        OnConsumeFinishedListener second = mock(OnConsumeFinishedListener.class);
+        helper.consumeAsync(purchase, first);
+        helper.consumeAsync(purchase, second);
+        assertThat(helper.getOperationQueueDepth()).isEqualTo(1);
+
+        helper.dispose();
+        verify(second).onConsumeFinished(purchase, new IabResult(IABHELPER_DISPOSED));
+        verifyZeroInteractions(first);
+        assertThat(helper.getOperationQueueDepth()).isEqualTo(0);
+        assertThat(helper.getRunningOperationCount()).isEqualTo(0);
+    }
+
+    @Test public void shouldAbortOperationStartedAfterDispose() throws Exception {
+        shouldStartSetup_SuccessCase();
+        Purchase purchase = mock(Purchase.class);
+        when(purchase.getToken()).thenReturn("foo");
+        when(purchase.getItemType()).thenReturn(INAPP);
+
+        QueueingExecutor background = new QueueingExecutor();
+        QueueingExecutor callback = new QueueingExecutor();
+        helper.setExecutors(background, callback);
+        OnConsumeFinishedListener listener = mock(OnConsumeFinishedListener.class);
+        helper.consumeAsync(purchase, listener);
+
+        // the operation was started, but the helper is disposed before the start is run
+        helper.dispose();
+        callback.runAll();
+        verify(listener).onConsumeFinished(purchase, new IabResult(IABHELPER_DISPOSED));
+        background.runAll();
+        verifyNoMoreInteractions(listener);
+        verify(service, never()).consumePurchase(anyInt(), anyString(), anyString());
+    }
+
+    @Test public void shouldFinishOperationOfFailedTask() throws Exception {
+        shouldStartSetup_SuccessCase();
+        Purchase purchase = mock(Purchase.class);
+        when(purchase.getToken()).thenReturn("foo");
+        when(purchase.getItemType()).thenReturn(INAPP);
+        when(service.consumePurchase(API_VERSION, Robolectric.application.getPackageName(), "foo"))
+                .thenThrow(new IllegalStateException());
+
+        QueueingExecutor callback = new QueueingExecutor();
+        helper.setExecutors(DIRECT_EXECUTOR, callback);
+        OnConsumeFinishedListener listener = mock(OnConsumeFinishedListener.class);
+        helper.consumeAsync(purchase, listener);
+        callback.runAll();
+        assertThat(helper.getRunningOperationCount()).isEqualTo(1);
+
+        try {
+            callback.runAll();
+            fail("expected exception");
+        } catch (IllegalStateException expected) {
+        }
+        assertThat(helper.getRunningOperationCount()).isEqualTo(0);
+        verifyZeroInteractions(listener);
     }
 
     private Context registerServiceWithPackageManager() {
@@ -938,6 +1963,14 @@ public class IabHelperTest {
         return response;
     }
 
+    private static Bundle createSkuDetailsResponseBundleWithPrice(String sku, String price) {
+        Bundle response = new Bundle();
+        response.putInt(RESPONSE_CODE, OK.code);
+        response.putStringArrayList(RESPONSE_GET_SKU_DETAILS_LIST,
+                asArrayList("{ \"productId\": \"" + sku + "\", \"price\": \"" + price + "\" }"));
+        return response;
+    }
+
     final static String PUBLIC_KEY = "MIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8AMIIBCgKCAQEAzoFJ+dq/PQo2u71ndt2k\n" +
             "t0XK3oGFvUPagg0QogBrp2IyBKTodFtmcb0riKtDGjZ9JKB45GIBC3RR2fuC9lOR\n" +
             "15rRjA2Tfxoig0K/VYy7K5+fkLt2yGVDd3oqBFEDSGcwYYP1LfmgI8B2WJjACu3V\n" +
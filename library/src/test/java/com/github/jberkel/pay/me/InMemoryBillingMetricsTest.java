@@ -0,0 +1,99 @@
+package com.github.jberkel.pay.me;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.github.jberkel.pay.me.Response.ERROR;
+import static com.github.jberkel.pay.me.Response.IABHELPER_REMOTE_EXCEPTION;
+import static com.github.jberkel.pay.me.Response.OK;
+import static com.github.jberkel.pay.me.ServiceCall.CONSUME_PURCHASE;
+import static com.github.jberkel.pay.me.ServiceCall.GET_PURCHASES;
+import static com.github.jberkel.pay.me.model.ItemType.INAPP;
+import static com.github.jberkel.pay.me.model.ItemType.SUBS;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class InMemoryBillingMetricsTest {
+    private final InMemoryBillingMetrics metrics = new InMemoryBillingMetrics();
+
+    @Test public void shouldBeEmptyInitially() throws Exception {
+        assertThat(metrics.snapshot()).isEmpty();
+
+        InMemoryBillingMetrics.Stats stats = metrics.getStats(GET_PURCHASES, INAPP);
+        assertThat(stats.getCount()).isEqualTo(0);
+        assertThat(stats.getErrorCount()).isEqualTo(0);
+        assertThat(stats.getLatencyPercentileMillis(0.99)).isEqualTo(0);
+        assertThat(stats.getResponseCounts()).isEmpty();
+    }
+
+    @Test public void shouldCountCallsPerMethodAndItemType() throws Exception {
+        metrics.onServiceCall(GET_PURCHASES, INAPP, OK.code, millis(3));
+        metrics.onServiceCall(GET_PURCHASES, INAPP, ERROR.code, millis(4));
+        metrics.onServiceCall(GET_PURCHASES, SUBS, OK.code, millis(5));
+        metrics.onServiceCall(CONSUME_PURCHASE, INAPP, IABHELPER_REMOTE_EXCEPTION.code, millis(6));
+
+        assertThat(metrics.snapshot()).hasSize(3);
+
+        InMemoryBillingMetrics.Stats stats = metrics.getStats(GET_PURCHASES, INAPP);
+        assertThat(stats.getCall()).isEqualTo(GET_PURCHASES);
+        assertThat(stats.getItemType()).isEqualTo(INAPP);
+        assertThat(stats.getCount()).isEqualTo(2);
+        assertThat(stats.getErrorCount()).isEqualTo(1);
+        assertThat(stats.getTotalNanos()).isEqualTo(millis(7));
+        assertThat(stats.getResponseCount(OK.code)).isEqualTo(1);
+        assertThat(stats.getResponseCount(ERROR.code)).isEqualTo(1);
+
+        assertThat(metrics.getStats(CONSUME_PURCHASE, INAPP).getResponseCounts())
+                .containsKey(IABHELPER_REMOTE_EXCEPTION.code);
+        assertThat(metrics.getStats(CONSUME_PURCHASE, SUBS).getCount()).isEqualTo(0);
+    }
+
+    @Test public void shouldKeepLatencyHistogram() throws Exception {
+        for (int i = 0; i < 98; i++) {
+            metrics.onServiceCall(GET_PURCHASES, INAPP, OK.code, millis(3));
+        }
+        metrics.onServiceCall(GET_PURCHASES, INAPP, OK.code, millis(150));
+        metrics.onServiceCall(GET_PURCHASES, INAPP, OK.code, millis(60000));
+
+        InMemoryBillingMetrics.Stats stats = metrics.getStats(GET_PURCHASES, INAPP);
+        long[] buckets = InMemoryBillingMetrics.getLatencyBucketsMillis();
+        long[] counts = stats.getLatencyCounts();
+        assertThat(counts.length).isEqualTo(buckets.length + 1);
+        assertThat(counts[2]).isEqualTo(98);
+        assertThat(counts[counts.length - 1]).isEqualTo(1);
+
+        assertThat(stats.getLatencyPercentileMillis(0.5)).isEqualTo(5);
+        assertThat(stats.getLatencyPercentileMillis(0.99)).isEqualTo(200);
+        assertThat(stats.getLatencyPercentileMillis(1)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test public void shouldReturnSnapshots() throws Exception {
+        metrics.onServiceCall(GET_PURCHASES, INAPP, OK.code, millis(1));
+        InMemoryBillingMetrics.Stats stats = metrics.getStats(GET_PURCHASES, INAPP);
+
+        metrics.onServiceCall(GET_PURCHASES, INAPP, OK.code, millis(1));
+
+        assertThat(stats.getCount()).isEqualTo(1);
+        assertThat(metrics.getStats(GET_PURCHASES, INAPP).getCount()).isEqualTo(2);
+    }
+
+    @Test public void shouldReset() throws Exception {
+        metrics.onServiceCall(GET_PURCHASES, INAPP, OK.code, millis(1));
+        metrics.reset();
+
+        assertThat(metrics.snapshot()).isEmpty();
+        assertThat(metrics.getStats(GET_PURCHASES, INAPP).getCount()).isEqualTo(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidPercentile() throws Exception {
+        metrics.getStats(GET_PURCHASES, INAPP).getLatencyPercentileMillis(1.5);
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.jberkel.pay.me;
+
+import com.github.jberkel.pay.me.model.Inventory;
+import com.github.jberkel.pay.me.model.Purchase;
+import com.github.jberkel.pay.me.model.SkuDetails;
+import com.github.jberkel.pay.me.model.TestSkus;
+import com.github.jberkel.pay.me.validator.SignatureValidator;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+import static com.github.jberkel.pay.me.model.ItemType.INAPP;
+import static com.github.jberkel.pay.me.model.ItemType.SUBS;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class InventoryCacheTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private InventoryCache cache;
+    private SignatureValidator validator;
+
+    @Before public void before() throws Exception {
+        file = new File(folder.getRoot(), "inventory");
+        cache = new InventoryCache(file);
+        validator = mock(SignatureValidator.class);
+        when(validator.validate(anyString(), anyString())).thenReturn(true);
+    }
+
+    @Test public void shouldSaveAndLoadInventory() throws Exception {
+        Inventory inventory = new Inventory();
+        inventory.addPurchase(new Purchase(INAPP, "{\"productId\":\"foo\",\"purchaseState\":0}", "sig1"));
+        inventory.addPurchase(new Purchase(SUBS, "{\"productId\":\"bar\",\"token\":\"t\"}", "sig2"));
+        inventory.addSkuDetails(new SkuDetails("{\"productId\":\"foo\",\"type\":\"inapp\",\"price\":\"0.99 €\"}"));
+
+        cache.save(inventory);
+        Inventory loaded = cache.load(validator);
+
+        assertThat(loaded.getAllOwnedSkus()).containsOnly("foo", "bar");
+        assertThat(loaded.getPurchase("foo").getItemType()).isEqualTo(INAPP);
+        assertThat(loaded.getPurchase("foo").getSignature()).isEqualTo("sig1");
+        assertThat(loaded.getPurchase("bar").getItemType()).isEqualTo(SUBS);
+        assertThat(loaded.getPurchase("bar").getToken()).isEqualTo("t");
+        assertThat(loaded.getSkuDetails("foo").getPrice()).isEqualTo("0.99 €");
+        assertThat(new File(file.getPath() + ".tmp").exists()).isFalse();
+    }
+
+    @Test public void shouldVerifyPurchasesOnLoad() throws Exception {
+        Inventory inventory = new Inventory();
+        inventory.addPurchase(new Purchase(INAPP, "{\"productId\":\"foo\"}", "valid"));
+        inventory.addPurchase(new Purchase(INAPP, "{\"productId\":\"bar\"}", "forged"));
+        cache.save(inventory);
+        when(validator.validate(anyString(), anyString())).thenReturn(false);
+        when(validator.validate("{\"productId\":\"foo\"}", "valid")).thenReturn(true);
+
+        assertThat(cache.load(validator).getAllOwnedSkus()).containsOnly("foo");
+    }
+
+    @Test public void shouldNotSaveDetailsWithoutJson() throws Exception {
+        Inventory inventory = new Inventory();
+        inventory.addSkuDetails(TestSkus.PURCHASED);
+        cache.save(inventory);
+
+        assertThat(cache.load(validator).getSkuDetails()).isEmpty();
+    }
+
+    @Test public void shouldReturnNullWithoutFile() throws Exception {
+        assertThat(cache.load(validator)).isNull();
+    }
+
+    @Test public void shouldReturnNullForCorruptFile() throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("not an inventory".getBytes());
+        out.close();
+
+        assertThat(cache.load(validator)).isNull();
+    }
+
+    @Test public void shouldReturnNullForTruncatedFile() throws Exception {
+        Inventory inventory = new Inventory();
+        inventory.addPurchase(new Purchase(INAPP, "{\"productId\":\"foo\"}", "sig"));
+        cache.save(inventory);
+        File truncated = new File(folder.getRoot(), "truncated");
+        byte[] bytes = new byte[(int) file.length() - 3];
+        FileInputStream in = new FileInputStream(file);
+        assertThat(in.read(bytes)).isEqualTo(bytes.length);
+        in.close();
+        FileOutputStream out = new FileOutputStream(truncated);
+        out.write(bytes);
+        out.close();
+
+        assertThat(new InventoryCache(truncated).load(validator)).isNull();
+    }
+
+    @Test public void shouldReturnNullForOversizedString() throws Exception {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(0x50415949); // magic
+        out.writeInt(1);          // version
+        out.writeInt(1);          // purchase count
+        out.writeByte(INAPP.ordinal());
+        out.writeInt(Integer.MAX_VALUE);
+        out.close();
+
+        assertThat(cache.load(validator)).isNull();
+    }
+
+    @Test public void shouldClear() throws Exception {
+        cache.save(new Inventory());
+        cache.clear();
+        assertThat(cache.load(validator)).isNull();
+    }
+}
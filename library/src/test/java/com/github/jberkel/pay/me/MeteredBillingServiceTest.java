@@ -0,0 +1,124 @@
+package com.github.jberkel.pay.me;
+
+import android.os.Bundle;
+import android.os.RemoteException;
+import com.android.vending.billing.IInAppBillingService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import static com.github.jberkel.pay.me.IabConsts.API_VERSION;
+import static com.github.jberkel.pay.me.IabConsts.RESPONSE_CODE;
+import static com.github.jberkel.pay.me.Response.*;
+import static com.github.jberkel.pay.me.ServiceCall.*;
+import static com.github.jberkel.pay.me.model.ItemType.INAPP;
+import static com.github.jberkel.pay.me.model.ItemType.SUBS;
+import static com.github.jberkel.pay.me.model.ItemType.UNKNOWN;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class MeteredBillingServiceTest {
+    @Mock private IInAppBillingService service;
+    @Mock private BillingMetrics metrics;
+
+    private MeteredBillingService metered;
+
+    @Before public void before() {
+        MockitoAnnotations.initMocks(this);
+        metered = new MeteredBillingService(service, metrics);
+    }
+
+    @Test public void shouldReportIntResponse() throws Exception {
+        when(service.isBillingSupported(API_VERSION, "pkg", "subs")).thenReturn(BILLING_UNAVAILABLE.code);
+
+        assertThat(metered.isBillingSupported(API_VERSION, "pkg", "subs")).isEqualTo(BILLING_UNAVAILABLE.code);
+
+        verify(metrics).onServiceCall(eq(IS_BILLING_SUPPORTED), eq(SUBS), eq(BILLING_UNAVAILABLE.code), anyLong());
+    }
+
+    @Test public void shouldReportConsumesAsInApp() throws Exception {
+        when(service.consumePurchase(API_VERSION, "pkg", "token")).thenReturn(OK.code);
+
+        metered.consumePurchase(API_VERSION, "pkg", "token");
+
+        verify(metrics).onServiceCall(eq(CONSUME_PURCHASE), eq(INAPP), eq(OK.code), anyLong());
+    }
+
+    @Test public void shouldReportBundleResponse() throws Exception {
+        Bundle bundle = new Bundle();
+        bundle.putInt(RESPONSE_CODE, ITEM_ALREADY_OWNED.code);
+        when(service.getBuyIntent(API_VERSION, "pkg", "sku", "inapp", null)).thenReturn(bundle);
+
+        assertThat(metered.getBuyIntent(API_VERSION, "pkg", "sku", "inapp", null)).isSameAs(bundle);
+
+        verify(metrics).onServiceCall(eq(GET_BUY_INTENT), eq(INAPP), eq(ITEM_ALREADY_OWNED.code), anyLong());
+    }
+
+    @Test public void shouldReportLongBundleResponse() throws Exception {
+        Bundle bundle = new Bundle();
+        bundle.putLong(RESPONSE_CODE, (long) ERROR.code);
+        when(service.getPurchases(API_VERSION, "pkg", "subs", null)).thenReturn(bundle);
+
+        metered.getPurchases(API_VERSION, "pkg", "subs", null);
+
+        verify(metrics).onServiceCall(eq(GET_PURCHASES), eq(SUBS), eq(ERROR.code), anyLong());
+    }
+
+    @Test public void shouldReportMissingResponseCodeAsOk() throws Exception {
+        Bundle skus = new Bundle();
+        when(service.getSkuDetails(API_VERSION, "pkg", "inapp", skus)).thenReturn(new Bundle());
+
+        metered.getSkuDetails(API_VERSION, "pkg", "inapp", skus);
+
+        verify(metrics).onServiceCall(eq(GET_SKU_DETAILS), eq(INAPP), eq(OK.code), anyLong());
+    }
+
+    @Test public void shouldReportMissingBundleAsBadResponse() throws Exception {
+        metered.getPurchases(API_VERSION, "pkg", "inapp", null);
+
+        verify(metrics).onServiceCall(eq(GET_PURCHASES), eq(INAPP), eq(IABHELPER_BAD_RESPONSE.code), anyLong());
+    }
+
+    @Test public void shouldReportUnknownItemType() throws Exception {
+        metered.isBillingSupported(API_VERSION, "pkg", "foo");
+
+        verify(metrics).onServiceCall(eq(IS_BILLING_SUPPORTED), eq(UNKNOWN), eq(OK.code), anyLong());
+    }
+
+    @Test public void shouldReportAndRethrowRemoteException() throws Exception {
+        RemoteException exception = new RemoteException();
+        when(service.getPurchases(API_VERSION, "pkg", "inapp", null)).thenThrow(exception);
+
+        try {
+            metered.getPurchases(API_VERSION, "pkg", "inapp", null);
+            fail("expected exception");
+        } catch (RemoteException e) {
+            assertThat(e).isSameAs(exception);
+        }
+        verify(metrics).onServiceCall(eq(GET_PURCHASES), eq(INAPP), eq(IABHELPER_REMOTE_EXCEPTION.code), anyLong());
+    }
+
+    @Test public void shouldReportRuntimeExceptionAsUnknownError() throws Exception {
+        when(service.consumePurchase(API_VERSION, "pkg", "token")).thenThrow(new SecurityException());
+
+        try {
+            metered.consumePurchase(API_VERSION, "pkg", "token");
+            fail("expected exception");
+        } catch (SecurityException ignored) {
+        }
+        verify(metrics).onServiceCall(eq(CONSUME_PURCHASE), eq(INAPP), eq(IABHELPER_UNKNOWN_ERROR.code), anyLong());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAcceptNullService() throws Exception {
+        new MeteredBillingService(null, metrics);
+    }
+}
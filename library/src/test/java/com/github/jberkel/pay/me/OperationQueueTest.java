@@ -0,0 +1,148 @@
+package com.github.jberkel.pay.me;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.github.jberkel.pay.me.OperationQueue.Kind.CONSUME;
+import static com.github.jberkel.pay.me.OperationQueue.Kind.PURCHASE;
+import static com.github.jberkel.pay.me.OperationQueue.Kind.QUERY;
+import static com.github.jberkel.pay.me.OperationQueue.Operation;
+import static com.github.jberkel.pay.me.TestHelper.DIRECT_EXECUTOR;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class OperationQueueTest {
+    private OperationQueue queue;
+    private List<String> started;
+    private long now;
+
+    @Before public void before() {
+        queue = new OperationQueue() {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+        started = new ArrayList<String>();
+    }
+
+    @Test public void shouldRunQueriesInParallel() throws Exception {
+        assertThat(enqueue(new Operation("q1", QUERY))).isTrue();
+        assertThat(enqueue(new Operation("q2", QUERY))).isTrue();
+        assertThat(started).containsExactly("q1", "q2");
+        assertThat(queue.getRunningCount()).isEqualTo(2);
+    }
+
+    @Test public void shouldRunConsumesOfDifferentTokensInParallel() throws Exception {
+        assertThat(enqueue(new Operation("c1", CONSUME, Arrays.asList("a", "b")))).isTrue();
+        assertThat(enqueue(new Operation("c2", CONSUME, Arrays.asList("c")))).isTrue();
+        assertThat(enqueue(new Operation("q", QUERY))).isTrue();
+        assertThat(queue.getQueueDepth()).isEqualTo(0);
+    }
+
+    @Test public void shouldSerializeConsumesOfSameToken() throws Exception {
+        Operation first = new Operation("c1", CONSUME, Arrays.asList("a", "b"));
+        enqueue(first);
+        assertThat(enqueue(new Operation("c2", CONSUME, Arrays.asList("b")))).isFalse();
+        assertThat(started).containsExactly("c1");
+        assertThat(queue.getQueueDepth()).isEqualTo(1);
+
+        queue.finish(first);
+        assertThat(started).containsExactly("c1", "c2");
+        assertThat(queue.getQueueDepth()).isEqualTo(0);
+        assertThat(queue.getRunningCount()).isEqualTo(1);
+    }
+
+    @Test public void shouldSerializePurchases() throws Exception {
+        Operation first = new Operation("p1", PURCHASE);
+        enqueue(first);
+        assertThat(enqueue(new Operation("p2", PURCHASE))).isFalse();
+        assertThat(enqueue(new Operation("q", QUERY))).isTrue();
+
+        queue.finish(first);
+        assertThat(started).containsExactly("p1", "q", "p2");
+    }
+
+    @Test public void shouldNotLetLaterOperationsOvertakeConflictingWaitingOnes() throws Exception {
+        Operation c1 = new Operation("c1", CONSUME, Arrays.asList("a"));
+        Operation c2 = new Operation("c2", CONSUME, Arrays.asList("b"));
+        enqueue(c1);
+        enqueue(c2);
+        // waits for c1 and c2
+        enqueue(new Operation("c3", CONSUME, Arrays.asList("a", "b")));
+        // doesn't conflict with anything running, but with c3, which was first
+        assertThat(enqueue(new Operation("c4", CONSUME, Arrays.asList("b")))).isFalse();
+
+        queue.finish(c2);
+        assertThat(started).containsExactly("c1", "c2");
+        queue.finish(c1);
+        assertThat(started).containsExactly("c1", "c2", "c3");
+        assertThat(queue.getQueueDepth()).isEqualTo(1);
+    }
+
+    @Test public void shouldTrackWaitTime() throws Exception {
+        Operation first = new Operation("p1", PURCHASE);
+        enqueue(first);
+        enqueue(new Operation("p2", PURCHASE));
+        now = 100;
+        queue.finish(first);
+
+        assertThat(queue.getMaxWaitMillis()).isEqualTo(100);
+        assertThat(queue.getAverageWaitMillis()).isEqualTo(50);
+    }
+
+    @Test public void shouldIgnoreUnknownOperationOnFinish() throws Exception {
+        enqueue(new Operation("p1", PURCHASE));
+        enqueue(new Operation("p2", PURCHASE));
+        queue.finish(new Operation("p1", PURCHASE));
+        assertThat(started).containsExactly("p1");
+    }
+
+    @Test public void shouldNotStartWaitingOperationsAfterClear() throws Exception {
+        Operation first = new Operation("p1", PURCHASE);
+        enqueue(first);
+        enqueue(new Operation("p2", PURCHASE));
+        queue.clear();
+        queue.finish(first);
+        assertThat(started).containsExactly("p1");
+        assertThat(queue.getQueueDepth()).isEqualTo(0);
+    }
+
+    @Test public void shouldAbortWaitingOperationsOnClear() throws Exception {
+        final List<String> aborted = new ArrayList<String>();
+        enqueue(new Operation("p1", PURCHASE));
+        queue.enqueue(new Operation("p2", PURCHASE), new Runnable() {
+            @Override
+            public void run() {
+                started.add("p2");
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                aborted.add("p2");
+            }
+        }, DIRECT_EXECUTOR);
+        queue.clear();
+        assertThat(started).containsExactly("p1");
+        assertThat(aborted).containsExactly("p2");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotEnqueueOperationTwice() throws Exception {
+        Operation operation = new Operation("q", QUERY);
+        enqueue(operation);
+        enqueue(operation);
+    }
+
+    private boolean enqueue(final Operation operation) {
+        return queue.enqueue(operation, new Runnable() {
+            @Override
+            public void run() {
+                started.add(operation.name);
+            }
+        }, DIRECT_EXECUTOR);
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.jberkel.pay.me;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class ParallelTasksTest {
+    private ExecutorService executor;
+
+    @Before public void before() {
+        executor = ParallelTasks.newBoundedExecutor("test", 2);
+    }
+
+    @After public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test public void shouldReturnResultsInOrder() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 20; i++) {
+            tasks.add(constant(i));
+        }
+        List<Future<Integer>> results = ParallelTasks.invokeAll(executor, tasks);
+        assertThat(results).hasSize(20);
+        for (int i = 0; i < 20; i++) {
+            assertThat(results.get(i).isDone()).isTrue();
+            assertThat(results.get(i).get()).isEqualTo(i);
+        }
+    }
+
+    @Test public void shouldRunTasksConcurrently() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for (int i = 0; i < 2; i++) {
+            tasks.add(new Callable<Boolean>() {
+                @Override public Boolean call() throws Exception {
+                    latch.countDown();
+                    return latch.await(5, TimeUnit.SECONDS);
+                }
+            });
+        }
+        for (Future<Boolean> result : ParallelTasks.invokeAll(executor, tasks)) {
+            assertThat(result.get()).isTrue();
+        }
+    }
+
+    @Test public void shouldReportExceptionsThroughFuture() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        tasks.add(constant(1));
+        tasks.add(new Callable<Integer>() {
+            @Override public Integer call() throws Exception {
+                throw new IabException(Response.ERROR, "failed");
+            }
+        });
+        List<Future<Integer>> results = ParallelTasks.invokeAll(executor, tasks);
+        assertThat(results.get(0).get()).isEqualTo(1);
+        try {
+            results.get(1).get();
+            fail("expected exception");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IabException.class);
+        }
+    }
+
+    @Test public void shouldRunOnCallingThreadIfExecutorRejectsTasks() throws Exception {
+        Executor rejecting = new Executor() {
+            @Override public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        List<Callable<Thread>> tasks = new ArrayList<Callable<Thread>>();
+        for (int i = 0; i < 3; i++) {
+            tasks.add(new Callable<Thread>() {
+                @Override public Thread call() throws Exception {
+                    return Thread.currentThread();
+                }
+            });
+        }
+        for (Future<Thread> result : ParallelTasks.invokeAll(rejecting, tasks)) {
+            assertThat(result.get()).isSameAs(Thread.currentThread());
+        }
+    }
+
+    private static Callable<Integer> constant(final int value) {
+        return new Callable<Integer>() {
+            @Override public Integer call() throws Exception {
+                return value;
+            }
+        };
+    }
+}
@@ -8,6 +8,9 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.robolectric.RobolectricTestRunner;
 
+import java.util.Arrays;
+
+import static com.github.jberkel.pay.me.TestHelper.DIRECT_EXECUTOR;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -19,24 +22,27 @@ public class QueryInventoryTaskTest {
     @Mock
     QueryInventoryFinishedListener listener;
 
+    OperationQueue.Operation operation;
     QueryInventoryTask task;
 
     @Before public void before() throws Exception {
         initMocks(this);
-        task = new QueryInventoryTask(iabHelper, listener);
+        operation = new OperationQueue.Operation("refresh inventory", OperationQueue.Kind.QUERY);
+        task = new QueryInventoryTask(iabHelper, operation, listener);
     }
 
     @Test public void shouldQueryInventory() throws Exception {
         Inventory inventory = mock(Inventory.class);
         when(iabHelper.queryInventory(false, null, null)).thenReturn(inventory);
-        Inventory result = task.execute(new QueryInventoryTask.Args(false, null, null)).get();
+        Inventory result = task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR, new QueryInventoryTask.Args(false, null, null)).get();
         assertThat(result).isSameAs(inventory);
         verify(listener).onQueryInventoryFinished(new IabResult(Response.OK), inventory);
+        verify(iabHelper).finishOperation(operation);
     }
 
     @Test public void shouldQueryInventoryWithException() throws Exception {
         when(iabHelper.queryInventory(false, null, null)).thenThrow(new IabException(Response.ERROR, ""));
-        Inventory result = task.execute(new QueryInventoryTask.Args(false, null, null)).get();
+        Inventory result = task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR, new QueryInventoryTask.Args(false, null, null)).get();
         assertThat(result).isNull();
         verify(listener).onQueryInventoryFinished(new IabResult(Response.ERROR), null);
     }
@@ -45,10 +51,45 @@ public class QueryInventoryTaskTest {
         Inventory inventory = mock(Inventory.class);
         when(iabHelper.queryInventory(false, null, null)).thenReturn(inventory);
         when(iabHelper.isDisposed()).thenReturn(true);
-        task.execute(new QueryInventoryTask.Args(false, null, null)).get();
+        task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR, new QueryInventoryTask.Args(false, null, null)).get();
+        verify(iabHelper).finishOperation(operation);
         verifyZeroInteractions(listener);
     }
 
+    @Test public void shouldNotifyAllAttachedListeners() throws Exception {
+        QueryInventoryFinishedListener other = mock(QueryInventoryFinishedListener.class);
+        Inventory inventory = mock(Inventory.class);
+        when(iabHelper.queryInventory(false, null, null)).thenReturn(inventory);
+
+        assertThat(task.addListener(other)).isTrue();
+        task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR, new QueryInventoryTask.Args(false, null, null)).get();
+
+        verify(listener).onQueryInventoryFinished(new IabResult(Response.OK), inventory);
+        verify(other).onQueryInventoryFinished(new IabResult(Response.OK), inventory);
+        verify(iabHelper, times(1)).queryInventory(false, null, null);
+    }
+
+    @Test public void shouldNotAttachListenerAfterQueryFinished() throws Exception {
+        when(iabHelper.queryInventory(false, null, null)).thenReturn(mock(Inventory.class));
+        task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR, new QueryInventoryTask.Args(false, null, null)).get();
+        assertThat(task.addListener(mock(QueryInventoryFinishedListener.class))).isFalse();
+    }
+
+    @Test public void argsShouldCoverSameOrSmallerQueries() throws Exception {
+        QueryInventoryTask.Args noDetails = new QueryInventoryTask.Args(false, null, null);
+        QueryInventoryTask.Args details = new QueryInventoryTask.Args(true, null, null);
+        QueryInventoryTask.Args moreSkus = new QueryInventoryTask.Args(true, Arrays.asList("a", "b"), Arrays.asList("c"));
+        QueryInventoryTask.Args fewerSkus = new QueryInventoryTask.Args(true, Arrays.asList("b"), null);
+
+        assertThat(noDetails.covers(noDetails)).isTrue();
+        assertThat(noDetails.covers(details)).isFalse();
+        assertThat(details.covers(noDetails)).isTrue();
+        assertThat(details.covers(fewerSkus)).isFalse();
+        assertThat(moreSkus.covers(fewerSkus)).isTrue();
+        assertThat(moreSkus.covers(details)).isTrue();
+        assertThat(fewerSkus.covers(moreSkus)).isFalse();
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void shouldCheckArgumentsNull() throws Exception {
         task.doInBackground((QueryInventoryTask.Args) null);
@@ -0,0 +1,76 @@
+package com.github.jberkel.pay.me;
+
+import com.github.jberkel.pay.me.listener.OnPurchasesPageListener;
+import com.github.jberkel.pay.me.listener.QueryPurchasesListener;
+import com.github.jberkel.pay.me.model.Inventory;
+import com.github.jberkel.pay.me.model.Purchase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.github.jberkel.pay.me.TestHelper.DIRECT_EXECUTOR;
+import static com.github.jberkel.pay.me.model.ItemType.INAPP;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(RobolectricTestRunner.class)
+public class QueryPurchasesTaskTest {
+    @Mock
+    IabHelper iabHelper;
+    @Mock
+    QueryPurchasesListener listener;
+
+    OperationQueue.Operation operation;
+    QueryPurchasesTask task;
+
+    @Before public void before() throws Exception {
+        initMocks(this);
+        operation = new OperationQueue.Operation("query purchases", OperationQueue.Kind.QUERY);
+        task = new QueryPurchasesTask(iabHelper, operation, listener);
+    }
+
+    @Test public void shouldDeliverPagesAndResult() throws Exception {
+        final Inventory inventory = mock(Inventory.class);
+        final List<Purchase> page = Collections.singletonList(mock(Purchase.class));
+        when(iabHelper.queryPurchases(any(OnPurchasesPageListener.class))).thenAnswer(new Answer<Inventory>() {
+            @Override
+            public Inventory answer(InvocationOnMock invocation) throws Throwable {
+                ((OnPurchasesPageListener) invocation.getArguments()[0]).onPurchasesPage(INAPP, page);
+                return inventory;
+            }
+        });
+
+        assertThat(task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR).get()).isSameAs(inventory);
+
+        verify(listener).onPurchasesPage(INAPP, page);
+        verify(listener).onQueryPurchasesFinished(new IabResult(Response.OK), inventory);
+        verify(iabHelper).finishOperation(operation);
+    }
+
+    @Test public void shouldReportError() throws Exception {
+        when(iabHelper.queryPurchases(any(OnPurchasesPageListener.class))).thenThrow(new IabException(Response.ERROR, ""));
+
+        assertThat(task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR).get()).isNull();
+
+        verify(listener).onQueryPurchasesFinished(new IabResult(Response.ERROR), null);
+    }
+
+    @Test public void shouldNotNotifyListenerIfHelperWasDisposed() throws Exception {
+        when(iabHelper.queryPurchases(any(OnPurchasesPageListener.class))).thenReturn(mock(Inventory.class));
+        when(iabHelper.isDisposed()).thenReturn(true);
+
+        task.execute(DIRECT_EXECUTOR, DIRECT_EXECUTOR).get();
+
+        verify(iabHelper).finishOperation(operation);
+        verifyZeroInteractions(listener);
+    }
+}
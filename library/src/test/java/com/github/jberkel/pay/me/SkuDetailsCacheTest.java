@@ -0,0 +1,87 @@
+package com.github.jberkel.pay.me;
+
+import com.github.jberkel.pay.me.model.SkuDetails;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class SkuDetailsCacheTest {
+    private long now;
+    private SkuDetailsCache cache;
+
+    @Before public void before() {
+        now = 1000;
+        cache = new SkuDetailsCache(2, 100) {
+            @Override long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    @Test public void shouldCacheDetails() throws Exception {
+        SkuDetails details = details("sku1");
+        cache.put(details);
+        assertThat(cache.get("sku1")).isSameAs(details);
+        assertThat(cache.get("sku2")).isNull();
+        assertThat(cache.hitCount()).isEqualTo(1);
+        assertThat(cache.missCount()).isEqualTo(1);
+    }
+
+    @Test public void shouldExpireEntriesAfterTtl() throws Exception {
+        cache.put(details("sku1"));
+        cache.put(details("sku2"), 500);
+
+        now += 100;
+        assertThat(cache.isStale(cache.lookup("sku1"))).isTrue();
+        assertThat(cache.isStale(cache.lookup("sku2"))).isFalse();
+        assertThat(cache.staleHitCount()).isEqualTo(1);
+        // stale entries are still served
+        assertThat(cache.get("sku1")).isNotNull();
+    }
+
+    @Test public void shouldEvictLeastRecentlyUsedEntry() throws Exception {
+        cache.put(details("sku1"));
+        cache.put(details("sku2"));
+        cache.get("sku1");
+        cache.put(details("sku3"));
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get("sku2")).isNull();
+        assertThat(cache.get("sku1")).isNotNull();
+        assertThat(cache.get("sku3")).isNotNull();
+        assertThat(cache.evictionCount()).isEqualTo(1);
+    }
+
+    @Test public void shouldOnlyRefreshOnce() throws Exception {
+        cache.put(details("sku1"));
+        assertThat(cache.startRefresh("sku1")).isTrue();
+        assertThat(cache.startRefresh("sku1")).isFalse();
+        cache.endRefresh("sku1");
+        assertThat(cache.startRefresh("sku1")).isTrue();
+        assertThat(cache.startRefresh("unknown")).isFalse();
+    }
+
+    @Test public void shouldResetRefreshWhenUpdated() throws Exception {
+        cache.put(details("sku1"));
+        assertThat(cache.startRefresh("sku1")).isTrue();
+        cache.put(details("sku1"));
+        assertThat(cache.startRefresh("sku1")).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRequirePositiveSize() throws Exception {
+        new SkuDetailsCache(0, 100);
+    }
+
+    private static SkuDetails details(String sku) {
+        SkuDetails details = mock(SkuDetails.class);
+        when(details.getSku()).thenReturn(sku);
+        return details;
+    }
+}
@@ -4,33 +4,43 @@ import android.os.Bundle;
 import org.hamcrest.Description;
 import org.mockito.ArgumentMatcher;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
 
-import static org.fest.assertions.api.Assertions.assertThat;
 import static org.mockito.Matchers.argThat;
 
 public class TestHelper {
+    /** Runs commands immediately on the calling thread. */
+    public static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
     private TestHelper() {
     }
 
-    public static String resourceAsString(String name) throws IOException {
-        InputStream is = TestHelper.class.getResourceAsStream("/" + name);
-        assertThat(is).isNotNull();
-        try {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            byte[] buffer = new byte[8192];
-            int n;
-            while ((n = is.read(buffer)) != -1) {
-                bos.write(buffer, 0, n);
+    /** Collects commands until {@link #runAll()} is called. */
+    public static class QueueingExecutor implements Executor {
+        private final List<Runnable> commands = new ArrayList<Runnable>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            commands.add(command);
+        }
+
+        public void runAll() {
+            List<Runnable> pending;
+            synchronized (this) {
+                pending = new ArrayList<Runnable>(commands);
+                commands.clear();
+            }
+            for (Runnable command : pending) {
+                command.run();
             }
-            return new String(bos.toByteArray(), Charset.forName("UTF-8"));
-        } finally {
-            is.close();
         }
     }
 